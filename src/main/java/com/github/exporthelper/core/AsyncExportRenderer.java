@@ -0,0 +1,500 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.exporthelper.core.html.HtmlTable;
+
+/**
+ * <p>
+ * Renders exports asynchronously, using the Servlet 3 asynchronous support, so
+ * that the container threads are released as soon as the export is scheduled.
+ * <p>
+ * The exports are rendered by a dedicated executor, whose size and queue are
+ * bounded: when it is full, the client immediately receives a
+ * <code>503 Service Unavailable</code> response instead of waiting. An export
+ * that doesn't complete before the timeout is interrupted and, if nothing has
+ * been sent yet, the client receives a <code>503</code> response as well.
+ * Since an export may not check its interruption, the response it writes to
+ * rejects any write once the timeout has expired, the real response being
+ * handed back to the container.
+ * <p>
+ * If the request doesn't support asynchronous processing (e.g. a filter isn't
+ * declared as <code>async-supported</code>), the export is rendered on the
+ * calling thread, like {@link ExportUtils} does.
+ * <p>
+ * A single instance is meant to be shared by the whole application and
+ * {@link #shutdown()} when the application stops.
+ *
+ * @since 1.0
+ */
+public class AsyncExportRenderer {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(AsyncExportRenderer.class);
+
+	/**
+	 * Default timeout of an export, in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+	private final ExecutorService executor;
+	private final boolean ownExecutor;
+	private long timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * Creates a renderer with its own executor.
+	 * 
+	 * @param threads
+	 *            The maximum number of exports rendered at the same time.
+	 * @param queueCapacity
+	 *            The maximum number of exports waiting for a thread.
+	 */
+	public AsyncExportRenderer(int threads, int queueCapacity) {
+		ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueCapacity), new ExportThreadFactory());
+		threadPool.allowCoreThreadTimeOut(true);
+		this.executor = threadPool;
+		this.ownExecutor = true;
+	}
+
+	/**
+	 * Creates a renderer using the passed executor, which is expected to be
+	 * bounded and which remains managed by the caller.
+	 * 
+	 * @param executor
+	 *            The executor rendering the exports.
+	 */
+	public AsyncExportRenderer(ExecutorService executor) {
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
+	/**
+	 * Renders the passed table asynchronously.
+	 * 
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param request
+	 *            The current request.
+	 * @param response
+	 *            The response to update.
+	 * @see ExportUtils#renderExport(HtmlTable, ExportConf, HttpServletResponse)
+	 */
+	public void renderExport(final HtmlTable table, final ExportConf exportConf, HttpServletRequest request,
+			HttpServletResponse response) {
+		render(exportConf, request, response, new Renderer() {
+			@Override
+			public void render(HttpServletRequest asyncRequest, HttpServletResponse asyncResponse) {
+				ExportUtils.renderExport(table, exportConf, asyncRequest, asyncResponse);
+			}
+		});
+	}
+
+	/**
+	 * Renders the passed source asynchronously.
+	 * 
+	 * @param source
+	 *            The source of the table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param request
+	 *            The current request.
+	 * @param response
+	 *            The response to update.
+	 * @see ExportUtils#renderExport(HtmlTableSource, ExportConf,
+	 *      HttpServletResponse)
+	 */
+	public void renderExport(final HtmlTableSource source, final ExportConf exportConf, HttpServletRequest request,
+			HttpServletResponse response) {
+		render(exportConf, request, response, new Renderer() {
+			@Override
+			public void render(HttpServletRequest asyncRequest, HttpServletResponse asyncResponse) {
+				ExportUtils.renderExport(source, exportConf, asyncRequest, asyncResponse);
+			}
+		});
+	}
+
+	private void render(final ExportConf exportConf, HttpServletRequest request, HttpServletResponse response,
+			final Renderer renderer) {
+
+		if (!request.isAsyncSupported()) {
+			logger.debug("The request doesn't support asynchronous processing, the export is rendered synchronously");
+			renderer.render(request, response);
+			return;
+		}
+
+		final AsyncContext asyncContext = request.startAsync(request, response);
+		asyncContext.setTimeout(timeout);
+		final HttpServletRequest asyncRequest = (HttpServletRequest) asyncContext.getRequest();
+		final HttpServletResponse asyncResponse = (HttpServletResponse) asyncContext.getResponse();
+		final GuardedResponse exportResponse = new GuardedResponse(asyncResponse);
+		final AtomicReference<Future<?>> future = new AtomicReference<Future<?>>();
+
+		// Registered first since the export may complete before submit() returns
+		asyncContext.addListener(new AsyncListener() {
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				if (!exportResponse.complete()) {
+					return;
+				}
+				logger.warn("The {} export didn't complete within {} ms and is cancelled", exportConf.getFormat(),
+						timeout);
+				cancel(future);
+				sendError(asyncResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				complete(asyncContext);
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+				exportResponse.complete();
+				cancel(future);
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+
+		try {
+			future.set(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					if (exportResponse.isCompleted()) {
+						logger.debug("The {} export timed out before being started", exportConf.getFormat());
+						return;
+					}
+					RuntimeException failure = null;
+					try {
+						renderer.render(asyncRequest, exportResponse);
+					} catch (RuntimeException e) {
+						failure = e;
+					}
+
+					// Unless the timeout already handed the response back to the container
+					if (exportResponse.complete()) {
+						if (failure != null) {
+							logger.error("Unable to render the {} export", exportConf.getFormat(), failure);
+							sendError(asyncResponse, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+						}
+						complete(asyncContext);
+					}
+					else if (failure != null) {
+						logger.debug("The {} export stopped after its timeout", exportConf.getFormat(), failure);
+					}
+				}
+			}));
+		} catch (RejectedExecutionException e) {
+			logger.warn("Too many exports in progress, the {} export is rejected", exportConf.getFormat());
+			exportResponse.complete();
+			sendError(asyncResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			complete(asyncContext);
+		}
+	}
+
+	private static void cancel(AtomicReference<Future<?>> future) {
+		if (future.get() != null) {
+			future.get().cancel(true);
+		}
+	}
+
+	private static void sendError(HttpServletResponse response, int status) {
+		if (response.isCommitted()) {
+			return;
+		}
+		try {
+			response.reset();
+			response.sendError(status);
+		} catch (IOException e) {
+			logger.debug("Unable to send the error {} to the client", status, e);
+		} catch (IllegalStateException e) {
+			logger.debug("Unable to send the error {} to the client", status, e);
+		}
+	}
+
+	/**
+	 * Called once, by whichever of the export task and the timeout first
+	 * completes the {@link GuardedResponse}.
+	 */
+	private static void complete(AsyncContext asyncContext) {
+		try {
+			asyncContext.complete();
+		} catch (IllegalStateException e) {
+			logger.debug("The asynchronous context is already completed", e);
+		}
+	}
+
+	/**
+	 * Stops the executor if it has been created by this renderer. The exports
+	 * in progress are interrupted.
+	 */
+	public void shutdown() {
+		if (ownExecutor) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the timeout of an export, in milliseconds.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout
+	 *            The timeout of an export, in milliseconds. Zero or less means
+	 *            no timeout.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Renders an export in the response.
+	 */
+	private interface Renderer {
+		void render(HttpServletRequest request, HttpServletResponse response);
+	}
+
+	/**
+	 * Response given to the export, which stops reaching the real response once
+	 * completed: the writes then fail and the other changes are ignored, so
+	 * that an export running past its timeout doesn't write into a response
+	 * the container has completed or recycled.
+	 */
+	private static final class GuardedResponse extends HttpServletResponseWrapper {
+
+		private final AtomicBoolean completed = new AtomicBoolean();
+		private ServletOutputStream outputStream;
+		private PrintWriter writer;
+
+		GuardedResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		/**
+		 * Detaches the export from the real response, waiting for a write in
+		 * progress.
+		 * 
+		 * @return <code>false</code> if the response was already completed.
+		 */
+		boolean complete() {
+			if (!completed.compareAndSet(false, true)) {
+				return false;
+			}
+			synchronized (this) {
+				return true;
+			}
+		}
+
+		boolean isCompleted() {
+			return completed.get();
+		}
+
+		@Override
+		public synchronized ServletOutputStream getOutputStream() throws IOException {
+			checkNotCompleted();
+			if (outputStream == null) {
+				outputStream = new GuardedOutputStream(this, super.getOutputStream());
+			}
+			return outputStream;
+		}
+
+		@Override
+		public synchronized PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		@Override
+		public synchronized void setContentType(String type) {
+			if (!completed.get()) {
+				super.setContentType(type);
+			}
+		}
+
+		@Override
+		public synchronized void setHeader(String name, String value) {
+			if (!completed.get()) {
+				super.setHeader(name, value);
+			}
+		}
+
+		@Override
+		public synchronized void addHeader(String name, String value) {
+			if (!completed.get()) {
+				super.addHeader(name, value);
+			}
+		}
+
+		@Override
+		public synchronized void setStatus(int sc) {
+			if (!completed.get()) {
+				super.setStatus(sc);
+			}
+		}
+
+		@Override
+		public synchronized void sendError(int sc) throws IOException {
+			checkNotCompleted();
+			super.sendError(sc);
+		}
+
+		@Override
+		public synchronized void sendError(int sc, String msg) throws IOException {
+			checkNotCompleted();
+			super.sendError(sc, msg);
+		}
+
+		@Override
+		public synchronized void flushBuffer() throws IOException {
+			checkNotCompleted();
+			super.flushBuffer();
+		}
+
+		@Override
+		public synchronized void reset() {
+			if (!completed.get()) {
+				super.reset();
+			}
+		}
+
+		@Override
+		public synchronized void resetBuffer() {
+			if (!completed.get()) {
+				super.resetBuffer();
+			}
+		}
+
+		private void checkNotCompleted() throws IOException {
+			if (completed.get()) {
+				throw new IOException("The export timed out and its response is completed");
+			}
+		}
+	}
+
+	/**
+	 * Writes to the real response as long as the {@link GuardedResponse} isn't
+	 * completed.
+	 */
+	private static final class GuardedOutputStream extends ServletOutputStream {
+
+		private final GuardedResponse response;
+		private final ServletOutputStream out;
+
+		GuardedOutputStream(GuardedResponse response, ServletOutputStream out) {
+			this.response = response;
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			synchronized (response) {
+				response.checkNotCompleted();
+				out.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (response) {
+				response.checkNotCompleted();
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (response) {
+				response.checkNotCompleted();
+				out.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			synchronized (response) {
+				if (!response.isCompleted()) {
+					out.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates named daemon threads, so that the exports don't prevent the JVM
+	 * from stopping.
+	 */
+	private static final class ExportThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "export-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
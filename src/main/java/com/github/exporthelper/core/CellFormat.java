@@ -0,0 +1,176 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * <p>
+ * Compiled form of a {@link MessageFormat} pattern used to format the content
+ * of a cell, e.g. <code>{0,date,dd-MM-yyyy}</code>.
+ * <p>
+ * The pattern is parsed only once. Since the underlying JDK formats are not
+ * thread-safe, each thread gets its own copy of the parsed format. Patterns
+ * made of a single date, time or number element with an explicit subformat
+ * pattern skip {@link MessageFormat} entirely and use the subformat directly.
+ *
+ * @see ColumnElement
+ * @since 1.0
+ */
+public abstract class CellFormat {
+
+	/**
+	 * Matches <code>{0,date,...}</code>, <code>{0,time,...}</code> and
+	 * <code>{0,number,...}</code> without any surrounding text nor quote.
+	 */
+	private static final Pattern SINGLE_ELEMENT = Pattern
+			.compile("\\{\\s*0\\s*,\\s*(date|time|number)\\s*,([^{}']+)\\}");
+
+	private final String pattern;
+
+	private CellFormat(String pattern) {
+		this.pattern = pattern;
+	}
+
+	/**
+	 * Compiles the passed {@link MessageFormat} pattern using the default
+	 * format locale.
+	 *
+	 * @param pattern
+	 *            The pattern to compile.
+	 * @return the compiled format, or <code>null</code> if the pattern is
+	 *         blank.
+	 * @throws IllegalArgumentException
+	 *             if the pattern is invalid.
+	 */
+	public static CellFormat compile(String pattern) {
+		if (StringUtils.isBlank(pattern)) {
+			return null;
+		}
+
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+		Matcher matcher = SINGLE_ELEMENT.matcher(pattern);
+		if (matcher.matches() && !isStyleKeyword(matcher.group(2))) {
+			if ("number".equals(matcher.group(1))) {
+				return new SubformatCellFormat(pattern, new DecimalFormat(matcher.group(2),
+						DecimalFormatSymbols.getInstance(locale)));
+			}
+			return new SubformatCellFormat(pattern, new SimpleDateFormat(matcher.group(2), locale));
+		}
+		return new MessageCellFormat(pattern, new MessageFormat(pattern, locale));
+	}
+
+	/**
+	 * MessageFormat gives a special meaning to these styles, which are then
+	 * left to it.
+	 */
+	private static boolean isStyleKeyword(String style) {
+		String keyword = style.trim().toLowerCase(Locale.ROOT);
+		return keyword.isEmpty() || keyword.equals("short") || keyword.equals("medium") || keyword.equals("long")
+				|| keyword.equals("full") || keyword.equals("currency") || keyword.equals("percent")
+				|| keyword.equals("integer");
+	}
+
+	/**
+	 * Formats the passed value as the pattern's argument <code>{0}</code>.
+	 *
+	 * @param value
+	 *            The value to format.
+	 * @return the formatted value.
+	 * @throws IllegalArgumentException
+	 *             if the value cannot be formatted using the pattern.
+	 */
+	public abstract String format(Object value);
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	@Override
+	public String toString() {
+		return "CellFormat [pattern=" + pattern + "]";
+	}
+
+	/**
+	 * Pattern made of a single date or number element, formatted with the
+	 * subformat only.
+	 */
+	private static final class SubformatCellFormat extends CellFormat {
+
+		private final ThreadLocal<Format> formats;
+
+		SubformatCellFormat(String pattern, final Format prototype) {
+			super(pattern);
+			this.formats = new ThreadLocal<Format>() {
+				@Override
+				protected Format initialValue() {
+					return (Format) prototype.clone();
+				}
+			};
+		}
+
+		@Override
+		public String format(Object value) {
+			return formats.get().format(value);
+		}
+	}
+
+	/**
+	 * Any other pattern, formatted with a per-thread {@link MessageFormat}.
+	 */
+	private static final class MessageCellFormat extends CellFormat {
+
+		private final ThreadLocal<MessageFormat> formats;
+
+		MessageCellFormat(String pattern, final MessageFormat prototype) {
+			super(pattern);
+			this.formats = new ThreadLocal<MessageFormat>() {
+				@Override
+				protected MessageFormat initialValue() {
+					return (MessageFormat) prototype.clone();
+				}
+			};
+		}
+
+		@Override
+		public String format(Object value) {
+			return formats.get().format(new Object[] { value });
+		}
+	}
+}
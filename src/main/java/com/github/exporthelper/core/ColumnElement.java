@@ -42,6 +42,7 @@ public class ColumnElement {
 
 	private String propertyName;
 	private String pattern;
+	private CellFormat cellFormat;
 	private String content;
 	private String defaultValue;
 
@@ -59,6 +60,15 @@ public class ColumnElement {
 
 	public void setPattern(String pattern) {
 		this.pattern = pattern;
+		this.cellFormat = CellFormat.compile(pattern);
+	}
+
+	/**
+	 * @return the compiled form of the pattern, or <code>null</code> if no
+	 *         pattern is set.
+	 */
+	public CellFormat getCellFormat() {
+		return cellFormat;
 	}
 
 	public String getDefaultValue() {
@@ -80,6 +90,7 @@ public class ColumnElement {
 	public ColumnElement(String propertyName, String pattern, String content, String defaultValue) {
 		this.propertyName = propertyName;
 		this.pattern = pattern;
+		this.cellFormat = CellFormat.compile(pattern);
 		this.content = content;
 		this.defaultValue = defaultValue;
 	}
@@ -29,24 +29,78 @@
  */
 package com.github.exporthelper.core;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.github.exporthelper.core.exception.ExportException;
-import com.github.exporthelper.core.html.HtmlColumn;
 import com.github.exporthelper.core.html.HtmlRow;
 import com.github.exporthelper.core.html.HtmlTable;
 
 /**
+ * <p>
  * Default class used to export in the CSV format.
+ * <p>
+ * The rows are encoded one by one into a fixed-size buffer, following RFC
+ * 4180: a cell containing the separator, the quote character or a line break
+ * is enclosed in quotes, its quotes being doubled. The separator, the quote
+ * character, the line ending, the charset and the byte order mark are set in
+ * the {@link ExportConf}.
+ * <p>
+ * When {@link ExportConf#getParallelism()} is greater than 1, the body rows
+ * are encoded in chunks on an executor, the common {@link ForkJoinPool} by
+ * default, and the chunks are written in order. At most twice that many
+ * chunks are held in memory at a time.
  * 
  * @author Thibault Duchateau
  */
-public class CsvExport implements DatatablesExport {
+public class CsvExport implements DatatablesExport, DatatablesStreamingExport {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(CsvExport.class);
+
+	/**
+	 * Number of body rows encoded by a single task in parallel mode.
+	 */
+	static final int CHUNK_SIZE = 1000;
 
-	private static final String SEPARATOR_CHAR = ";";
+	private final ExecutorService executor;
 	private HtmlTable table;
 	private ExportConf exportConf;
+	private OutputStream output;
+	private CsvWriter writer;
+
+	// Parallel mode only
+	private int maxPendingChunks;
+	private List<HtmlRow> chunk;
+	private Deque<Future<byte[]>> pendingChunks;
+
+	public CsvExport() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param executor
+	 *            The executor encoding the chunks of rows when the export is
+	 *            configured to run in parallel.
+	 */
+	public CsvExport(ExecutorService executor) {
+		this.executor = executor;
+	}
 
 	@Override
 	public void initExport(HtmlTable table) {
@@ -57,32 +111,205 @@ public class CsvExport implements DatatablesExport {
 
 	@Override
 	public void processExport(OutputStream output) {
-		StringBuilder buffer = new StringBuilder();
+		beginExport(table, output);
+		for (HtmlRow row : table.getBodyRows()) {
+			exportRow(row);
+		}
+		endExport();
+	}
 
-		if (exportConf.getIncludeHeader()) {
-			for (HtmlRow row : table.getHeadRows()) {
-				for (HtmlColumn column : row.getColumns(ReservedFormat.ALL, ReservedFormat.CSV)) {
-					buffer.append(column.getContent()).append(SEPARATOR_CHAR);
+	@Override
+	public void beginExport(HtmlTable table, OutputStream output) {
+		initExport(table);
+		this.output = output;
+		this.writer = new CsvWriter(exportConf, output);
+
+		try {
+			if (exportConf.getBom()) {
+				writer.writeBom();
+			}
+			if (exportConf.getIncludeHeader()) {
+				for (HtmlRow row : table.getHeadRows()) {
+					writer.writeRow(row);
 				}
-				buffer.append("\n");
 			}
+
+			Integer parallelism = exportConf.getParallelism();
+			if (parallelism != null && parallelism > 1) {
+				// The chunks are written straight to the output from now on
+				writer.finish();
+				this.writer = null;
+				this.maxPendingChunks = 2 * parallelism;
+				this.chunk = new ArrayList<HtmlRow>(CHUNK_SIZE);
+				this.pendingChunks = new ArrayDeque<Future<byte[]>>(maxPendingChunks);
+			}
+		} catch (IOException e) {
+			throw wrap(e);
 		}
-		for (HtmlRow row : table.getBodyRows()) {
-			for (HtmlColumn column : row.getColumns(ReservedFormat.ALL, ReservedFormat.CSV)) {
-				buffer.append(column.getContent()).append(SEPARATOR_CHAR);
+	}
+
+	@Override
+	public void exportRow(HtmlRow row) {
+		if (writer != null) {
+			try {
+				writer.writeRow(row);
+			} catch (IOException e) {
+				throw wrap(e);
 			}
+			return;
+		}
+
+		chunk.add(row);
+		if (chunk.size() == CHUNK_SIZE) {
+			submitChunk();
+		}
+	}
+
+	@Override
+	public void endExport() {
+		try {
+			if (writer != null) {
+				writer.finish();
+				return;
+			}
+
+			if (!chunk.isEmpty()) {
+				submitChunk();
+			}
+			while (!pendingChunks.isEmpty()) {
+				writeNextChunk();
+			}
+			output.flush();
+		} catch (IOException e) {
+			throw wrap(e);
+		}
+	}
 
-			buffer.append("\n");
+	/**
+	 * Cancels the chunks still being encoded, whose bytes will never be
+	 * written.
+	 */
+	@Override
+	public void abortExport() {
+		if (pendingChunks != null) {
+			cancelPendingChunks();
 		}
+		chunk = null;
+		writer = null;
+	}
+
+	/**
+	 * Hands the current chunk over to the executor, after having written the
+	 * oldest chunks if too many are pending.
+	 */
+	private void submitChunk() {
+		final List<HtmlRow> rows = chunk;
+		chunk = new ArrayList<HtmlRow>(CHUNK_SIZE);
 
 		try {
-			output.write(buffer.toString().getBytes());
+			while (pendingChunks.size() >= maxPendingChunks
+					|| (!pendingChunks.isEmpty() && pendingChunks.peekFirst().isDone())) {
+				writeNextChunk();
+			}
+
+			Future<byte[]> future;
+			try {
+				future = executor.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return encode(rows);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				logger.debug("A chunk of {} rows has been rejected, it will be encoded on the calling thread", rows.size());
+				future = new CompletedChunk(encode(rows));
+			}
+			pendingChunks.addLast(future);
 		} catch (IOException e) {
-			StringBuilder sb = new StringBuilder("Something went wrong during the CSV generation of the table '");
-			sb.append(table.getOriginalId());
-			sb.append("' and with the following export configuration: ");
-			sb.append(exportConf.toString());
-			throw new ExportException(sb.toString(), e);
+			throw wrap(e);
+		}
+	}
+
+	/**
+	 * Waits for the oldest pending chunk and writes it.
+	 */
+	private void writeNextChunk() throws IOException {
+		Future<byte[]> future = pendingChunks.removeFirst();
+		try {
+			output.write(future.get());
+		} catch (ExecutionException e) {
+			cancelPendingChunks();
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new ExportException("Unable to encode the rows of the table '" + table.getOriginalId() + "'",
+					e.getCause());
+		} catch (InterruptedException e) {
+			cancelPendingChunks();
+			Thread.currentThread().interrupt();
+			throw new ExportException("Interrupted while exporting the table '" + table.getOriginalId() + "'", e);
+		}
+	}
+
+	private void cancelPendingChunks() {
+		for (Future<byte[]> future : pendingChunks) {
+			future.cancel(true);
+		}
+		pendingChunks.clear();
+	}
+
+	private byte[] encode(List<HtmlRow> rows) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows.size() * 64);
+		CsvWriter chunkWriter = new CsvWriter(exportConf, bytes);
+		for (HtmlRow row : rows) {
+			chunkWriter.writeRow(row);
+		}
+		chunkWriter.finish();
+		return bytes.toByteArray();
+	}
+
+	private ExportException wrap(IOException e) {
+		StringBuilder sb = new StringBuilder("Something went wrong during the CSV generation of the table '");
+		sb.append(table.getOriginalId());
+		sb.append("' and with the following export configuration: ");
+		sb.append(exportConf.toString());
+		return new ExportException(sb.toString(), e);
+	}
+
+	/**
+	 * A chunk encoded on the calling thread.
+	 */
+	private static final class CompletedChunk implements Future<byte[]> {
+
+		private final byte[] bytes;
+
+		CompletedChunk(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return true;
+		}
+
+		@Override
+		public byte[] get() {
+			return bytes;
+		}
+
+		@Override
+		public byte[] get(long timeout, TimeUnit unit) {
+			return bytes;
 		}
 	}
-}
\ No newline at end of file
+}
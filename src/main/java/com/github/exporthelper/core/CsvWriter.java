@@ -0,0 +1,200 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import com.github.exporthelper.core.html.HtmlColumn;
+import com.github.exporthelper.core.html.HtmlRow;
+
+/**
+ * <p>
+ * Encodes rows in the CSV format, following RFC 4180: a cell containing the
+ * separator, the quote character or a line break is enclosed in quotes, its
+ * quotes being doubled.
+ * <p>
+ * The rows are appended to a fixed-size char buffer, which is encoded into a
+ * fixed-size byte buffer written to the output each time it is full. A writer
+ * is not thread-safe.
+ *
+ * @see CsvExport
+ * @since 1.0
+ */
+final class CsvWriter {
+
+	/**
+	 * Size of the buffers, in chars and in bytes, holding the rows before and
+	 * after they are encoded.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private final OutputStream output;
+	private final CharsetEncoder encoder;
+	private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+	private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+	private final char separator;
+	private final char quote;
+	private final String lineEnding;
+
+	CsvWriter(ExportConf exportConf, OutputStream output) {
+		this.output = output;
+		this.separator = exportConf.getSeparator();
+		this.quote = exportConf.getQuoteChar();
+		this.lineEnding = exportConf.getLineEnding();
+
+		// Unmappable characters are replaced instead of failing the whole export
+		this.encoder = withoutBom(Charset.forName(exportConf.getCharset())).newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Writes a byte order mark if the charset is a Unicode one. Other charsets
+	 * cannot encode it and would start the export with a replacement
+	 * character.
+	 */
+	void writeBom() throws IOException {
+		if (encoder.charset().name().startsWith("UTF-")) {
+			append('\uFEFF');
+		}
+	}
+
+	/**
+	 * Returns the charset encoding like the passed one but without writing a
+	 * byte order mark by itself, so that only {@link #writeBom()} writes it.
+	 * The encoder of <code>UTF-16</code> for instance writes one each time it
+	 * is created.
+	 */
+	private static Charset withoutBom(Charset charset) {
+		String name = charset.name();
+		if (name.equals("UTF-16")) {
+			return Charset.forName("UTF-16BE");
+		}
+		if (name.startsWith("x-UTF-") || name.startsWith("X-UTF-")) {
+			// x-UTF-16LE-BOM, X-UTF-32BE-BOM and X-UTF-32LE-BOM
+			return Charset.forName(name.substring(2, name.length() - 4));
+		}
+		return charset;
+	}
+
+	void writeRow(HtmlRow row) throws IOException {
+		boolean first = true;
+		for (HtmlColumn column : row.getColumns(ReservedFormat.ALL, ReservedFormat.CSV)) {
+			if (!first) {
+				append(separator);
+			}
+			writeCell(column.getContent());
+			first = false;
+		}
+		append(lineEnding);
+	}
+
+	/**
+	 * Encodes the remaining chars and flushes the output. The writer cannot be
+	 * used afterwards.
+	 */
+	void finish() throws IOException {
+		encode(true);
+		while (encoder.flush(bytes).isOverflow()) {
+			writeBytes();
+		}
+		writeBytes();
+		output.flush();
+	}
+
+	private void writeCell(CharSequence content) throws IOException {
+		if (!needsQuotes(content)) {
+			append(content);
+			return;
+		}
+
+		append(quote);
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c == quote) {
+				append(quote);
+			}
+			append(c);
+		}
+		append(quote);
+	}
+
+	private boolean needsQuotes(CharSequence content) {
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c == separator || c == quote || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void append(CharSequence content) throws IOException {
+		for (int i = 0; i < content.length(); i++) {
+			append(content.charAt(i));
+		}
+	}
+
+	private void append(char c) throws IOException {
+		if (!chars.hasRemaining()) {
+			encode(false);
+		}
+		chars.put(c);
+	}
+
+	/**
+	 * Encodes and writes the buffered chars. A surrogate pair split across two
+	 * calls is kept for the next one.
+	 */
+	private void encode(boolean endOfInput) throws IOException {
+		chars.flip();
+		CoderResult result;
+		while ((result = encoder.encode(chars, bytes, endOfInput)).isOverflow()) {
+			writeBytes();
+		}
+		if (result.isError()) {
+			result.throwException();
+		}
+		chars.compact();
+		writeBytes();
+	}
+
+	private void writeBytes() throws IOException {
+		bytes.flip();
+		output.write(bytes.array(), 0, bytes.limit());
+		bytes.clear();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.io.OutputStream;
+
+import com.github.exporthelper.core.html.HtmlRow;
+import com.github.exporthelper.core.html.HtmlTable;
+
+/**
+ * <p>
+ * Interface for export classes able to write a table row by row.
+ * <p>
+ * Unlike {@link DatatablesExport}, the body rows are never required to be in
+ * memory at the same time: the export is started with the header, fed with one
+ * body row at a time and finally completed. The memory needed by an export
+ * then only depends on the number of columns.
+ *
+ * @see HtmlTableSource
+ * @see ExportUtils#renderExport(HtmlTableSource, ExportConf, OutputStream)
+ */
+public interface DatatablesStreamingExport {
+
+	/**
+	 * Starts the export and writes the header.
+	 *
+	 * @param table
+	 *            The table holding the head rows, the caption and the export
+	 *            configuration. Its body rows, if any, are ignored.
+	 * @param output
+	 *            The stream to fill.
+	 * @throws ExportException
+	 *             if something goes wrong during the export.
+	 */
+	public void beginExport(HtmlTable table, OutputStream output);
+
+	/**
+	 * Writes a single body row.
+	 *
+	 * @param row
+	 *            The row to write. It is not retained once the method returns.
+	 * @throws ExportException
+	 *             if something goes wrong during the export.
+	 */
+	public void exportRow(HtmlRow row);
+
+	/**
+	 * Completes the export and flushes everything remaining in the output.
+	 *
+	 * @throws ExportException
+	 *             if something goes wrong during the export.
+	 */
+	public void endExport();
+
+	/**
+	 * Releases the resources held by an export that will not be completed,
+	 * because producing or writing a body row failed. Does nothing by default.
+	 */
+	public default void abortExport() {
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Immutable description of the style of the cells of a column in the Excel
+ * exports: font, fill, alignment and data format.
+ * <p>
+ * Two equal descriptions give the same cell style: the exporters create each
+ * distinct style only once per workbook, however many cells use it. For
+ * example:
+ *
+ * <pre>
+ * ExcelCellStyle header = new ExcelCellStyle.Builder().bold(true).fillColor((short) 22)
+ *       .alignment(Alignment.CENTER).build();
+ * ExcelCellStyle amount = new ExcelCellStyle.Builder().dataFormat(&quot;#,##0.00&quot;).build();
+ * </pre>
+ *
+ * The colors are indexes of the Excel default palette, as given by the POI
+ * <code>IndexedColors</code> enum.
+ *
+ * @see HtmlTableBuilder
+ * @since 1.0
+ */
+public final class ExcelCellStyle {
+
+	public enum Alignment {
+		LEFT, CENTER, RIGHT;
+	}
+
+	private String fontName;
+	private Short fontSize;
+	private Boolean bold;
+	private Boolean italic;
+	private Short fontColor;
+	private Short fillColor;
+	private Alignment alignment;
+	private String dataFormat;
+
+	private ExcelCellStyle() {
+	}
+
+	/**
+	 * @return <code>true</code> if the style doesn't use the default font.
+	 */
+	public boolean hasFont() {
+		return fontName != null || fontSize != null || Boolean.TRUE.equals(bold) || Boolean.TRUE.equals(italic)
+				|| fontColor != null;
+	}
+
+	/**
+	 * @return the font attributes only, usable as the key of a cache of
+	 *         fonts.
+	 */
+	public List<Object> getFontKey() {
+		return Arrays.<Object> asList(fontName, fontSize, bold, italic, fontColor);
+	}
+
+	public String getFontName() {
+		return fontName;
+	}
+
+	/**
+	 * @return the height of the font, in points.
+	 */
+	public Short getFontSize() {
+		return fontSize;
+	}
+
+	public Boolean getBold() {
+		return bold;
+	}
+
+	public Boolean getItalic() {
+		return italic;
+	}
+
+	/**
+	 * @return the palette index of the color of the font.
+	 */
+	public Short getFontColor() {
+		return fontColor;
+	}
+
+	/**
+	 * @return the palette index of the color the cells are filled with.
+	 */
+	public Short getFillColor() {
+		return fillColor;
+	}
+
+	public Alignment getAlignment() {
+		return alignment;
+	}
+
+	/**
+	 * @return the Excel number format, e.g. <code>#,##0.00</code>, replacing
+	 *         the default one of the typed values.
+	 */
+	public String getDataFormat() {
+		return dataFormat;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ExcelCellStyle)) {
+			return false;
+		}
+		ExcelCellStyle other = (ExcelCellStyle) obj;
+		return getFontKey().equals(other.getFontKey()) && equals(fillColor, other.fillColor)
+				&& alignment == other.alignment && equals(dataFormat, other.dataFormat);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(new Object[] { fontName, fontSize, bold, italic, fontColor, fillColor, alignment,
+				dataFormat });
+	}
+
+	private static boolean equals(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@Override
+	public String toString() {
+		return "ExcelCellStyle [fontName=" + fontName + ", fontSize=" + fontSize + ", bold=" + bold + ", italic="
+				+ italic + ", fontColor=" + fontColor + ", fillColor=" + fillColor + ", alignment=" + alignment
+				+ ", dataFormat=" + dataFormat + "]";
+	}
+
+	/**
+	 * Builder for {@link ExcelCellStyle}.
+	 */
+	public static class Builder {
+
+		private ExcelCellStyle style = new ExcelCellStyle();
+
+		public Builder fontName(String fontName) {
+			style.fontName = fontName;
+			return this;
+		}
+
+		public Builder fontSize(Short fontSize) {
+			style.fontSize = fontSize;
+			return this;
+		}
+
+		public Builder bold(Boolean bold) {
+			style.bold = bold;
+			return this;
+		}
+
+		public Builder italic(Boolean italic) {
+			style.italic = italic;
+			return this;
+		}
+
+		public Builder fontColor(Short fontColor) {
+			style.fontColor = fontColor;
+			return this;
+		}
+
+		public Builder fillColor(Short fillColor) {
+			style.fillColor = fillColor;
+			return this;
+		}
+
+		public Builder alignment(Alignment alignment) {
+			style.alignment = alignment;
+			return this;
+		}
+
+		public Builder dataFormat(String dataFormat) {
+			style.dataFormat = dataFormat;
+			return this;
+		}
+
+		public ExcelCellStyle build() {
+			ExcelCellStyle built = style;
+			// The built style stays immutable if the builder is reused
+			style = new ExcelCellStyle();
+			style.fontName = built.fontName;
+			style.fontSize = built.fontSize;
+			style.bold = built.bold;
+			style.italic = built.italic;
+			style.fontColor = built.fontColor;
+			style.fillColor = built.fillColor;
+			style.alignment = built.alignment;
+			style.dataFormat = built.dataFormat;
+			return built;
+		}
+	}
+}
@@ -0,0 +1,676 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.exporthelper.core.configuration.ColumnConfig;
+import com.github.exporthelper.core.configuration.ColumnConfiguration;
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.html.HtmlColumn;
+import com.github.exporthelper.core.html.HtmlRow;
+import com.github.exporthelper.core.html.HtmlTable;
+
+/**
+ * <p>
+ * Cache of rendered exports, so that identical exports are rendered only once.
+ * <p>
+ * An export is identified by a data version supplied by the caller, which must
+ * change whenever the exported data changes (e.g. the query and the last
+ * update time), and by a hash of the export configuration and of the header
+ * rows. See {@link #key(String, HtmlTable, ExportConf)}.
+ * <p>
+ * The rendered exports are kept in two tiers:
+ * <ul>
+ * <li>an in-memory tier, bounded by its total size and evicting the least
+ * recently used exports first. Exports larger than the maximum entry size
+ * are never kept in memory;</li>
+ * <li>an optional disk tier, in a dedicated directory, bounded by its total
+ * size as well. Its content survives restarts.</li>
+ * </ul>
+ * Both tiers expire the exports after the configured time to live. A hit
+ * streams the cached bytes to the output without rendering anything.
+ * <p>
+ * For example:
+ * 
+ * <pre>
+ * ExportCache cache = new ExportCache.Builder().memoryCapacity(64 * 1024 * 1024)
+ * 		.directory(new File(&quot;/var/cache/exports&quot;)).timeToLive(1, TimeUnit.HOURS).build();
+ * cache.renderExport(&quot;sales-&quot; + lastUpdate, table, exportConf, response);
+ * </pre>
+ * 
+ * Concurrent misses on the same export are all rendered, the last one
+ * replacing the others in the cache.
+ *
+ * @since 1.0
+ */
+public class ExportCache {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(ExportCache.class);
+
+	private static final String FILE_SUFFIX = ".export";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final long memoryCapacity;
+	private final long maxMemoryEntrySize;
+	private final Path directory;
+	private final long diskCapacity;
+	private final long timeToLive;
+
+	/**
+	 * Both indexes are in access order, the eldest entry being the least
+	 * recently used one.
+	 */
+	private final LinkedHashMap<String, MemoryEntry> memory = new LinkedHashMap<String, MemoryEntry>(16, 0.75f, true);
+	private final LinkedHashMap<String, DiskEntry> disk = new LinkedHashMap<String, DiskEntry>(16, 0.75f, true);
+	private long memorySize;
+	private long diskSize;
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private ExportCache(Builder builder) throws IOException {
+		this.memoryCapacity = builder.memoryCapacity;
+		this.maxMemoryEntrySize = Math.min(builder.maxMemoryEntrySize, builder.memoryCapacity);
+		this.directory = builder.directory != null ? builder.directory.toPath() : null;
+		this.diskCapacity = builder.diskCapacity;
+		this.timeToLive = builder.timeToLive;
+
+		if (directory != null) {
+			Files.createDirectories(directory);
+			loadDiskIndex();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Computes the key identifying an export in the cache.
+	 * <p>
+	 * The key is a SHA-256 hash of the data version, of the properties of the
+	 * export configuration changing the exported bytes and of the content, display types and
+	 * configuration (properties, patterns, default values and styles) of the
+	 * header columns. The body rows are not read: the data version stands for
+	 * them.
+	 * 
+	 * @param dataVersion
+	 *            The version of the exported data.
+	 * @param table
+	 *            The table to export. Only its caption and its head rows are
+	 *            used.
+	 * @param exportConf
+	 *            The export configuration.
+	 * @return the key, made of hexadecimal characters.
+	 */
+	public static String key(String dataVersion, HtmlTable table, ExportConf exportConf) {
+		StringBuilder canonical = new StringBuilder();
+		canonical.append(dataVersion).append('\0');
+		appendExportConf(canonical, exportConf);
+		canonical.append('\0');
+		if (table.getCaption() != null) {
+			canonical.append(table.getCaption().getTitle());
+		}
+		for (HtmlRow row : table.getHeadRows()) {
+			canonical.append('\0');
+			for (HtmlColumn column : row.getColumns()) {
+				canonical.append(column.getContent()).append('\1');
+				canonical.append(new TreeSet<String>(column.getEnabledDisplayTypes())).append('\1');
+				appendColumnConfiguration(canonical, column.getColumnConfiguration());
+			}
+		}
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(canonical.toString().getBytes(Charset.forName("UTF-8")));
+			StringBuilder key = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new ExportException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Appends to the canonical form of a key the properties of the export
+	 * configuration changing the exported bytes. The file name, label, URL and
+	 * CSS properties are left out, as are the ones only changing how the
+	 * export is computed (parallelism, row access window, temporary files):
+	 * the default file name for instance changes every minute. A new property
+	 * changing the exported bytes must be added here.
+	 */
+	private static void appendExportConf(StringBuilder canonical, ExportConf exportConf) {
+		Object[] properties = { exportConf.getFormat(), exportConf.getExportClass(), exportConf.getIncludeHeader(),
+				exportConf.getAutoSize(), exportConf.getAutoSizeStrategy(), exportConf.getAutoSizeSampleRows(),
+				exportConf.getStreaming(), exportConf.getCompression(), exportConf.getCompressionLevel(),
+				exportConf.getMaxRowsPerPart(), exportConf.getMaxBytesPerPart(), exportConf.getSeparator(),
+				exportConf.getQuoteChar(), exportConf.getLineEnding(), exportConf.getCharset(), exportConf.getBom(),
+				exportConf.getEngine(), exportConf.getSharedStrings(), exportConf.getMaxRowsPerSheet(),
+				exportConf.getOrientation() };
+		for (Object property : properties) {
+			canonical.append(property).append('\1');
+		}
+	}
+
+	/**
+	 * Appends to the canonical form of a key how the cells of a column are
+	 * filled (property, pattern, default value and content of each element)
+	 * and styled.
+	 */
+	private static void appendColumnConfiguration(StringBuilder canonical, ColumnConfiguration columnConfiguration) {
+		if (columnConfiguration == null) {
+			return;
+		}
+		if (columnConfiguration.getColumnElements() != null) {
+			for (ColumnElement element : columnConfiguration.getColumnElements()) {
+				canonical.append(element.getPropertyName()).append('\2');
+				canonical.append(element.getPattern()).append('\2');
+				canonical.append(element.getDefaultValue()).append('\2');
+				canonical.append(element.getContent()).append('\2');
+			}
+		}
+		canonical.append('\1');
+		canonical.append(ColumnConfig.HEADER_STYLE.valueFrom(columnConfiguration)).append('\1');
+		canonical.append(ColumnConfig.BODY_STYLE.valueFrom(columnConfiguration)).append('\1');
+	}
+
+	/**
+	 * Writes the passed table to the passed stream, rendering it only if it is
+	 * not cached yet.
+	 * 
+	 * @param dataVersion
+	 *            The version of the exported data.
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param output
+	 *            The stream to fill.
+	 * @throws IOException
+	 *             if the output or the cache directory cannot be written.
+	 */
+	public void renderExport(String dataVersion, HtmlTable table, ExportConf exportConf, OutputStream output)
+			throws IOException {
+
+		String key = key(dataVersion, table, exportConf);
+
+		byte[] bytes = getFromMemory(key);
+		if (bytes != null) {
+			memoryHits.incrementAndGet();
+			output.write(bytes);
+			return;
+		}
+
+		Path file = getFromDisk(key);
+		if (file != null) {
+			try {
+				Files.copy(file, output);
+				diskHits.incrementAndGet();
+				return;
+			} catch (NoSuchFileException e) {
+				// Evicted in the meantime
+				logger.debug("The cached export {} has been evicted while being read", key);
+			}
+		}
+
+		misses.incrementAndGet();
+		render(key, table, exportConf, output);
+	}
+
+	/**
+	 * Writes the passed table to the response, rendering it only if it is not
+	 * cached yet.
+	 * 
+	 * @param dataVersion
+	 *            The version of the exported data.
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param response
+	 *            The response to update.
+	 * @see #renderExport(String, HtmlTable, ExportConf, OutputStream)
+	 */
+	public void renderExport(String dataVersion, HtmlTable table, ExportConf exportConf, HttpServletResponse response) {
+
+		response.setContentType(exportConf.getMimeType());
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + exportConf.getFileName() + "."
+				+ exportConf.getFileExtension() + "\"");
+
+		try {
+			ServletOutputStream out = response.getOutputStream();
+			renderExport(dataVersion, table, exportConf, out);
+			out.flush();
+		} catch (IOException e) {
+			throw new ExportException("Unable to write to response using the " + exportConf.getExportClass(), e);
+		}
+	}
+
+	/**
+	 * Removes all the exports from the cache.
+	 */
+	public void invalidateAll() {
+		List<String> keys;
+		synchronized (this) {
+			memory.clear();
+			memorySize = 0;
+			keys = new ArrayList<String>(disk.keySet());
+			disk.clear();
+			diskSize = 0;
+		}
+		for (String key : keys) {
+			deleteQuietly(diskPath(key));
+		}
+	}
+
+	/**
+	 * @return a snapshot of the cache statistics.
+	 */
+	public Statistics getStatistics() {
+		synchronized (this) {
+			return new Statistics(memoryHits.get(), diskHits.get(), misses.get(), evictions.get(), memory.size(),
+					memorySize, disk.size(), diskSize);
+		}
+	}
+
+	private void render(String key, HtmlTable table, ExportConf exportConf, OutputStream output) throws IOException {
+		DatatablesExport export = ExportRegistry.newExport(exportConf);
+		export.initExport(table);
+
+		if (directory == null) {
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			export.processExport(stream);
+			byte[] bytes = stream.toByteArray();
+			putInMemory(key, bytes);
+			output.write(bytes);
+			return;
+		}
+
+		Path temp = Files.createTempFile(directory, key + "-", TEMP_SUFFIX);
+		Path file = diskPath(key);
+		try {
+			OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE);
+			try {
+				export.processExport(out);
+			} finally {
+				out.close();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			deleteQuietly(temp);
+		}
+
+		long size = Files.size(file);
+		if (size <= maxMemoryEntrySize) {
+			byte[] bytes = Files.readAllBytes(file);
+			putOnDisk(key, size);
+			putInMemory(key, bytes);
+			output.write(bytes);
+		}
+		else {
+			Files.copy(file, output);
+			putOnDisk(key, size);
+		}
+	}
+
+	private synchronized byte[] getFromMemory(String key) {
+		MemoryEntry entry = memory.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (isExpired(entry.created)) {
+			memory.remove(key);
+			memorySize -= entry.bytes.length;
+			evictions.incrementAndGet();
+			return null;
+		}
+		return entry.bytes;
+	}
+
+	private Path getFromDisk(String key) {
+		if (directory == null) {
+			return null;
+		}
+		synchronized (this) {
+			DiskEntry entry = disk.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (!isExpired(entry.created)) {
+				return diskPath(key);
+			}
+			disk.remove(key);
+			diskSize -= entry.size;
+			evictions.incrementAndGet();
+		}
+		deleteQuietly(diskPath(key));
+		return null;
+	}
+
+	private void putInMemory(String key, byte[] bytes) {
+		if (bytes.length > maxMemoryEntrySize) {
+			return;
+		}
+		synchronized (this) {
+			MemoryEntry previous = memory.put(key, new MemoryEntry(bytes, System.currentTimeMillis()));
+			memorySize += bytes.length - (previous != null ? previous.bytes.length : 0);
+
+			Iterator<MemoryEntry> eldest = memory.values().iterator();
+			while (memorySize > memoryCapacity && eldest.hasNext()) {
+				memorySize -= eldest.next().bytes.length;
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private void putOnDisk(String key, long size) {
+		List<String> evicted = new ArrayList<String>();
+		synchronized (this) {
+			DiskEntry previous = disk.put(key, new DiskEntry(size, System.currentTimeMillis()));
+			diskSize += size - (previous != null ? previous.size : 0);
+
+			Iterator<Map.Entry<String, DiskEntry>> eldest = disk.entrySet().iterator();
+			while (diskSize > diskCapacity && eldest.hasNext()) {
+				Map.Entry<String, DiskEntry> entry = eldest.next();
+				if (entry.getKey().equals(key)) {
+					// The export just rendered is too large for the disk tier
+					continue;
+				}
+				diskSize -= entry.getValue().size;
+				evicted.add(entry.getKey());
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+		for (String evictedKey : evicted) {
+			deleteQuietly(diskPath(evictedKey));
+		}
+	}
+
+	/**
+	 * Rebuilds the index of the disk tier from the content of the directory,
+	 * the least recently modified files first.
+	 */
+	private void loadDiskIndex() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+		try {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				if (name.endsWith(FILE_SUFFIX)) {
+					files.add(path);
+				}
+				else if (name.endsWith(TEMP_SUFFIX)) {
+					// Left by an interrupted rendering
+					deleteQuietly(path);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+
+		final Map<Path, Long> modified = new LinkedHashMap<Path, Long>();
+		for (Path file : files) {
+			modified.put(file, Files.getLastModifiedTime(file).toMillis());
+		}
+		Collections.sort(files, new Comparator<Path>() {
+			@Override
+			public int compare(Path p1, Path p2) {
+				return modified.get(p1).compareTo(modified.get(p2));
+			}
+		});
+
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			String key = name.substring(0, name.length() - FILE_SUFFIX.length());
+			long size = Files.size(file);
+			disk.put(key, new DiskEntry(size, modified.get(file)));
+			diskSize += size;
+		}
+	}
+
+	private boolean isExpired(long created) {
+		return timeToLive > 0 && System.currentTimeMillis() - created > timeToLive;
+	}
+
+	private Path diskPath(String key) {
+		return directory.resolve(key + FILE_SUFFIX);
+	}
+
+	private static void deleteQuietly(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			logger.warn("Unable to delete the cached export {}", path, e);
+		}
+	}
+
+	private static final class MemoryEntry {
+
+		private final byte[] bytes;
+		private final long created;
+
+		MemoryEntry(byte[] bytes, long created) {
+			this.bytes = bytes;
+			this.created = created;
+		}
+	}
+
+	private static final class DiskEntry {
+
+		private final long size;
+		private final long created;
+
+		DiskEntry(long size, long created) {
+			this.size = size;
+			this.created = created;
+		}
+	}
+
+	/**
+	 * Snapshot of the cache statistics.
+	 */
+	public static class Statistics {
+
+		private final long memoryHits;
+		private final long diskHits;
+		private final long misses;
+		private final long evictions;
+		private final int memoryEntries;
+		private final long memorySize;
+		private final int diskEntries;
+		private final long diskSize;
+
+		Statistics(long memoryHits, long diskHits, long misses, long evictions, int memoryEntries, long memorySize,
+				int diskEntries, long diskSize) {
+			this.memoryHits = memoryHits;
+			this.diskHits = diskHits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.memoryEntries = memoryEntries;
+			this.memorySize = memorySize;
+			this.diskEntries = diskEntries;
+			this.diskSize = diskSize;
+		}
+
+		public long getMemoryHits() {
+			return memoryHits;
+		}
+
+		public long getDiskHits() {
+			return diskHits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * @return the number of exports removed because the cache was full or
+		 *         because they expired.
+		 */
+		public long getEvictions() {
+			return evictions;
+		}
+
+		public int getMemoryEntries() {
+			return memoryEntries;
+		}
+
+		public long getMemorySize() {
+			return memorySize;
+		}
+
+		public int getDiskEntries() {
+			return diskEntries;
+		}
+
+		public long getDiskSize() {
+			return diskSize;
+		}
+
+		/**
+		 * @return the ratio of the requests served from either tier, between
+		 *         0 and 1.
+		 */
+		public double getHitRate() {
+			long requests = memoryHits + diskHits + misses;
+			return requests == 0 ? 0 : (double) (memoryHits + diskHits) / requests;
+		}
+
+		@Override
+		public String toString() {
+			return "Statistics [memoryHits=" + memoryHits + ", diskHits=" + diskHits + ", misses=" + misses
+					+ ", evictions=" + evictions + ", memoryEntries=" + memoryEntries + ", memorySize=" + memorySize
+					+ ", diskEntries=" + diskEntries + ", diskSize=" + diskSize + "]";
+		}
+	}
+
+	/**
+	 * Builder for {@link ExportCache}.
+	 */
+	public static class Builder {
+
+		private long memoryCapacity = 32 * 1024 * 1024;
+		private long maxMemoryEntrySize = 4 * 1024 * 1024;
+		private File directory;
+		private long diskCapacity = 1024L * 1024 * 1024;
+		private long timeToLive = TimeUnit.HOURS.toMillis(1);
+
+		/**
+		 * @param memoryCapacity
+		 *            The maximum total size of the in-memory tier, in bytes.
+		 */
+		public Builder memoryCapacity(long memoryCapacity) {
+			this.memoryCapacity = memoryCapacity;
+			return this;
+		}
+
+		/**
+		 * @param maxMemoryEntrySize
+		 *            The size, in bytes, above which an export is not kept in
+		 *            memory.
+		 */
+		public Builder maxMemoryEntrySize(long maxMemoryEntrySize) {
+			this.maxMemoryEntrySize = maxMemoryEntrySize;
+			return this;
+		}
+
+		/**
+		 * @param directory
+		 *            The directory of the disk tier, dedicated to the cache.
+		 *            No disk tier is used if not set.
+		 */
+		public Builder directory(File directory) {
+			this.directory = directory;
+			return this;
+		}
+
+		/**
+		 * @param diskCapacity
+		 *            The maximum total size of the disk tier, in bytes.
+		 */
+		public Builder diskCapacity(long diskCapacity) {
+			this.diskCapacity = diskCapacity;
+			return this;
+		}
+
+		/**
+		 * @param timeToLive
+		 *            The time after which a cached export expires. Zero or less
+		 *            means never.
+		 */
+		public Builder timeToLive(long timeToLive, TimeUnit unit) {
+			this.timeToLive = unit.toMillis(timeToLive);
+			return this;
+		}
+
+		/**
+		 * @throws IOException
+		 *             if the directory of the disk tier cannot be read.
+		 */
+		public ExportCache build() throws IOException {
+			return new ExportCache(this);
+		}
+	}
+}
@@ -31,7 +31,9 @@ package com.github.exporthelper.core;
 
 import java.text.SimpleDateFormat;
 import java.util.GregorianCalendar;
+import java.util.zip.Deflater;
 
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -41,11 +43,11 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class ExportConf {
 
-	public static final String DEFAULT_CSV_CLASS = "CsvExport";
+	public static final String DEFAULT_CSV_CLASS = "com.github.exporthelper.core.CsvExport";
 //	public static final String DEFAULT_XML_CLASS = "com.github.dandelion.datatables.core.export.XmlExport";
-	public static final String DEFAULT_PDF_CLASS = "PdfExport";
-	public static final String DEFAULT_XLS_CLASS = "XlsExport";
-	public static final String DEFAULT_XLSX_CLASS = "XlsxExport";
+	public static final String DEFAULT_PDF_CLASS = "com.github.exporthelper.extras.itext.PdfExport";
+	public static final String DEFAULT_XLS_CLASS = "com.github.exporthelper.extras.poi.XlsExport";
+	public static final String DEFAULT_XLSX_CLASS = "com.github.exporthelper.extras.poi.XlsxExport";
 	
 	private String format;
 	private String fileName;
@@ -58,6 +60,25 @@ public class ExportConf {
 	private String url;
 	private HttpMethod method;
 	private Boolean autoSize;
+	private AutoSizeStrategy autoSizeStrategy;
+	private Integer autoSizeSampleRows;
+	private Boolean streaming;
+	private Boolean compression;
+	private Integer compressionLevel;
+	private Integer maxRowsPerPart;
+	private Long maxBytesPerPart;
+	private Character separator;
+	private Character quoteChar;
+	private String lineEnding;
+	private String charset;
+	private Boolean bom;
+	private Integer parallelism;
+	private Engine engine;
+	private Integer rowAccessWindow;
+	private Boolean compressTempFiles;
+	private Boolean sharedStrings;
+	private Integer sharedStringsInMemory;
+	private Integer maxRowsPerSheet;
 	private Boolean hasCustomUrl = false;
 	private String exportClass;
 	private Orientation orientation;
@@ -65,6 +86,50 @@ public class ExportConf {
 	public enum Orientation {
 		PORTRAIT, LANDSCAPE;
 	}
+
+	/**
+	 * How the Excel exports build the workbook.
+	 */
+	public enum Engine {
+
+		/**
+		 * The whole workbook is held in memory by the POI user model.
+		 */
+		USER_MODEL,
+
+		/**
+		 * Only the last rows are held in memory, the other ones being flushed
+		 * to temporary files. The XLS export writes its records directly, as
+		 * with {@link #DIRECT}, the format having no streaming POI model.
+		 */
+		STREAMING,
+
+		/**
+		 * The rows are written directly in the file format, without any
+		 * workbook model.
+		 */
+		DIRECT;
+	}
+
+	/**
+	 * How the Excel exports compute the width of the auto-sized columns.
+	 */
+	public enum AutoSizeStrategy {
+
+		/**
+		 * Each cell is rendered with the AWT fonts, which is accurate but slow
+		 * and only possible on the rows still in memory.
+		 */
+		FONT_METRICS,
+
+		/**
+		 * The widths are estimated from the number of characters of the cells
+		 * as the rows are written, East Asian wide characters counting double.
+		 * Always used by the {@link Engine#DIRECT} engine, and by the
+		 * {@link Engine#STREAMING} one of the XLS export.
+		 */
+		ESTIMATE;
+	}
 	
 	public ExportConf(String format){
 		this.format = format;
@@ -95,6 +160,48 @@ public class ExportConf {
 		if (this.autoSize == null) {
 			this.autoSize = true;
 		}
+		if (this.autoSizeStrategy == null) {
+			this.autoSizeStrategy = AutoSizeStrategy.FONT_METRICS;
+		}
+		if (this.streaming == null) {
+			this.streaming = false;
+		}
+		if (this.compression == null) {
+			this.compression = true;
+		}
+		if (this.compressionLevel == null) {
+			this.compressionLevel = Deflater.BEST_SPEED;
+		}
+		if (this.separator == null) {
+			this.separator = ';';
+		}
+		if (this.quoteChar == null) {
+			this.quoteChar = '"';
+		}
+		if (this.lineEnding == null) {
+			this.lineEnding = "\r\n";
+		}
+		if (this.charset == null) {
+			this.charset = "UTF-8";
+		}
+		if (this.bom == null) {
+			this.bom = false;
+		}
+		if (this.engine == null) {
+			this.engine = Engine.USER_MODEL;
+		}
+		if (this.rowAccessWindow == null) {
+			this.rowAccessWindow = 100;
+		}
+		if (this.compressTempFiles == null) {
+			this.compressTempFiles = false;
+		}
+		if (this.sharedStrings == null) {
+			this.sharedStrings = false;
+		}
+		if (this.sharedStringsInMemory == null) {
+			this.sharedStringsInMemory = 100000;
+		}
 		if (this.method == null) {
 			this.method = HttpMethod.GET;
 		}
@@ -125,6 +232,28 @@ public class ExportConf {
 	}
 	
 	
+	/**
+	 * @param format
+	 *            The export format.
+	 * @return the export class used by default for the passed format, or
+	 *         <code>null</code> if the format is not a reserved one.
+	 */
+	static String getDefaultExportClass(String format) {
+		if (ReservedFormat.CSV.equals(format)) {
+			return DEFAULT_CSV_CLASS;
+		}
+		if (ReservedFormat.PDF.equals(format)) {
+			return DEFAULT_PDF_CLASS;
+		}
+		if (ReservedFormat.XLS.equals(format)) {
+			return DEFAULT_XLS_CLASS;
+		}
+		if (ReservedFormat.XLSX.equals(format)) {
+			return DEFAULT_XLSX_CLASS;
+		}
+		return null;
+	}
+
 	public void mergeWith(ExportConf exportConfToMergeFrom) {
 		if (exportConfToMergeFrom.getIncludeHeader() != null) {
 			this.includeHeader = exportConfToMergeFrom.getIncludeHeader();
@@ -132,6 +261,63 @@ public class ExportConf {
 		if (exportConfToMergeFrom.getAutoSize() != null) {
 			this.autoSize = exportConfToMergeFrom.getAutoSize();
 		}
+		if (exportConfToMergeFrom.getAutoSizeStrategy() != null) {
+			this.autoSizeStrategy = exportConfToMergeFrom.getAutoSizeStrategy();
+		}
+		if (exportConfToMergeFrom.getAutoSizeSampleRows() != null) {
+			this.autoSizeSampleRows = exportConfToMergeFrom.getAutoSizeSampleRows();
+		}
+		if (exportConfToMergeFrom.getStreaming() != null) {
+			this.streaming = exportConfToMergeFrom.getStreaming();
+		}
+		if (exportConfToMergeFrom.getCompression() != null) {
+			this.compression = exportConfToMergeFrom.getCompression();
+		}
+		if (exportConfToMergeFrom.getCompressionLevel() != null) {
+			this.compressionLevel = exportConfToMergeFrom.getCompressionLevel();
+		}
+		if (exportConfToMergeFrom.getMaxRowsPerPart() != null) {
+			this.maxRowsPerPart = exportConfToMergeFrom.getMaxRowsPerPart();
+		}
+		if (exportConfToMergeFrom.getMaxBytesPerPart() != null) {
+			this.maxBytesPerPart = exportConfToMergeFrom.getMaxBytesPerPart();
+		}
+		if (exportConfToMergeFrom.getSeparator() != null) {
+			this.separator = exportConfToMergeFrom.getSeparator();
+		}
+		if (exportConfToMergeFrom.getQuoteChar() != null) {
+			this.quoteChar = exportConfToMergeFrom.getQuoteChar();
+		}
+		if (exportConfToMergeFrom.getLineEnding() != null) {
+			this.lineEnding = exportConfToMergeFrom.getLineEnding();
+		}
+		if (StringUtils.isNotBlank(exportConfToMergeFrom.getCharset())) {
+			this.charset = exportConfToMergeFrom.getCharset();
+		}
+		if (exportConfToMergeFrom.getBom() != null) {
+			this.bom = exportConfToMergeFrom.getBom();
+		}
+		if (exportConfToMergeFrom.getParallelism() != null) {
+			this.parallelism = exportConfToMergeFrom.getParallelism();
+		}
+		if (exportConfToMergeFrom.getEngine() != null) {
+			this.engine = exportConfToMergeFrom.getEngine();
+		}
+		if (exportConfToMergeFrom.getRowAccessWindow() != null) {
+			this.rowAccessWindow = exportConfToMergeFrom.getRowAccessWindow();
+		}
+		if (exportConfToMergeFrom.getCompressTempFiles() != null) {
+			this.compressTempFiles = exportConfToMergeFrom.getCompressTempFiles();
+		}
+		if (exportConfToMergeFrom.getSharedStrings() != null) {
+			this.sharedStrings = exportConfToMergeFrom.getSharedStrings();
+		}
+		if (exportConfToMergeFrom.getSharedStringsInMemory() != null) {
+			this.sharedStringsInMemory = exportConfToMergeFrom.getSharedStringsInMemory();
+		}
+		if (exportConfToMergeFrom.getMaxRowsPerSheet() != null) {
+			this.maxRowsPerSheet = exportConfToMergeFrom.getMaxRowsPerSheet();
+		}
 		if (StringUtils.isNotBlank(exportConfToMergeFrom.getFileExtension())) {
 			this.fileExtension = exportConfToMergeFrom.getFileExtension();
 		}
@@ -222,6 +408,254 @@ public class ExportConf {
 		this.autoSize = autoSize;
 	}
 
+	/**
+	 * @return how the Excel exports compute the width of the auto-sized
+	 *         columns.
+	 */
+	public AutoSizeStrategy getAutoSizeStrategy() {
+		return autoSizeStrategy;
+	}
+
+	public void setAutoSizeStrategy(AutoSizeStrategy autoSizeStrategy) {
+		this.autoSizeStrategy = autoSizeStrategy;
+	}
+
+	/**
+	 * @return the number of rows of each sheet, header included, the
+	 *         {@link AutoSizeStrategy#ESTIMATE} strategy measures, or
+	 *         <code>null</code> to measure all of them. The
+	 *         {@link Engine#DIRECT} engine of the XLSX export buffers these
+	 *         rows and defaults to {@link #getRowAccessWindow()}.
+	 */
+	public Integer getAutoSizeSampleRows() {
+		return autoSizeSampleRows;
+	}
+
+	public void setAutoSizeSampleRows(Integer autoSizeSampleRows) {
+		this.autoSizeSampleRows = autoSizeSampleRows;
+	}
+
+	/**
+	 * @return <code>true</code> if the export is written directly to the
+	 *         response instead of being rendered in memory first.
+	 */
+	public Boolean getStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(Boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * @return <code>true</code> if the export may be compressed when the client
+	 *         accepts it. Only the text formats are compressed.
+	 */
+	public Boolean getCompression() {
+		return compression;
+	}
+
+	public void setCompression(Boolean compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * @return the compression level, from {@link Deflater#BEST_SPEED} to
+	 *         {@link Deflater#BEST_COMPRESSION}, of the response and of the
+	 *         XLSX files written by the {@link Engine#DIRECT} engine.
+	 */
+	public Integer getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(Integer compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @return the maximum number of body rows of each part of a split export,
+	 *         or <code>null</code>.
+	 */
+	public Integer getMaxRowsPerPart() {
+		return maxRowsPerPart;
+	}
+
+	public void setMaxRowsPerPart(Integer maxRowsPerPart) {
+		this.maxRowsPerPart = maxRowsPerPart;
+	}
+
+	/**
+	 * @return the size, in bytes, above which a part of a split export is
+	 *         completed, or <code>null</code>. Only the bytes already flushed
+	 *         by the export class are counted, so a part may exceed this size
+	 *         by the size of the export class' own buffer. This limit is suited
+	 *         to the formats written row by row, such as CSV.
+	 */
+	public Long getMaxBytesPerPart() {
+		return maxBytesPerPart;
+	}
+
+	public void setMaxBytesPerPart(Long maxBytesPerPart) {
+		this.maxBytesPerPart = maxBytesPerPart;
+	}
+
+	/**
+	 * @return the character separating the cells of a text export.
+	 */
+	public Character getSeparator() {
+		return separator;
+	}
+
+	public void setSeparator(Character separator) {
+		this.separator = separator;
+	}
+
+	/**
+	 * @return the character enclosing the cells of a text export that contain
+	 *         the separator, a quote or a line break.
+	 */
+	public Character getQuoteChar() {
+		return quoteChar;
+	}
+
+	public void setQuoteChar(Character quoteChar) {
+		this.quoteChar = quoteChar;
+	}
+
+	/**
+	 * @return the line ending of a text export, <code>\r\n</code> by default.
+	 */
+	public String getLineEnding() {
+		return lineEnding;
+	}
+
+	public void setLineEnding(String lineEnding) {
+		this.lineEnding = lineEnding;
+	}
+
+	/**
+	 * @return the name of the charset used to encode a text export,
+	 *         <code>UTF-8</code> by default.
+	 */
+	public String getCharset() {
+		return charset;
+	}
+
+	public void setCharset(String charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * @return <code>true</code> if a text export starts with a byte order
+	 *         mark, which some spreadsheets need to detect UTF-8. It is only
+	 *         written with the UTF-8, UTF-16 and UTF-32 charsets, and never
+	 *         when <code>false</code>, even with <code>UTF-16</code>.
+	 */
+	public Boolean getBom() {
+		return bom;
+	}
+
+	public void setBom(Boolean bom) {
+		this.bom = bom;
+	}
+
+	/**
+	 * @return the number of chunks of rows encoded at the same time by the
+	 *         export classes supporting it, or <code>null</code> to encode the
+	 *         rows on the calling thread.
+	 */
+	public Integer getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(Integer parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the engine used by the Excel exports to build the workbook.
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * @return the number of rows kept in memory by the streaming engine, the
+	 *         older ones being flushed to a temporary file. The PDF export
+	 *         adds its table to the document every time it holds as many
+	 *         rows, or every 100 rows if it is 0 or less.
+	 */
+	public Integer getRowAccessWindow() {
+		return rowAccessWindow;
+	}
+
+	public void setRowAccessWindow(Integer rowAccessWindow) {
+		this.rowAccessWindow = rowAccessWindow;
+	}
+
+	/**
+	 * @return <code>true</code> if the temporary files of the streaming engine
+	 *         are compressed, trading CPU for disk space.
+	 */
+	public Boolean getCompressTempFiles() {
+		return compressTempFiles;
+	}
+
+	public void setCompressTempFiles(Boolean compressTempFiles) {
+		this.compressTempFiles = compressTempFiles;
+	}
+
+	/**
+	 * @return <code>true</code> if the strings of the XLSX files written by the
+	 *         {@link Engine#DIRECT} engine are stored once in a shared table
+	 *         instead of being repeated in each cell. The XLS files written
+	 *         without the POI model always share their strings.
+	 */
+	public Boolean getSharedStrings() {
+		return sharedStrings;
+	}
+
+	public void setSharedStrings(Boolean sharedStrings) {
+		this.sharedStrings = sharedStrings;
+	}
+
+	/**
+	 * @return the number of distinct shared strings looked up in memory, the
+	 *         next ones being looked up in a temporary file.
+	 */
+	public Integer getSharedStringsInMemory() {
+		return sharedStringsInMemory;
+	}
+
+	public void setSharedStringsInMemory(Integer sharedStringsInMemory) {
+		this.sharedStringsInMemory = sharedStringsInMemory;
+	}
+
+	/**
+	 * @return the maximum number of rows, header included, of each sheet of
+	 *         the Excel exports, or <code>null</code> to fill the sheets up to
+	 *         the limit of the format. The export continues on a new sheet
+	 *         once a sheet is full.
+	 */
+	public Integer getMaxRowsPerSheet() {
+		return maxRowsPerSheet;
+	}
+
+	public void setMaxRowsPerSheet(Integer maxRowsPerSheet) {
+		this.maxRowsPerSheet = maxRowsPerSheet;
+	}
+
+	/**
+	 * @return <code>true</code> if the export is split into several parts.
+	 */
+	public boolean isSplit() {
+		return (maxRowsPerPart != null && maxRowsPerPart > 0) || (maxBytesPerPart != null && maxBytesPerPart > 0);
+	}
+
 	public String getExportClass() {
 		return exportClass;
 	}
@@ -292,6 +726,101 @@ public class ExportConf {
 			exportConf.setAutoSize(autoSize);
 			return this;
 		}
+
+		public Builder autoSizeStrategy(AutoSizeStrategy autoSizeStrategy) {
+			exportConf.setAutoSizeStrategy(autoSizeStrategy);
+			return this;
+		}
+
+		public Builder autoSizeSampleRows(Integer autoSizeSampleRows) {
+			exportConf.setAutoSizeSampleRows(autoSizeSampleRows);
+			return this;
+		}
+
+		public Builder streaming(Boolean streaming) {
+			exportConf.setStreaming(streaming);
+			return this;
+		}
+
+		public Builder compression(Boolean compression) {
+			exportConf.setCompression(compression);
+			return this;
+		}
+
+		public Builder compressionLevel(Integer compressionLevel) {
+			exportConf.setCompressionLevel(compressionLevel);
+			return this;
+		}
+
+		public Builder maxRowsPerPart(Integer maxRowsPerPart) {
+			exportConf.setMaxRowsPerPart(maxRowsPerPart);
+			return this;
+		}
+
+		public Builder maxBytesPerPart(Long maxBytesPerPart) {
+			exportConf.setMaxBytesPerPart(maxBytesPerPart);
+			return this;
+		}
+		
+		public Builder separator(Character separator) {
+			exportConf.setSeparator(separator);
+			return this;
+		}
+
+		public Builder quoteChar(Character quoteChar) {
+			exportConf.setQuoteChar(quoteChar);
+			return this;
+		}
+
+		public Builder lineEnding(String lineEnding) {
+			exportConf.setLineEnding(lineEnding);
+			return this;
+		}
+
+		public Builder charset(String charset) {
+			exportConf.setCharset(charset);
+			return this;
+		}
+
+		public Builder bom(Boolean bom) {
+			exportConf.setBom(bom);
+			return this;
+		}
+		
+		public Builder parallelism(Integer parallelism) {
+			exportConf.setParallelism(parallelism);
+			return this;
+		}
+		
+		public Builder engine(Engine engine) {
+			exportConf.setEngine(engine);
+			return this;
+		}
+
+		public Builder rowAccessWindow(Integer rowAccessWindow) {
+			exportConf.setRowAccessWindow(rowAccessWindow);
+			return this;
+		}
+
+		public Builder compressTempFiles(Boolean compressTempFiles) {
+			exportConf.setCompressTempFiles(compressTempFiles);
+			return this;
+		}
+		
+		public Builder sharedStrings(Boolean sharedStrings) {
+			exportConf.setSharedStrings(sharedStrings);
+			return this;
+		}
+
+		public Builder sharedStringsInMemory(Integer sharedStringsInMemory) {
+			exportConf.setSharedStringsInMemory(sharedStringsInMemory);
+			return this;
+		}
+		
+		public Builder maxRowsPerSheet(Integer maxRowsPerSheet) {
+			exportConf.setMaxRowsPerSheet(maxRowsPerSheet);
+			return this;
+		}
 		
 		public Builder exportClass(String exportClass) {
 			exportConf.setExportClass(exportClass);
@@ -326,6 +855,13 @@ public class ExportConf {
 		return "ExportConf [format=" + format + ", fileName=" + fileName + ", fileExtension=" + fileExtension
 				+ ", mimeType=" + mimeType + ", label=" + label + ", cssStyle=" + cssStyle + ", cssClass=" + cssClass
 				+ ", includeHeader=" + includeHeader + ", url=" + url + ", method=" + method + ", autoSize=" + autoSize
+				+ ", autoSizeStrategy=" + autoSizeStrategy + ", autoSizeSampleRows=" + autoSizeSampleRows + ", streaming=" + streaming + ", compression=" + compression
+				+ ", compressionLevel=" + compressionLevel + ", maxRowsPerPart=" + maxRowsPerPart + ", maxBytesPerPart="
+				+ maxBytesPerPart + ", separator=" + separator + ", quoteChar=" + quoteChar + ", lineEnding="
+				+ StringEscapeUtils.escapeJava(lineEnding) + ", charset=" + charset + ", bom=" + bom + ", parallelism=" + parallelism + ", engine=" + engine
+				+ ", rowAccessWindow=" + rowAccessWindow + ", compressTempFiles=" + compressTempFiles
+				+ ", sharedStrings=" + sharedStrings + ", sharedStringsInMemory=" + sharedStringsInMemory
+				+ ", maxRowsPerSheet=" + maxRowsPerSheet
 				+ ", hasCustomUrl=" + hasCustomUrl + ", exportClass=" + exportClass + ", orientation=" + orientation
 				+ "]";
 	}
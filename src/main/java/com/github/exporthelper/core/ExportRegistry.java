@@ -0,0 +1,301 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.util.ClassUtils;
+
+/**
+ * <p>
+ * Registry resolving the export configurations into {@link ExportFactory}s.
+ * <p>
+ * An export configuration is resolved as follows:
+ * <ul>
+ * <li>if its export class is the default one of its format (or is not set),
+ * the factory registered for the format is used, if any. Factories are
+ * registered programmatically or discovered once using the
+ * {@link ServiceLoader} mechanism, the former taking precedence.</li>
+ * <li>otherwise, the export class is loaded once and its no-arg constructor is
+ * then used for each export. A class that cannot be used is remembered as
+ * well, so that the following exports fail without trying to load it
+ * again.</li>
+ * </ul>
+ *
+ * @see ExportFactory
+ * @since 1.0
+ */
+public final class ExportRegistry {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(ExportRegistry.class);
+
+	/**
+	 * Factories registered programmatically, by format.
+	 */
+	private static final ConcurrentMap<String, ExportFactory> registeredFactories = new ConcurrentHashMap<String, ExportFactory>();
+
+	/**
+	 * Factories discovered with the {@link ServiceLoader}, by format.
+	 */
+	private static volatile ConcurrentMap<String, ExportFactory> discoveredFactories;
+
+	/**
+	 * Factories and failures, by export class name.
+	 */
+	private static final ConcurrentMap<String, Object> classFactories = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * Registers the passed factory for its format, replacing any factory
+	 * previously registered for the same format.
+	 * 
+	 * @param factory
+	 *            The factory to register.
+	 */
+	public static void register(ExportFactory factory) {
+		if (factory == null || StringUtils.isBlank(factory.getFormat())) {
+			throw new IllegalArgumentException("The factory and its format are required");
+		}
+		registeredFactories.put(factory.getFormat(), factory);
+	}
+
+	/**
+	 * Unregisters the factory registered programmatically for the passed format.
+	 * 
+	 * @param format
+	 *            The format of the factory to remove.
+	 */
+	public static void unregister(String format) {
+		registeredFactories.remove(format);
+	}
+
+	/**
+	 * Clears all the cached lookups, including the factories discovered with
+	 * the {@link ServiceLoader}. Useful when the class path has changed.
+	 */
+	public static void reset() {
+		discoveredFactories = null;
+		classFactories.clear();
+	}
+
+	/**
+	 * Creates a new instance of the export class to use for the passed
+	 * configuration.
+	 * 
+	 * @param exportConf
+	 *            The export configuration.
+	 * @return a new export class instance.
+	 * @throws ExportException
+	 *             if no export class can be used for this configuration.
+	 */
+	public static DatatablesExport newExport(ExportConf exportConf) {
+		return getFactory(exportConf).newExport();
+	}
+
+	/**
+	 * Resolves the factory to use for the passed configuration.
+	 * 
+	 * @param exportConf
+	 *            The export configuration.
+	 * @return the factory, never <code>null</code>.
+	 * @throws ExportException
+	 *             if no export class can be used for this configuration.
+	 */
+	public static ExportFactory getFactory(ExportConf exportConf) {
+		String format = exportConf.getFormat();
+		String exportClass = exportConf.getExportClass();
+
+		if (StringUtils.isBlank(exportClass) || exportClass.equals(ExportConf.getDefaultExportClass(format))) {
+			ExportFactory factory = getFormatFactory(format);
+			if (factory != null) {
+				return factory;
+			}
+		}
+
+		if (StringUtils.isBlank(exportClass)) {
+			throw new ExportException("Unable to export in " + format
+					+ " format because no export class is configured for this format");
+		}
+
+		Object factory = classFactories.get(exportClass);
+		if (factory == null) {
+			factory = resolveClass(exportClass);
+			Object existing = classFactories.putIfAbsent(exportClass, factory);
+			if (existing != null) {
+				factory = existing;
+			}
+		}
+
+		if (factory instanceof ExportFactory) {
+			return (ExportFactory) factory;
+		}
+		throw new ExportException("Unable to export in " + format + " format. " + ((Failure) factory).message,
+				((Failure) factory).cause);
+	}
+
+	private static ExportFactory getFormatFactory(String format) {
+		if (format == null) {
+			return null;
+		}
+		ExportFactory factory = registeredFactories.get(format);
+		if (factory == null) {
+			factory = getDiscoveredFactories().get(format);
+		}
+		return factory;
+	}
+
+	private static ConcurrentMap<String, ExportFactory> getDiscoveredFactories() {
+		ConcurrentMap<String, ExportFactory> factories = discoveredFactories;
+		if (factories == null) {
+			synchronized (ExportRegistry.class) {
+				factories = discoveredFactories;
+				if (factories == null) {
+					factories = discoverFactories();
+					discoveredFactories = factories;
+				}
+			}
+		}
+		return factories;
+	}
+
+	private static ConcurrentMap<String, ExportFactory> discoverFactories() {
+		ConcurrentMap<String, ExportFactory> factories = new ConcurrentHashMap<String, ExportFactory>();
+		Iterator<ExportFactory> iterator = ServiceLoader.load(ExportFactory.class).iterator();
+		while (true) {
+			try {
+				if (!iterator.hasNext()) {
+					break;
+				}
+				ExportFactory factory = iterator.next();
+				if (StringUtils.isNotBlank(factory.getFormat())
+						&& factories.putIfAbsent(factory.getFormat(), factory) == null) {
+					logger.debug("Export factory {} discovered for the format {}", factory.getClass().getName(),
+							factory.getFormat());
+				}
+			} catch (ServiceConfigurationError e) {
+				logger.warn("Unable to load an export factory", e);
+			}
+		}
+		return factories;
+	}
+
+	/**
+	 * Loads the passed export class, returning either a factory or the reason
+	 * why it cannot be used.
+	 */
+	private static Object resolveClass(String exportClass) {
+		Class<?> klass;
+		try {
+			klass = ClassUtils.getClass(exportClass);
+		} catch (ClassNotFoundException e) {
+			return new Failure("The export class '" + exportClass
+					+ "' cannot be found. Did you forget to add an extra dependency?", e);
+		} catch (LinkageError e) {
+			return new Failure("The export class '" + exportClass
+					+ "' cannot be loaded. Did you forget to add an extra dependency?", e);
+		}
+
+		if (!DatatablesExport.class.isAssignableFrom(klass)) {
+			return new Failure("The class '" + exportClass + "' doesn't implement "
+					+ DatatablesExport.class.getSimpleName(), null);
+		}
+
+		try {
+			Constructor<?> constructor = klass.getConstructor();
+			return new ClassExportFactory(klass.getName(), constructor);
+		} catch (NoSuchMethodException e) {
+			return new Failure("Unable to instanciate the class '" + exportClass
+					+ "' because it has no public no-arg constructor", e);
+		}
+	}
+
+	/**
+	 * Factory using the public no-arg constructor of an export class.
+	 */
+	private static final class ClassExportFactory implements ExportFactory {
+
+		private final String className;
+		private final Constructor<?> constructor;
+
+		ClassExportFactory(String className, Constructor<?> constructor) {
+			this.className = className;
+			this.constructor = constructor;
+		}
+
+		@Override
+		public String getFormat() {
+			return null;
+		}
+
+		@Override
+		public DatatablesExport newExport() {
+			try {
+				return (DatatablesExport) constructor.newInstance();
+			} catch (InstantiationException e) {
+				throw new ExportException("Unable to instanciate the class '" + className + "'", e);
+			} catch (IllegalAccessException e) {
+				throw new ExportException("Unable to access the class '" + className + "'", e);
+			} catch (InvocationTargetException e) {
+				throw new ExportException("Unable to instanciate the class '" + className + "'", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Cached reason why an export class cannot be used.
+	 */
+	private static final class Failure {
+
+		private final String message;
+		private final Throwable cause;
+
+		Failure(String message, Throwable cause) {
+			this.message = message;
+			this.cause = cause;
+		}
+	}
+
+	/**
+	 * Prevent instantiation.
+	 */
+	private ExportRegistry() {
+	}
+}
@@ -0,0 +1,485 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.exporthelper.core.exception.ExportRejectedException;
+import com.github.exporthelper.core.html.HtmlRow;
+import com.github.exporthelper.core.html.HtmlTable;
+
+/**
+ * <p>
+ * Schedules the exports so that their number and their memory footprint are
+ * bounded.
+ * <p>
+ * Each export is given a cost, estimated from its number of cells and its
+ * format (see {@link #estimateCost(HtmlTable, ExportConf)}), and is run in one
+ * of two lanes:
+ * <ul>
+ * <li>{@link Lane#INTERACTIVE}, for the exports whose cost doesn't exceed the
+ * interactive threshold, usually requested by a user waiting for the
+ * file;</li>
+ * <li>{@link Lane#BATCH}, for all the others.</li>
+ * </ul>
+ * Each lane has its own threads, its own bounded queue and its own cost
+ * budget: an export starts only once the cost of the exports running in its
+ * lane leaves enough room for it, otherwise it waits. When the queue of a lane
+ * is full, new exports are rejected immediately with an
+ * {@link ExportRejectedException}.
+ * <p>
+ * For example:
+ * 
+ * <pre>
+ * ExportScheduler scheduler = new ExportScheduler.Builder().interactiveThreads(4).batchThreads(1).build();
+ * Future&lt;FileExportResult&gt; result = scheduler.submit(table, exportConf, dir);
+ * </pre>
+ * 
+ * A single instance is meant to be shared by the whole application and
+ * {@link #shutdown()} when the application stops.
+ *
+ * @since 1.0
+ */
+public class ExportScheduler {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(ExportScheduler.class);
+
+	/**
+	 * Number of cells represented by a unit of the cost budgets.
+	 */
+	static final int COST_UNIT = 1000;
+
+	/**
+	 * The lanes in which the exports are run.
+	 */
+	public enum Lane {
+		INTERACTIVE, BATCH;
+	}
+
+	private final long interactiveThreshold;
+	private final LaneExecutor interactive;
+	private final LaneExecutor batch;
+
+	private ExportScheduler(Builder builder) {
+		this.interactiveThreshold = builder.interactiveThreshold;
+		this.interactive = new LaneExecutor(Lane.INTERACTIVE, builder.interactiveThreads, builder.interactiveQueueCapacity,
+				builder.interactiveBudget);
+		this.batch = new LaneExecutor(Lane.BATCH, builder.batchThreads, builder.batchQueueCapacity, builder.batchBudget);
+	}
+
+	/**
+	 * <p>
+	 * Estimates the cost of exporting the passed table, which is roughly
+	 * proportional to the memory needed to export it.
+	 * <p>
+	 * The cost is the number of body cells, weighted by the format and the
+	 * engine: CSV, PDF and the Excel formats built with the
+	 * {@link ExportConf.Engine#STREAMING} or {@link ExportConf.Engine#DIRECT}
+	 * engine are written as they go, only a window of rows being held in
+	 * memory. With the {@link ExportConf.Engine#USER_MODEL} engine, the whole
+	 * workbook is kept in memory and auto-sizing its columns with the fonts
+	 * reads all of its cells again.
+	 * 
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration.
+	 * @return the estimated cost, at least 1.
+	 */
+	public static long estimateCost(HtmlTable table, ExportConf exportConf) {
+		int columns = 0;
+		for (HtmlRow row : table.getHeadRows()) {
+			columns = Math.max(columns, row.getColumns().size());
+		}
+		return estimateCost(table.getBodyRows().size(), columns, exportConf);
+	}
+
+	/**
+	 * Estimates the cost of an export of the passed size.
+	 * 
+	 * @param rows
+	 *            The number of body rows.
+	 * @param columns
+	 *            The number of columns.
+	 * @param exportConf
+	 *            The export configuration.
+	 * @return the estimated cost, at least 1.
+	 * @see #estimateCost(HtmlTable, ExportConf)
+	 */
+	public static long estimateCost(long rows, int columns, ExportConf exportConf) {
+		String format = exportConf.getFormat();
+		boolean excel = ReservedFormat.XLS.equals(format) || ReservedFormat.XLSX.equals(format);
+		boolean userModel = exportConf.getEngine() == null || exportConf.getEngine() == ExportConf.Engine.USER_MODEL;
+		int weight;
+		if (ReservedFormat.CSV.equals(format) || ReservedFormat.PDF.equals(format) || (excel && !userModel)) {
+			weight = 1;
+		}
+		else if (ReservedFormat.XLS.equals(format)) {
+			weight = 4;
+		}
+		else if (ReservedFormat.XLSX.equals(format)) {
+			weight = 8;
+		}
+		else {
+			weight = 4;
+		}
+		if (excel && userModel && Boolean.TRUE.equals(exportConf.getAutoSize())
+				&& exportConf.getAutoSizeStrategy() != ExportConf.AutoSizeStrategy.ESTIMATE) {
+			weight *= 2;
+		}
+		return Math.max(1, rows * Math.max(1, columns) * weight);
+	}
+
+	/**
+	 * Schedules the export of the passed table to the passed stream.
+	 * 
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param output
+	 *            The stream to fill. It is not closed.
+	 * @return the pending export.
+	 * @throws ExportRejectedException
+	 *             if the lane of the export is full.
+	 */
+	public Future<Void> submit(final HtmlTable table, final ExportConf exportConf, final OutputStream output) {
+		return submit(estimateCost(table, exportConf), new Callable<Void>() {
+			@Override
+			public Void call() {
+				DatatablesExport export = ExportRegistry.newExport(exportConf);
+				export.initExport(table);
+				export.processExport(output);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Schedules the export of the passed table to a file.
+	 * 
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param dir
+	 *            The directory where to write the file.
+	 * @return the pending export.
+	 * @throws ExportRejectedException
+	 *             if the lane of the export is full.
+	 * @see ExportUtils#renderExport(HtmlTable, ExportConf, File, boolean)
+	 */
+	public Future<FileExportResult> submit(final HtmlTable table, final ExportConf exportConf, final File dir) {
+		return submit(estimateCost(table, exportConf), new Callable<FileExportResult>() {
+			@Override
+			public FileExportResult call() throws Exception {
+				return ExportUtils.renderExport(table, exportConf, dir, false);
+			}
+		});
+	}
+
+	/**
+	 * Schedules an arbitrary export of the passed cost, e.g. the export of a
+	 * {@link HtmlTableSource} whose size is known by the caller.
+	 * 
+	 * @param cost
+	 *            The estimated cost of the export.
+	 * @param export
+	 *            The export to run.
+	 * @return the pending export.
+	 * @throws ExportRejectedException
+	 *             if the lane of the export is full.
+	 */
+	public <T> Future<T> submit(long cost, Callable<T> export) {
+		return getLaneExecutor(getLane(cost)).submit(cost, export);
+	}
+
+	/**
+	 * @return the lane in which an export of the passed cost is run.
+	 */
+	public Lane getLane(long cost) {
+		return cost <= interactiveThreshold ? Lane.INTERACTIVE : Lane.BATCH;
+	}
+
+	/**
+	 * @return the number of exports waiting in the passed lane, either for a
+	 *         thread or for their cost to fit in the budget.
+	 */
+	public int getQueueDepth(Lane lane) {
+		return getLaneExecutor(lane).getQueueDepth();
+	}
+
+	/**
+	 * @return the number of exports running in the passed lane.
+	 */
+	public int getRunningCount(Lane lane) {
+		return getLaneExecutor(lane).running.get();
+	}
+
+	/**
+	 * @return the cost budget left in the passed lane.
+	 */
+	public long getAvailableCost(Lane lane) {
+		return (long) getLaneExecutor(lane).budget.availablePermits() * COST_UNIT;
+	}
+
+	/**
+	 * Stops accepting new exports. The exports already accepted are completed.
+	 */
+	public void shutdown() {
+		interactive.shutdown();
+		batch.shutdown();
+	}
+
+	/**
+	 * Waits for the accepted exports to complete after a {@link #shutdown()}.
+	 * 
+	 * @return <code>true</code> if all the exports completed before the timeout.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		return interactive.executor.awaitTermination(timeout, unit)
+				&& batch.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	private LaneExecutor getLaneExecutor(Lane lane) {
+		return lane == Lane.INTERACTIVE ? interactive : batch;
+	}
+
+	/**
+	 * The threads, the queue and the cost budget of a lane.
+	 * <p>
+	 * The exports wait in the queue of the lane until their cost fits in the
+	 * budget, in their order of submission, and are only then handed to the
+	 * threads: an export waiting for its budget never holds a thread.
+	 */
+	private static final class LaneExecutor {
+
+		private final Lane lane;
+		private final ThreadPoolExecutor executor;
+		private final Semaphore budget;
+		private final int maxPermits;
+		private final int queueCapacity;
+		private final Deque<PendingExport> pending = new ArrayDeque<PendingExport>();
+		private final AtomicInteger running = new AtomicInteger();
+		private boolean shutdown;
+
+		LaneExecutor(final Lane lane, int threads, int queueCapacity, long budget) {
+			this.lane = lane;
+			this.queueCapacity = queueCapacity;
+			this.maxPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budget / COST_UNIT));
+			this.budget = new Semaphore(maxPermits);
+			// Only the exports whose budget is acquired get queued here
+			this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+						private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "export-" + lane.name().toLowerCase() + "-"
+									+ threadNumber.getAndIncrement());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			this.executor.allowCoreThreadTimeOut(true);
+		}
+
+		<T> Future<T> submit(long cost, final Callable<T> export) {
+			// An export larger than the whole budget runs alone
+			int permits = (int) Math.min(maxPermits, Math.max(1, (cost + COST_UNIT - 1) / COST_UNIT));
+			FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					running.incrementAndGet();
+					try {
+						return export.call();
+					} finally {
+						running.decrementAndGet();
+					}
+				}
+			});
+
+			synchronized (this) {
+				if (shutdown) {
+					throw new ExportRejectedException("The " + lane.name().toLowerCase()
+							+ " exports are shut down");
+				}
+				if (getQueueDepth() >= queueCapacity) {
+					logger.warn("The {} lane is full ({} exports waiting), an export of cost {} is rejected", lane,
+							getQueueDepth(), cost);
+					throw new ExportRejectedException("Too many " + lane.name().toLowerCase()
+							+ " exports in progress, please retry later");
+				}
+				pending.add(new PendingExport(task, permits));
+				dispatch();
+			}
+			return task;
+		}
+
+		/**
+		 * Hands the exports at the head of the queue to the threads, as long as
+		 * their cost fits in the budget.
+		 */
+		private synchronized void dispatch() {
+			while (!pending.isEmpty() && budget.tryAcquire(pending.peek().permits)) {
+				final PendingExport next = pending.poll();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							next.task.run();
+						} finally {
+							budget.release(next.permits);
+							dispatch();
+						}
+					}
+				});
+			}
+			if (shutdown && pending.isEmpty()) {
+				executor.shutdown();
+			}
+		}
+
+		/**
+		 * Stops accepting exports, the threads stopping once the queued ones
+		 * are completed.
+		 */
+		synchronized void shutdown() {
+			shutdown = true;
+			if (pending.isEmpty()) {
+				executor.shutdown();
+			}
+		}
+
+		synchronized int getQueueDepth() {
+			// Exports waiting for their budget, then for a thread
+			return pending.size() + executor.getQueue().size();
+		}
+	}
+
+	/**
+	 * An export waiting for its cost to fit in the budget.
+	 */
+	private static final class PendingExport {
+
+		private final FutureTask<?> task;
+		private final int permits;
+
+		PendingExport(FutureTask<?> task, int permits) {
+			this.task = task;
+			this.permits = permits;
+		}
+	}
+
+	/**
+	 * Builder for {@link ExportScheduler}.
+	 */
+	public static class Builder {
+
+		private long interactiveThreshold = 500000;
+		private int interactiveThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		private int interactiveQueueCapacity = 100;
+		private long interactiveBudget = 4000000;
+		private int batchThreads = 1;
+		private int batchQueueCapacity = 20;
+		private long batchBudget = 40000000;
+
+		/**
+		 * @param interactiveThreshold
+		 *            The maximum cost of an interactive export.
+		 */
+		public Builder interactiveThreshold(long interactiveThreshold) {
+			this.interactiveThreshold = interactiveThreshold;
+			return this;
+		}
+
+		public Builder interactiveThreads(int interactiveThreads) {
+			this.interactiveThreads = interactiveThreads;
+			return this;
+		}
+
+		public Builder interactiveQueueCapacity(int interactiveQueueCapacity) {
+			this.interactiveQueueCapacity = interactiveQueueCapacity;
+			return this;
+		}
+
+		/**
+		 * @param interactiveBudget
+		 *            The maximum total cost of the interactive exports running
+		 *            at the same time.
+		 */
+		public Builder interactiveBudget(long interactiveBudget) {
+			this.interactiveBudget = interactiveBudget;
+			return this;
+		}
+
+		public Builder batchThreads(int batchThreads) {
+			this.batchThreads = batchThreads;
+			return this;
+		}
+
+		public Builder batchQueueCapacity(int batchQueueCapacity) {
+			this.batchQueueCapacity = batchQueueCapacity;
+			return this;
+		}
+
+		/**
+		 * @param batchBudget
+		 *            The maximum total cost of the batch exports running at the
+		 *            same time.
+		 */
+		public Builder batchBudget(long batchBudget) {
+			this.batchBudget = batchBudget;
+			return this;
+		}
+
+		public ExportScheduler build() {
+			return new ExportScheduler(this);
+		}
+	}
+}
@@ -29,17 +29,39 @@
  */
 package com.github.exporthelper.core;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.html.HtmlRow;
 import com.github.exporthelper.core.html.HtmlTable;
-import com.github.exporthelper.core.util.ClassUtils;
 
 /**
  * Utilities used when exporting data.
@@ -49,9 +71,27 @@ import com.github.exporthelper.core.util.ClassUtils;
  */
 public final class ExportUtils {
 
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(ExportUtils.class);
 	
 	/**
+	 * Size of the buffer used when the export is streamed to the response.
+	 */
+	private static final int RESPONSE_BUFFER_SIZE = 8192;
+
+	/**
+	 * Size of the buffer used when the export is written to a file.
+	 */
+	private static final int FILE_BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * <p>
 	 * Renders the passed table by writing the data to the response.
+	 * <p>
+	 * By default, the export is rendered in memory before being written to the
+	 * response. If {@link ExportConf#getStreaming()} is enabled, the headers are
+	 * set first and the export class writes directly to the response through a
+	 * buffer instead.
 	 * 
 	 * @param table
 	 *            The table to export.
@@ -61,28 +101,54 @@ public final class ExportUtils {
 	 *            The response to update.
 	 */
 	public static void renderExport(HtmlTable table, ExportConf exportConf, HttpServletResponse response) {
+		renderExport(table, exportConf, null, response);
+	}
 
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		String exportClass = exportConf.getExportClass();
+	/**
+	 * <p>
+	 * Renders the passed table by writing the data to the response, compressed
+	 * if possible.
+	 * <p>
+	 * The text formats (CSV, XML, JSON...) are compressed with gzip on the fly
+	 * if the request accepts it and if {@link ExportConf#getCompression()} is
+	 * enabled. Compressed exports are always streamed. The other formats, some
+	 * of which are already compressed like XLSX, are written as is.
+	 * 
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param request
+	 *            The current request, whose <code>Accept-Encoding</code> header
+	 *            is read. May be <code>null</code>.
+	 * @param response
+	 *            The response to update.
+	 * @see #renderExport(HtmlTable, ExportConf, HttpServletResponse)
+	 */
+	public static void renderExport(HtmlTable table, ExportConf exportConf, HttpServletRequest request,
+			HttpServletResponse response) {
 
-		// Check whether the class can be instantiated
-		if (!ClassUtils.isPresent(exportClass)) {
-			throw new ExportException("Unable to export in " + exportConf.getFormat()
-					+ " format because the export class cannot be found. Did you forget to add an extra dependency?");
+		if (exportConf.isSplit()) {
+			new SplitExport(asSource(table), exportConf).writeResponse(response);
+			return;
 		}
 
-		Class<?> klass = null;
-		DatatablesExport export = null;
-		try {
-			klass = ClassUtils.getClass(exportClass);
-			export = (DatatablesExport) ClassUtils.getNewInstance(klass);
-		} catch (ClassNotFoundException e) {
-			throw new ExportException("Unable to load the class '" + exportClass + "'", e);
-		} catch (InstantiationException e) {
-			throw new ExportException("Unable to instanciate the class '" + exportClass + "'", e);
-		} catch (IllegalAccessException e) {
-			throw new ExportException("Unable to access the class '" + exportClass + "'", e);
+		boolean gzip = negotiateGzip(exportConf, request, response);
+		if (gzip || Boolean.TRUE.equals(exportConf.getStreaming())) {
+			final DatatablesExport export = ExportRegistry.newExport(exportConf);
+			export.initExport(table);
+			streamToResponse(exportConf, response, gzip, new StreamWriter() {
+				@Override
+				public void write(OutputStream output) {
+					export.processExport(output);
+				}
+			});
+			return;
 		}
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		String exportClass = exportConf.getExportClass();
+		DatatablesExport export = ExportRegistry.newExport(exportConf);
 		
 		export.initExport(table);
 		export.processExport(stream);
@@ -106,47 +172,517 @@ public final class ExportUtils {
 	  * @return
 	  * @throws IOException
 	  * 
+	  * @see #renderExport(HtmlTable, ExportConf, File, boolean)
 	  */
 	public static File renderExport(HtmlTable table, ExportConf exportConf,
 			File dir) throws IOException {
+		return renderExport(table, exportConf, dir, false).getFile();
+	}
+
+	/**
+	 * <p>
+	 * Renders the passed table into a file of the passed directory, named
+	 * after the file name and extension of the export configuration.
+	 * <p>
+	 * The export is first written through a large buffer into a temporary
+	 * file of the same directory, which is then moved to its final name,
+	 * atomically if the file system supports it. Readers of the directory
+	 * never see a partially written file and an existing file is replaced
+	 * only once the new one is complete.
+	 * 
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param dir
+	 *            The directory where to write the file.
+	 * @param sync
+	 *            Whether the file content must be forced to the storage device
+	 *            before the file is published.
+	 * @return the exported file along with its size and timings.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static FileExportResult renderExport(HtmlTable table, ExportConf exportConf, File dir, boolean sync)
+			throws IOException {
+		final DatatablesExport export = ExportRegistry.newExport(exportConf);
+		export.initExport(table);
+		return writeToFile(exportConf, dir, sync, new StreamWriter() {
+			@Override
+			public void write(OutputStream output) {
+				export.processExport(output);
+			}
+		});
+	}
+
+	/**
+	 * Renders the passed source into a file of the passed directory.
+	 * 
+	 * @param source
+	 *            The source of the table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param dir
+	 *            The directory where to write the file.
+	 * @param sync
+	 *            Whether the file content must be forced to the storage device
+	 *            before the file is published.
+	 * @return the exported file along with its size and timings.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 * @see #renderExport(HtmlTable, ExportConf, File, boolean)
+	 */
+	public static FileExportResult renderExport(final HtmlTableSource source, final ExportConf exportConf, File dir,
+			boolean sync) throws IOException {
+		return writeToFile(exportConf, dir, sync, new StreamWriter() {
+			@Override
+			public void write(OutputStream output) {
+				renderExport(source, exportConf, output);
+			}
+		});
+	}
+
+	/**
+	 * Lets the passed writer fill a temporary file of the passed directory,
+	 * which is then moved to its final name.
+	 * 
+	 * @see #renderExport(HtmlTable, ExportConf, File, boolean)
+	 */
+	static FileExportResult writeToFile(ExportConf exportConf, File dir, boolean sync, StreamWriter writer)
+			throws IOException {
+		return writeToFile(getAttachmentName(exportConf), dir, sync, writer);
+	}
+
+	/**
+	 * Lets the passed writer fill the file of the passed name.
+	 * 
+	 * @see #writeToFile(ExportConf, File, boolean, StreamWriter)
+	 */
+	static FileExportResult writeToFile(String fileName, File dir, boolean sync, StreamWriter writer)
+			throws IOException {
+
+		long start = System.nanoTime();
+		Path directory = dir.toPath();
+		Path target = directory.resolve(fileName);
+		Path temp = createTempFile(directory, fileName, target);
+		boolean published = false;
 
-		File file = new File(dir, exportConf.getFileName() + "."
-				+ exportConf.getFileExtension());
-		if (!file.exists()) {
-			file.createNewFile();
+		try {
+			long size;
+			long renderNanos;
+			long syncNanos = 0;
+
+			FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+			try {
+				OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), FILE_BUFFER_SIZE);
+				// Some export classes close the stream, which must stay open to be synced
+				writer.write(new NonClosingOutputStream(out));
+				out.flush();
+				size = channel.size();
+				renderNanos = System.nanoTime() - start;
+
+				if (sync) {
+					long syncStart = System.nanoTime();
+					channel.force(true);
+					syncNanos = System.nanoTime() - syncStart;
+				}
+			} finally {
+				channel.close();
+			}
+
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			published = true;
+
+			return new FileExportResult(target.toFile().getAbsoluteFile(), size, renderNanos, syncNanos,
+					System.nanoTime() - start);
+		} finally {
+			if (!published) {
+				Files.deleteIfExists(temp);
+			}
 		}
-		FileOutputStream stream = new FileOutputStream(file);
-		String exportClass = exportConf.getExportClass();
+	}
 
-		// Check whether the class can be instantiated
-		if (!ClassUtils.isPresent(exportClass)) {
-			throw new ExportException(
-					"Unable to export in "
-							+ exportConf.getFormat()
-							+ " format because the export class cannot be found. Did you forget to add an extra dependency?");
+	/**
+	 * Creates the temporary file next to the target. Unlike
+	 * <code>Files.createTempFile</code>, which restricts it to its owner, the
+	 * file gets the permissions a {@link java.io.FileOutputStream} would have
+	 * given to the target: those of the file being replaced, or the default
+	 * ones of the process (umask), since they are kept when it is moved.
+	 */
+	private static Path createTempFile(Path directory, String fileName, Path target) throws IOException {
+		Path temp;
+		while (true) {
+			long suffix = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+			temp = directory.resolve("." + fileName + "-" + Long.toString(suffix, 36) + ".tmp");
+			try {
+				Files.createFile(temp);
+				break;
+			} catch (FileAlreadyExistsException e) {
+				// Tries another name
+			}
+		}
+		try {
+			if (Files.exists(target)) {
+				PosixFileAttributeView view = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+				if (view != null) {
+					view.setPermissions(Files.getPosixFilePermissions(target));
+				}
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
 		}
+		return temp;
+	}
 
-		Class<?> klass = null;
-		DatatablesExport export = null;
+	/**
+	 * <p>
+	 * Renders the passed source by writing each body row to the output as soon
+	 * as it is produced, so that the rows never have to be held in memory all
+	 * together.
+	 * <p>
+	 * The export class configured in the export configuration must implement
+	 * {@link DatatablesStreamingExport}.
+	 * 
+	 * @param source
+	 *            The source of the table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param output
+	 *            The stream to fill.
+	 */
+	public static void renderExport(HtmlTableSource source, ExportConf exportConf, OutputStream output) {
+
+		DatatablesExport export = ExportRegistry.newExport(exportConf);
+		if (!(export instanceof DatatablesStreamingExport)) {
+			throw new ExportException("Unable to stream the export in " + exportConf.getFormat() + " format because the class '"
+					+ exportConf.getExportClass() + "' doesn't implement " + DatatablesStreamingExport.class.getSimpleName());
+		}
+
+		DatatablesStreamingExport streamingExport = (DatatablesStreamingExport) export;
+		streamingExport.beginExport(source.getTable(), output);
 		try {
-			klass = ClassUtils.getClass(exportClass);
-			export = (DatatablesExport) ClassUtils.getNewInstance(klass);
-		} catch (ClassNotFoundException e) {
-			throw new ExportException("Unable to load the class '"
-					+ exportClass + "'", e);
-		} catch (InstantiationException e) {
-			throw new ExportException("Unable to instanciate the class '"
-					+ exportClass + "'", e);
-		} catch (IllegalAccessException e) {
-			throw new ExportException("Unable to access the class '"
-					+ exportClass + "'", e);
+			Iterator<HtmlRow> rows = source.bodyRowIterator();
+			while (rows.hasNext()) {
+				streamingExport.exportRow(rows.next());
+			}
+		} catch (RuntimeException e) {
+			streamingExport.abortExport();
+			throw e;
 		}
+		streamingExport.endExport();
+	}
 
-		export.initExport(table);
-		export.processExport(stream);
+	/**
+	 * Renders the passed source by streaming each body row directly to the
+	 * response.
+	 * 
+	 * @param source
+	 *            The source of the table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param response
+	 *            The response to update.
+	 * @see #renderExport(HtmlTableSource, ExportConf, OutputStream)
+	 */
+	public static void renderExport(HtmlTableSource source, ExportConf exportConf, HttpServletResponse response) {
+		renderExport(source, exportConf, null, response);
+	}
+
+	/**
+	 * Renders the passed source by streaming each body row directly to the
+	 * response, compressed if possible.
+	 * 
+	 * @param source
+	 *            The source of the table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param request
+	 *            The current request, whose <code>Accept-Encoding</code> header
+	 *            is read. May be <code>null</code>.
+	 * @param response
+	 *            The response to update.
+	 * @see #renderExport(HtmlTable, ExportConf, HttpServletRequest,
+	 *      HttpServletResponse)
+	 */
+	public static void renderExport(final HtmlTableSource source, final ExportConf exportConf,
+			HttpServletRequest request, HttpServletResponse response) {
 
-		return file.getAbsoluteFile();
+		if (exportConf.isSplit()) {
+			new SplitExport(source, exportConf).writeResponse(response);
+			return;
+		}
+
+		boolean gzip = negotiateGzip(exportConf, request, response);
+		streamToResponse(exportConf, response, gzip, new StreamWriter() {
+			@Override
+			public void write(OutputStream output) {
+				renderExport(source, exportConf, output);
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Renders the passed source split into several parts, each of them being
+	 * a complete file with its own header, as the entries of a ZIP archive.
+	 * <p>
+	 * The parts are named <code>fileName-part001.ext</code>,
+	 * <code>fileName-part002.ext</code>... and hold at most
+	 * {@link ExportConf#getMaxRowsPerPart()} body rows and about
+	 * {@link ExportConf#getMaxBytesPerPart()} bytes. Each part is written and
+	 * flushed as soon as it is complete.
+	 * <p>
+	 * The response overloads of <code>renderExport</code> use this format as
+	 * soon as a limit is set in the export configuration.
+	 * 
+	 * @param source
+	 *            The source of the table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param output
+	 *            The stream to fill with the ZIP archive.
+	 * @throws IOException
+	 *             if the archive cannot be written.
+	 */
+	public static void renderParts(HtmlTableSource source, ExportConf exportConf, OutputStream output)
+			throws IOException {
+		new SplitExport(source, exportConf).writeZip(output);
+	}
+
+	/**
+	 * Renders the passed source split into several files of the passed
+	 * directory.
+	 * 
+	 * @param source
+	 *            The source of the table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param dir
+	 *            The directory where to write the files.
+	 * @return the exported files, in order.
+	 * @throws IOException
+	 *             if a file cannot be written.
+	 * @see #renderParts(HtmlTableSource, ExportConf, OutputStream)
+	 */
+	public static List<FileExportResult> renderParts(HtmlTableSource source, ExportConf exportConf, File dir)
+			throws IOException {
+		return new SplitExport(source, exportConf).writeFiles(dir);
 	}
+
+	/**
+	 * Renders the passed table split into several files of the passed
+	 * directory.
+	 * 
+	 * @param table
+	 *            The table to export.
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param dir
+	 *            The directory where to write the files.
+	 * @return the exported files, in order.
+	 * @throws IOException
+	 *             if a file cannot be written.
+	 * @see #renderParts(HtmlTableSource, ExportConf, OutputStream)
+	 */
+	public static List<FileExportResult> renderParts(HtmlTable table, ExportConf exportConf, File dir)
+			throws IOException {
+		return renderParts(asSource(table), exportConf, dir);
+	}
+
+	/**
+	 * @return a source over the rows of the passed table.
+	 */
+	static HtmlTableSource asSource(final HtmlTable table) {
+		return new HtmlTableSource() {
+
+			@Override
+			public HtmlTable getTable() {
+				return table;
+			}
+
+			@Override
+			public Iterator<HtmlRow> bodyRowIterator() {
+				return table.getBodyRows().iterator();
+			}
+		};
+	}
+
+	/**
+	 * <p>
+	 * Sets the headers of the response and lets the passed writer fill it
+	 * through a buffer.
+	 * <p>
+	 * If the export fails before anything has been sent to the client, the
+	 * response is reset so that the caller is free to send an error instead.
+	 * Once the response is committed, the status can no longer be changed:
+	 * the failure is logged and the client receives a truncated file.
+	 * In both cases, an {@link ExportException} is thrown.
+	 */
+	private static void streamToResponse(ExportConf exportConf, HttpServletResponse response, boolean gzip,
+			StreamWriter writer) {
+		streamToResponse(exportConf, exportConf.getMimeType(), getAttachmentName(exportConf), response, gzip, writer);
+	}
+
+	/**
+	 * Streams to the response an attachment of the passed type and name.
+	 * 
+	 * @see #streamToResponse(ExportConf, HttpServletResponse, boolean,
+	 *      StreamWriter)
+	 */
+	static void streamToResponse(ExportConf exportConf, String contentType, String attachmentName,
+			HttpServletResponse response, boolean gzip, StreamWriter writer) {
+
+		response.setContentType(contentType);
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + attachmentName + "\"");
+
+		try {
+			// The buffer is deliberately not flushed if the export fails
+			OutputStream out = new BufferedOutputStream(response.getOutputStream(), RESPONSE_BUFFER_SIZE);
+			if (gzip) {
+				final int level = exportConf.getCompressionLevel() != null ? exportConf.getCompressionLevel()
+						: Deflater.BEST_SPEED;
+				GZIPOutputStream gzipOut = new GZIPOutputStream(out, RESPONSE_BUFFER_SIZE) {
+					{
+						def.setLevel(level);
+					}
+				};
+				writer.write(new NonClosingOutputStream(gzipOut));
+				gzipOut.finish();
+			}
+			else {
+				writer.write(out);
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw streamingFailure(exportConf, response, e);
+		} catch (RuntimeException e) {
+			throw streamingFailure(exportConf, response, e);
+		}
+	}
+
+	private static ExportException streamingFailure(ExportConf exportConf, HttpServletResponse response, Exception e) {
+		String message = "Unable to write the " + exportConf.getFormat() + " export to the response using the "
+				+ exportConf.getExportClass();
+
+		if (!response.isCommitted()) {
+			response.reset();
+			return e instanceof ExportException ? (ExportException) e : new ExportException(message, e);
+		}
+
+		logger.error("{} after the response was committed, the client received a truncated file", message, e);
+		return new ExportException(message + " (response already committed)", e);
+	}
+
+	/**
+	 * @return the name of the exported file, with its extension.
+	 */
+	static String getAttachmentName(ExportConf exportConf) {
+		return exportConf.getFileName() + "." + exportConf.getFileExtension();
+	}
+
+	/**
+	 * Sets the compression headers if the export is to be compressed.
+	 * 
+	 * @return <code>true</code> if the export must be compressed with gzip.
+	 */
+	private static boolean negotiateGzip(ExportConf exportConf, HttpServletRequest request,
+			HttpServletResponse response) {
+		if (request == null || !Boolean.TRUE.equals(exportConf.getCompression())
+				|| !isCompressible(exportConf.getMimeType())) {
+			return false;
+		}
+
+		// The response depends on the header, even if it is not compressed
+		response.addHeader("Vary", "Accept-Encoding");
+		if (!acceptsGzip(request.getHeader("Accept-Encoding"))) {
+			return false;
+		}
+		response.setHeader("Content-Encoding", "gzip");
+		return true;
+	}
+
+	/**
+	 * Only the text formats are worth compressing, the others being either
+	 * already compressed (XLSX, PDF) or not meant to be.
+	 */
+	static boolean isCompressible(String mimeType) {
+		if (mimeType == null) {
+			return false;
+		}
+		String type = mimeType.toLowerCase(Locale.ROOT);
+		int parameters = type.indexOf(';');
+		if (parameters >= 0) {
+			type = type.substring(0, parameters).trim();
+		}
+		return type.startsWith("text/") || type.endsWith("/xml") || type.endsWith("+xml") || type.endsWith("/json")
+				|| type.endsWith("+json");
+	}
+
+	/**
+	 * @return <code>true</code> if the passed <code>Accept-Encoding</code>
+	 *         header accepts gzip with a non-zero quality.
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (StringUtils.isBlank(acceptEncoding)) {
+			return false;
+		}
+		boolean wildcard = false;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim().toLowerCase(Locale.ROOT);
+			boolean accepted = true;
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						accepted = Double.parseDouble(parameter.substring(2).trim()) > 0;
+					} catch (NumberFormatException e) {
+						accepted = false;
+					}
+				}
+			}
+			if (name.equals("gzip") || name.equals("x-gzip")) {
+				return accepted;
+			}
+			if (name.equals("*")) {
+				wildcard = accepted;
+			}
+		}
+		return wildcard;
+	}
+
+	/**
+	 * Stream whose {@link #close()} only flushes the underlying stream.
+	 */
+	static final class NonClosingOutputStream extends FilterOutputStream {
+
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	/**
+	 * Callback writing an export to a stream.
+	 */
+	interface StreamWriter {
+		void write(OutputStream output);
+	}
+
 	/**
 	 * Write the given temporary OutputStream to the HTTP response as an
 	 * Attachment with the given title.
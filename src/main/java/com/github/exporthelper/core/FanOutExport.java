@@ -0,0 +1,350 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.html.HtmlRow;
+import com.github.exporthelper.core.html.HtmlTable;
+
+/**
+ * <p>
+ * Exports the same table in several formats at once, reading its rows only
+ * once.
+ * <p>
+ * The rows are read on the calling thread and handed to each export class,
+ * which runs on its own thread through a bounded queue. The rows are
+ * therefore never all held in memory when the source is a
+ * {@link HtmlTableSource}, and the slowest export class sets the pace.
+ * <p>
+ * For example:
+ * 
+ * <pre>
+ * List&lt;FileExportResult&gt; files = new FanOutExport().add(csvConf, dir).add(xlsxConf, dir).add(pdfConf, dir)
+ * 		.export(table);
+ * </pre>
+ * 
+ * The export classes must implement {@link DatatablesStreamingExport}. Each
+ * of them is exported with the configuration of its target, even if the table
+ * holds another one for the same format, so that a table can for instance be
+ * exported to two CSV files with different separators. The table itself is
+ * left untouched. An instance is not meant to be shared between threads.
+ *
+ * @since 1.0
+ */
+public class FanOutExport {
+
+	/**
+	 * Number of rows a target can lag behind the fastest one.
+	 */
+	private static final int QUEUE_CAPACITY = 256;
+
+	/**
+	 * Markers of the end of the rows.
+	 */
+	private static final HtmlRow END = new HtmlRow();
+	private static final HtmlRow ABORT = new HtmlRow();
+
+	private final ExecutorService executor;
+	private final List<Target> targets = new ArrayList<Target>();
+
+	/**
+	 * Creates a fan-out export running each target on a new thread.
+	 */
+	public FanOutExport() {
+		this.executor = null;
+	}
+
+	/**
+	 * Creates a fan-out export running the targets with the passed executor,
+	 * which must be able to run all of them at the same time.
+	 * 
+	 * @param executor
+	 *            The executor running the export classes.
+	 */
+	public FanOutExport(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Adds an export written to the passed stream.
+	 * 
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param output
+	 *            The stream to fill. It is not closed.
+	 * @return this fan-out export.
+	 */
+	public FanOutExport add(ExportConf exportConf, OutputStream output) {
+		targets.add(new Target(exportConf, output, null));
+		return this;
+	}
+
+	/**
+	 * Adds an export written to a file of the passed directory.
+	 * 
+	 * @param exportConf
+	 *            The export configuration (e.g. the export class to use).
+	 * @param dir
+	 *            The directory where to write the file.
+	 * @return this fan-out export.
+	 * @see ExportUtils#renderExport(HtmlTable, ExportConf, File, boolean)
+	 */
+	public FanOutExport add(ExportConf exportConf, File dir) {
+		targets.add(new Target(exportConf, null, dir));
+		return this;
+	}
+
+	/**
+	 * Exports the passed table to all the targets.
+	 * 
+	 * @param table
+	 *            The table to export.
+	 * @return the exported files, in the order in which the file targets have
+	 *         been added.
+	 * @throws ExportException
+	 *             if any of the exports fails.
+	 */
+	public List<FileExportResult> export(HtmlTable table) {
+		return export(ExportUtils.asSource(table));
+	}
+
+	/**
+	 * Exports the passed source to all the targets, iterating over its rows
+	 * only once.
+	 * 
+	 * @param source
+	 *            The source of the table to export.
+	 * @return the exported files, in the order in which the file targets have
+	 *         been added.
+	 * @throws ExportException
+	 *             if any of the exports fails.
+	 */
+	public List<FileExportResult> export(HtmlTableSource source) {
+		if (targets.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<Consumer> consumers = new ArrayList<Consumer>(targets.size());
+		for (Target target : targets) {
+			consumers.add(new Consumer(target, source.getTable().withExportConf(target.exportConf)));
+		}
+
+		ExecutorService service = executor != null ? executor : Executors.newFixedThreadPool(targets.size(),
+				new FanOutThreadFactory());
+		List<Future<FileExportResult>> futures = new ArrayList<Future<FileExportResult>>(consumers.size());
+		try {
+			for (Consumer consumer : consumers) {
+				futures.add(service.submit(consumer));
+			}
+
+			RuntimeException failure = null;
+			try {
+				Iterator<HtmlRow> rows = source.bodyRowIterator();
+				while (rows.hasNext()) {
+					HtmlRow row = rows.next();
+					for (Consumer consumer : consumers) {
+						consumer.put(row);
+					}
+				}
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+
+			for (Consumer consumer : consumers) {
+				consumer.put(failure == null ? END : ABORT);
+			}
+
+			List<FileExportResult> results = new ArrayList<FileExportResult>();
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					FileExportResult result = futures.get(i).get();
+					if (result != null) {
+						results.add(result);
+					}
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = new ExportException("Unable to export in " + targets.get(i).exportConf.getFormat()
+								+ " format", e.getCause());
+					}
+				}
+			}
+
+			if (failure != null) {
+				throw failure instanceof ExportException ? (ExportException) failure : new ExportException(
+						"Unable to read the rows to export", failure);
+			}
+			return results;
+		} catch (InterruptedException e) {
+			for (Future<FileExportResult> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new ExportException("Interrupted while exporting the table '" + source.getTable().getOriginalId()
+					+ "'", e);
+		} finally {
+			if (executor == null) {
+				service.shutdownNow();
+			}
+		}
+	}
+
+	private static final class Target {
+
+		private final ExportConf exportConf;
+		private final OutputStream output;
+		private final File dir;
+
+		Target(ExportConf exportConf, OutputStream output, File dir) {
+			this.exportConf = exportConf;
+			this.output = output;
+			this.dir = dir;
+		}
+	}
+
+	/**
+	 * Feeds a single export class with the rows of its queue.
+	 */
+	private static final class Consumer implements Callable<FileExportResult> {
+
+		private final Target target;
+		private final HtmlTable table;
+		private final DatatablesStreamingExport export;
+		private final BlockingQueue<HtmlRow> queue = new ArrayBlockingQueue<HtmlRow>(QUEUE_CAPACITY);
+		private boolean finished;
+
+		Consumer(Target target, HtmlTable table) {
+			this.target = target;
+			this.table = table;
+
+			DatatablesExport export = ExportRegistry.newExport(target.exportConf);
+			if (!(export instanceof DatatablesStreamingExport)) {
+				throw new ExportException("Unable to export in " + target.exportConf.getFormat()
+						+ " format because the class '" + export.getClass().getName() + "' doesn't implement "
+						+ DatatablesStreamingExport.class.getSimpleName());
+			}
+			this.export = (DatatablesStreamingExport) export;
+		}
+
+		void put(HtmlRow row) throws InterruptedException {
+			queue.put(row);
+		}
+
+		@Override
+		public FileExportResult call() throws Exception {
+			try {
+				if (target.dir != null) {
+					return ExportUtils.writeToFile(target.exportConf, target.dir, false, new ExportUtils.StreamWriter() {
+						@Override
+						public void write(OutputStream output) {
+							consume(output);
+						}
+					});
+				}
+				consume(target.output);
+				return null;
+			} catch (Exception e) {
+				drain();
+				throw e;
+			} catch (Error e) {
+				drain();
+				throw e;
+			}
+		}
+
+		private void consume(OutputStream output) {
+			export.beginExport(table, output);
+			try {
+				while (true) {
+					HtmlRow row = queue.take();
+					if (row == END || row == ABORT) {
+						finished = true;
+					}
+					if (row == END) {
+						break;
+					}
+					if (row == ABORT) {
+						throw new ExportException("The export in " + target.exportConf.getFormat()
+								+ " format has been aborted");
+					}
+					export.exportRow(row);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				export.abortExport();
+				throw new ExportException("Interrupted while exporting in " + target.exportConf.getFormat() + " format",
+						e);
+			} catch (RuntimeException e) {
+				export.abortExport();
+				throw e;
+			}
+			export.endExport();
+		}
+
+		/**
+		 * Discards the remaining rows so that a failed export never blocks the
+		 * other ones.
+		 */
+		private void drain() throws InterruptedException {
+			while (!finished) {
+				HtmlRow row = queue.take();
+				finished = row == END || row == ABORT;
+			}
+		}
+	}
+
+	private static final class FanOutThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "export-fan-out-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
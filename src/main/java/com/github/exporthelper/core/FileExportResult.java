@@ -0,0 +1,102 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Outcome of an export written to a file.
+ *
+ * @see ExportUtils#renderExport(com.github.exporthelper.core.html.HtmlTable,
+ *      ExportConf, File, boolean)
+ * @since 1.0
+ */
+public class FileExportResult {
+
+	private final File file;
+	private final long size;
+	private final long renderNanos;
+	private final long syncNanos;
+	private final long totalNanos;
+
+	FileExportResult(File file, long size, long renderNanos, long syncNanos, long totalNanos) {
+		this.file = file;
+		this.size = size;
+		this.renderNanos = renderNanos;
+		this.syncNanos = syncNanos;
+		this.totalNanos = totalNanos;
+	}
+
+	/**
+	 * @return the exported file, under its final name.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the size of the exported file, in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the time spent rendering the export into the file.
+	 */
+	public long getRenderTime(TimeUnit unit) {
+		return unit.convert(renderNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the time spent forcing the file content to the storage device,
+	 *         zero if it has not been requested.
+	 */
+	public long getSyncTime(TimeUnit unit) {
+		return unit.convert(syncNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the total time of the export, including the move of the file to
+	 *         its final name.
+	 */
+	public long getTotalTime(TimeUnit unit) {
+		return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return "FileExportResult [file=" + file + ", size=" + size + ", renderTime="
+				+ TimeUnit.NANOSECONDS.toMillis(renderNanos) + "ms, syncTime=" + TimeUnit.NANOSECONDS.toMillis(syncNanos)
+				+ "ms, totalTime=" + TimeUnit.NANOSECONDS.toMillis(totalNanos) + "ms]";
+	}
+}
@@ -29,23 +29,35 @@
  */
 package com.github.exporthelper.core;
 
-import java.text.MessageFormat;
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.github.exporthelper.core.configuration.ColumnConfig;
+import com.github.exporthelper.core.exception.ExportException;
 import com.github.exporthelper.core.html.HtmlColumn;
-import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.exporthelper.core.html.HtmlCaption;
+import com.github.exporthelper.core.html.HtmlRow;
 import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.core.util.PropertyAccessor;
 
 /**
  * <p>
@@ -81,6 +93,15 @@ import com.github.exporthelper.core.html.HtmlTable;
  * <li>{@code persons} is a collection of {@code Person}</li>
  * <li>{@code request} is the current {@link HttpServletRequest}</li>
  * </ul>
+ * <p>
+ * The cells of a column can be styled in the Excel exports by calling
+ * {@code headerStyle(...)} and {@code bodyStyle(...)} after its title, with
+ * an {@link ExcelCellStyle}.
+ * </p>
+ * <p>
+ * Large collections can be converted on several threads by calling
+ * {@code parallel()} just before {@code build()}.
+ * </p>
  * 
  * @author Thibault Duchateau
  * @since 0.9.0
@@ -90,6 +111,8 @@ public class HtmlTableBuilder<T> {
 	// Logger
 	private static Logger logger = LoggerFactory.getLogger(HtmlTableBuilder.class);
 
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
 	public ColumnStep newBuilder(String id, List<T> data,
 			HttpServletRequest request) {
 		return new Steps<T>(id, null, data, request);
@@ -134,7 +157,40 @@ public class HtmlTableBuilder<T> {
 
 	public static interface BuildStep {
 		HtmlTable build();
+		HtmlTableSource buildSource();
 		FirstContentStep column();
+
+		/**
+		 * Sets the style of the header cell of the last column in the Excel
+		 * exports.
+		 */
+		BuildStep headerStyle(ExcelCellStyle style);
+
+		/**
+		 * Sets the style of the body cells of the last column in the Excel
+		 * exports.
+		 */
+		BuildStep bodyStyle(ExcelCellStyle style);
+
+		/**
+		 * Builds the body rows in parallel, on the common {@link ForkJoinPool},
+		 * in chunks of {@value HtmlTableBuilder#DEFAULT_CHUNK_SIZE} rows.
+		 */
+		BuildStep parallel();
+
+		/**
+		 * Builds the body rows in parallel, on the passed executor, in chunks
+		 * of {@value HtmlTableBuilder#DEFAULT_CHUNK_SIZE} rows.
+		 */
+		BuildStep parallel(ExecutorService executor);
+
+		/**
+		 * Builds the body rows in parallel, on the passed executor, in chunks
+		 * of the passed size. The rows keep the order of the data. A chunk
+		 * that fails or that the executor rejects is built again on the
+		 * calling thread.
+		 */
+		BuildStep parallel(ExecutorService executor, int chunkSize);
 	}
 
 	private static class Steps<T> implements ColumnStep, FirstContentStep, SecondContentStep, BuildStep {
@@ -146,6 +202,8 @@ public class HtmlTableBuilder<T> {
 		private HttpServletRequest request;
 		private HttpServletResponse response;
 		private ExportConf exportConf;
+		private ExecutorService executor;
+		private int chunkSize;
 
 		public Steps(String id, String title, List<T> data,
 				HttpServletRequest request) {
@@ -246,8 +304,165 @@ public class HtmlTableBuilder<T> {
 			return this;
 		}
 
+		@Override
+		public Steps<T> headerStyle(ExcelCellStyle style) {
+			ColumnConfig.HEADER_STYLE.setIn(headerColumns.getLast().getColumnConfiguration(), style);
+			return this;
+		}
+
+		@Override
+		public Steps<T> bodyStyle(ExcelCellStyle style) {
+			ColumnConfig.BODY_STYLE.setIn(headerColumns.getLast().getColumnConfiguration(), style);
+			return this;
+		}
+
+		@Override
+		public Steps<T> parallel() {
+			return parallel(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+		}
+
+		@Override
+		public Steps<T> parallel(ExecutorService executor) {
+			return parallel(executor, DEFAULT_CHUNK_SIZE);
+		}
+
+		@Override
+		public Steps<T> parallel(ExecutorService executor, int chunkSize) {
+			if (chunkSize <= 0) {
+				throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+			}
+			this.executor = executor;
+			this.chunkSize = chunkSize;
+			return this;
+		}
+
 		@Override
 		public HtmlTable build() {
+			HtmlTable table = buildHeader();
+
+			if (data != null) {
+				if (executor != null && data.size() > chunkSize) {
+					buildBodyInParallel(table);
+				} else {
+					for (T o : data) {
+						fillRow(table.addRow(), o);
+					}
+				}
+			}
+
+			return table;
+		}
+
+		/**
+		 * Converts the data into rows, one chunk per task, and appends the
+		 * rows to the table in the original order.
+		 */
+		private void buildBodyInParallel(HtmlTable table) {
+			int size = data.size();
+			List<Future<List<HtmlRow>>> futures = new ArrayList<Future<List<HtmlRow>>>();
+
+			for (int from = 0; from < size; from += chunkSize) {
+				final List<T> chunk = data.subList(from, Math.min(size, from + chunkSize));
+				try {
+					futures.add(executor.submit(new Callable<List<HtmlRow>>() {
+						@Override
+						public List<HtmlRow> call() {
+							return buildRows(chunk);
+						}
+					}));
+				} catch (RejectedExecutionException e) {
+					logger.debug("The chunk starting at row {} has been rejected, it will be built on the calling thread", from);
+					futures.add(null);
+				}
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				int from = i * chunkSize;
+				List<T> chunk = data.subList(from, Math.min(size, from + chunkSize));
+				List<HtmlRow> rows = null;
+
+				if (futures.get(i) != null) {
+					try {
+						rows = futures.get(i).get();
+					} catch (ExecutionException e) {
+						logger.warn("Unable to build the rows {} to {} in parallel, building them again on the calling thread",
+								from, from + chunk.size() - 1, e.getCause());
+					} catch (InterruptedException e) {
+						for (Future<List<HtmlRow>> future : futures) {
+							if (future != null) {
+								future.cancel(true);
+							}
+						}
+						Thread.currentThread().interrupt();
+						throw new ExportException("Interrupted while building the table '" + id + "'", e);
+					}
+				}
+
+				if (rows == null) {
+					try {
+						rows = buildRows(chunk);
+					} catch (RuntimeException e) {
+						throw new ExportException("Unable to build the rows " + from + " to " + (from + chunk.size() - 1)
+								+ " of the table '" + id + "'", e);
+					}
+				}
+				table.getBodyRows().addAll(rows);
+			}
+		}
+
+		private List<HtmlRow> buildRows(List<T> chunk) {
+			List<HtmlRow> rows = new ArrayList<HtmlRow>(chunk.size());
+			for (T o : chunk) {
+				HtmlRow row = new HtmlRow();
+				fillRow(row, o);
+				rows.add(row);
+			}
+			return rows;
+		}
+
+		@Override
+		public HtmlTableSource buildSource() {
+			final HtmlTable table = buildHeader();
+
+			return new HtmlTableSource() {
+
+				@Override
+				public HtmlTable getTable() {
+					return table;
+				}
+
+				@Override
+				public Iterator<HtmlRow> bodyRowIterator() {
+					final Iterator<T> iterator = data != null ? data.iterator() : Collections.<T> emptyList().iterator();
+
+					return new Iterator<HtmlRow>() {
+
+						@Override
+						public boolean hasNext() {
+							return iterator.hasNext();
+						}
+
+						@Override
+						public HtmlRow next() {
+							HtmlRow row = new HtmlRow();
+							fillRow(row, iterator.next());
+							return row;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+
+		/**
+		 * Creates the table with its caption, export configuration and header
+		 * row, but without any body row.
+		 */
+		private HtmlTable buildHeader() {
 			HtmlTable table = new HtmlTable(id, request, response);
 			if (StringUtils.isNotBlank(title)) {
 				HtmlCaption caption = new HtmlCaption();
@@ -283,45 +498,55 @@ public class HtmlTableBuilder<T> {
 				table.getLastHeaderRow().addColumn(column);
 			}
 
-			if (data != null) {
+			return table;
+		}
 
-				for (T o : data) {
-
-					table.addRow();
-					for (HtmlColumn column : headerColumns) {
-
-						String content = "";
-						for (ColumnElement columnElement : column.getColumnConfiguration().getColumnElements()) {
-
-							if (StringUtils.isNotBlank(columnElement.getPropertyName())) {
-								try {
-									Object tmpObject = PropertyUtils.getNestedProperty(o, columnElement
-											.getPropertyName().trim());
-
-									if (tmpObject != null && StringUtils.isNotBlank(columnElement.getPattern())) {
-										MessageFormat messageFormat = new MessageFormat(columnElement.getPattern());
-										content += messageFormat.format(new Object[] { tmpObject });
-									} else {
-										content += tmpObject == null ? ""
-												: String.valueOf(tmpObject);
-									}
-								} catch (Exception e) {
-									logger.warn("Something went wrong with the property {}. Check that an accessor method for this property exists in the bean.");
-									content += columnElement.getDefaultValue();
-								}
-							} else if (columnElement.getContent() != null) {
-								content += columnElement.getContent();
-							} else {
+		/**
+		 * Fills the passed row with one column per header column, using the
+		 * passed bean.
+		 */
+		private void fillRow(HtmlRow row, T o) {
+			columns: for (HtmlColumn column : headerColumns) {
+
+				List<ColumnElement> columnElements = column.getColumnConfiguration().getColumnElements();
+				String content = "";
+				for (ColumnElement columnElement : columnElements) {
+
+					if (StringUtils.isNotBlank(columnElement.getPropertyName())) {
+						try {
+							Object tmpObject = PropertyAccessor.getProperty(o, columnElement.getPropertyName().trim());
+
+							if (tmpObject == PropertyAccessor.NOT_FOUND) {
 								content += columnElement.getDefaultValue();
+							} else if (tmpObject != null && columnElement.getCellFormat() != null) {
+								content += columnElement.getCellFormat().format(tmpObject);
+							} else if (columnElements.size() == 1 && isTyped(tmpObject)) {
+								// Kept as is so that the exporters can write it with its own type
+								row.addColumnValue(tmpObject);
+								continue columns;
+							} else {
+								content += tmpObject == null ? ""
+										: String.valueOf(tmpObject);
 							}
+						} catch (Exception e) {
+							logger.warn("Something went wrong with the property {}. Check that an accessor method for this property exists in the bean.",
+									columnElement.getPropertyName(), e);
+							content += columnElement.getDefaultValue();
 						}
-
-						table.getLastBodyRow().addColumn(String.valueOf(content));
+					} else if (columnElement.getContent() != null) {
+						content += columnElement.getContent();
+					} else {
+						content += columnElement.getDefaultValue();
 					}
 				}
+
+				row.addColumn(String.valueOf(content));
 			}
+		}
 
-			return table;
+		private boolean isTyped(Object value) {
+			return value instanceof Number || value instanceof Date || value instanceof Calendar
+					|| value instanceof TemporalAccessor || value instanceof Boolean;
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.html.HtmlRow;
+
+/**
+ * <p>
+ * Writes an export split into several parts, according to
+ * {@link ExportConf#getMaxRowsPerPart()} and
+ * {@link ExportConf#getMaxBytesPerPart()}.
+ * <p>
+ * Each part is a complete file, with its own header, named
+ * <code>fileName-part001.ext</code>, <code>fileName-part002.ext</code>... The
+ * parts are written one after the other, each being completed and flushed
+ * before the next one starts, so that only one part is held in memory at a
+ * time.
+ *
+ * @see ExportUtils#renderParts(HtmlTableSource, ExportConf, OutputStream)
+ * @since 1.0
+ */
+final class SplitExport {
+
+	private final HtmlTableSource source;
+	private final ExportConf exportConf;
+	private final int maxRows;
+	private final long maxBytes;
+
+	SplitExport(HtmlTableSource source, ExportConf exportConf) {
+		this.source = source;
+		this.exportConf = exportConf;
+		this.maxRows = exportConf.getMaxRowsPerPart() != null && exportConf.getMaxRowsPerPart() > 0 ? exportConf
+				.getMaxRowsPerPart() : Integer.MAX_VALUE;
+		this.maxBytes = exportConf.getMaxBytesPerPart() != null && exportConf.getMaxBytesPerPart() > 0 ? exportConf
+				.getMaxBytesPerPart() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Writes the parts as the entries of a ZIP archive.
+	 */
+	void writeZip(OutputStream output) throws IOException {
+		ZipOutputStream zip = new ZipOutputStream(output);
+		if (!ExportUtils.isCompressible(exportConf.getMimeType())) {
+			// Deflating already compressed formats only costs CPU
+			zip.setLevel(Deflater.NO_COMPRESSION);
+		}
+
+		Iterator<HtmlRow> rows = source.bodyRowIterator();
+		int part = 0;
+		do {
+			part++;
+			zip.putNextEntry(new ZipEntry(getPartName(part)));
+			writePart(rows, new ExportUtils.NonClosingOutputStream(zip));
+			zip.closeEntry();
+			zip.flush();
+		} while (rows.hasNext());
+		zip.finish();
+	}
+
+	/**
+	 * Writes the parts as the files of the passed directory.
+	 */
+	List<FileExportResult> writeFiles(File dir) throws IOException {
+		List<FileExportResult> results = new ArrayList<FileExportResult>();
+		final Iterator<HtmlRow> rows = source.bodyRowIterator();
+		int part = 0;
+		do {
+			part++;
+			results.add(ExportUtils.writeToFile(getPartName(part), dir, false, new ExportUtils.StreamWriter() {
+				@Override
+				public void write(OutputStream output) {
+					writePart(rows, output);
+				}
+			}));
+		} while (rows.hasNext());
+		return results;
+	}
+
+	/**
+	 * Streams the parts to the response, as a ZIP archive.
+	 */
+	void writeResponse(HttpServletResponse response) {
+		ExportUtils.streamToResponse(exportConf, "application/zip", exportConf.getFileName() + ".zip", response, false,
+				new ExportUtils.StreamWriter() {
+					@Override
+					public void write(OutputStream output) {
+						try {
+							writeZip(output);
+						} catch (IOException e) {
+							throw new ExportException("Unable to write the parts of the " + exportConf.getFormat()
+									+ " export", e);
+						}
+					}
+				});
+	}
+
+	String getPartName(int part) {
+		return String.format("%s-part%03d.%s", exportConf.getFileName(), part, exportConf.getFileExtension());
+	}
+
+	/**
+	 * Writes the next rows into a new part, until one of the limits is
+	 * reached.
+	 */
+	private void writePart(Iterator<HtmlRow> rows, OutputStream output) {
+		DatatablesExport export = ExportRegistry.newExport(exportConf);
+		if (!(export instanceof DatatablesStreamingExport)) {
+			throw new ExportException("Unable to split the export in " + exportConf.getFormat()
+					+ " format because the class '" + export.getClass().getName() + "' doesn't implement "
+					+ DatatablesStreamingExport.class.getSimpleName());
+		}
+
+		DatatablesStreamingExport streamingExport = (DatatablesStreamingExport) export;
+		CountingOutputStream counter = new CountingOutputStream(output);
+		streamingExport.beginExport(source.getTable(), counter);
+		try {
+			int count = 0;
+			while (rows.hasNext() && count < maxRows && counter.count < maxBytes) {
+				streamingExport.exportRow(rows.next());
+				count++;
+			}
+		} catch (RuntimeException e) {
+			streamingExport.abortExport();
+			throw e;
+		}
+		streamingExport.endExport();
+	}
+
+	/**
+	 * Counts the bytes written to the underlying stream.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -29,6 +29,7 @@
  */
 package com.github.exporthelper.core.configuration;
 
+import com.github.exporthelper.core.ExcelCellStyle;
 
 /**
  * <p>
@@ -45,6 +46,16 @@ public final class ColumnConfig {
 	public static ConfigToken<String> ID = new ConfigToken<String>("");
 	public static ConfigToken<String> TITLE = new ConfigToken<String>("");
 
+	/**
+	 * Style of the header cell of the column in the Excel exports.
+	 */
+	public static ConfigToken<ExcelCellStyle> HEADER_STYLE = new ConfigToken<ExcelCellStyle>("");
+
+	/**
+	 * Style of the body cells of the column in the Excel exports.
+	 */
+	public static ConfigToken<ExcelCellStyle> BODY_STYLE = new ConfigToken<ExcelCellStyle>("");
+
 	/**
 	 * Prevent instantiation.
 	 */
@@ -29,6 +29,7 @@
  */
 package com.github.exporthelper.core.html;
 
+import java.math.BigDecimal;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -40,6 +41,13 @@ import com.github.exporthelper.core.configuration.ColumnConfiguration;
 
 /**
  * Plain old HTML <code>td</code> and <code>th</code> tags.
+ * <p>
+ * The cells of the body rows of a {@link HtmlTable} are views over its
+ * {@link HtmlTableBody}: since 1.0, {@link #getContent()} returns a copy of
+ * their content, so appending to it doesn't change the cell; use
+ * {@link #addContent(String)} or {@link #setContent(StringBuilder)} instead.
+ * Their display types can still be changed through the set returned by
+ * {@link #getEnabledDisplayTypes()}.
  * 
  * @author Thibault Duchateau
  * @since 0.1.0
@@ -50,20 +58,24 @@ public class HtmlColumn extends HtmlTagWithContent {
 	private Boolean isHeaderColumn;
 	protected StringBuilder cssCellStyle;
 	protected StringBuilder cssCellClass;
-	private Set<String> enabledDisplayTypes = new HashSet<String>();
+	private Set<String> enabledDisplayTypes;
+	private Object value;
 	
 	public HtmlColumn() {
 		setHeaderColumn(false);
+		enabledDisplayTypes = new HashSet<String>();
 		enabledDisplayTypes.add(ReservedFormat.ALL);
 	};
 
 	public HtmlColumn(String displayFormat) {
 		setHeaderColumn(false);
+		enabledDisplayTypes = new HashSet<String>();
 		enabledDisplayTypes.add(displayFormat);
 	};
 
 	public HtmlColumn(Boolean isHeader) {
 		setHeaderColumn(isHeader);
+		enabledDisplayTypes = new HashSet<String>();
 		enabledDisplayTypes.add(ReservedFormat.ALL);
 		if(isHeader){
 			this.columnConfiguration = new ColumnConfiguration();
@@ -72,6 +84,7 @@ public class HtmlColumn extends HtmlTagWithContent {
 
 	public HtmlColumn(Boolean isHeader, String content) {
 		setHeaderColumn(isHeader);
+		enabledDisplayTypes = new HashSet<String>();
 		enabledDisplayTypes.add(ReservedFormat.ALL);
 		if(isHeader){
 			this.columnConfiguration = new ColumnConfiguration();
@@ -83,6 +96,7 @@ public class HtmlColumn extends HtmlTagWithContent {
 
 	public HtmlColumn(Boolean isHeader, String content, Map<String, String> dynamicAttributes) {
 		setHeaderColumn(isHeader);
+		enabledDisplayTypes = new HashSet<String>();
 		enabledDisplayTypes.add(ReservedFormat.ALL);
 		if(isHeader){
 			this.columnConfiguration = new ColumnConfiguration();
@@ -94,6 +108,7 @@ public class HtmlColumn extends HtmlTagWithContent {
 
 	public HtmlColumn(Boolean isHeader, String content, Map<String, String> dynamicAttributes, String displayTypes) {
 		setHeaderColumn(isHeader);
+		enabledDisplayTypes = new HashSet<String>();
 		if(isHeader){
 			this.columnConfiguration = new ColumnConfiguration();
 		}
@@ -111,10 +126,74 @@ public class HtmlColumn extends HtmlTagWithContent {
 		}
 	}
 	
+	/**
+	 * Used by the views over a {@link HtmlTableBody}, which keep their content
+	 * and display types in the body itself.
+	 */
+	HtmlColumn(StringBuilder content, Set<String> enabledDisplayTypes) {
+		super(content);
+		setHeaderColumn(false);
+		this.enabledDisplayTypes = enabledDisplayTypes;
+	}
+
 	private void setHeaderColumn(Boolean isHeaderColumn) {
 		this.isHeaderColumn = isHeaderColumn;
 	}
 
+	/**
+	 * @return the typed value of the cell (a number, a date, a boolean...) if
+	 *         one has been set, its text content otherwise.
+	 */
+	public Object getValue() {
+		if (value != null) {
+			return value;
+		}
+		return content != null ? content.toString() : null;
+	}
+
+	/**
+	 * Sets the typed value of the cell. The text content is updated
+	 * accordingly.
+	 * 
+	 * @param value
+	 *            The value to set.
+	 */
+	public void setValue(Object value) {
+		this.content = new StringBuilder(toContent(value));
+		this.value = value instanceof String ? null : value;
+	}
+
+	@Override
+	public void setContent(StringBuilder content) {
+		this.value = null;
+		super.setContent(content);
+	}
+
+	@Override
+	public void addContent(StringBuilder contentToAdd) {
+		this.value = null;
+		super.addContent(contentToAdd);
+	}
+
+	@Override
+	public void addContent(String contentToAdd) {
+		this.value = null;
+		super.addContent(contentToAdd);
+	}
+
+	/**
+	 * Returns the text content of a cell holding the passed value.
+	 */
+	static String toContent(Object value) {
+		if (value == null) {
+			return "";
+		}
+		if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).toPlainString();
+		}
+		return String.valueOf(value);
+	}
+
 	public Boolean isHeaderColumn() {
 		return isHeaderColumn;
 	}
@@ -47,12 +47,22 @@ public class HtmlRow {
 	 * List of columns (<code>td</code> tag) inside the row (<code>tr</code>
 	 * tag)
 	 */
-	private List<HtmlColumn> columns = new LinkedList<HtmlColumn>();
+	private List<HtmlColumn> columns;
 
 	public HtmlRow() {
+		this.columns = new LinkedList<HtmlColumn>();
 	}
 
 	public HtmlRow(String id) {
+		this();
+	}
+
+	/**
+	 * Used by the views over a {@link HtmlTableBody}, which keep their columns
+	 * in the body itself.
+	 */
+	HtmlRow(List<HtmlColumn> columns) {
+		this.columns = columns;
 	}
 
 	
@@ -109,6 +119,21 @@ public class HtmlRow {
 		return newColumn;
 	}
 
+	/**
+	 * Adds a column holding a typed value, such as a number or a date, that
+	 * exporters can write natively.
+	 * 
+	 * @param value
+	 *            The value of the new column.
+	 * @return the new column.
+	 */
+	public HtmlColumn addColumnValue(Object value) {
+		HtmlColumn newColumn = new HtmlColumn(false, null);
+		newColumn.setValue(value);
+		this.columns.add(newColumn);
+		return newColumn;
+	}
+
 	public HtmlColumn addColumn(String columnContent, String displayFormat) {
 		HtmlColumn newColumn = new HtmlColumn(false, columnContent);
 		Set<String> enabledDisplayTypes = new HashSet<String>();
@@ -52,7 +52,7 @@ public class HtmlTable {
 	private String originalId;
 	private HtmlCaption caption;
 	private List<HtmlRow> head = new LinkedList<HtmlRow>();
-	private List<HtmlRow> body = new LinkedList<HtmlRow>();
+	private HtmlTableBody body = new HtmlTableBody();
 	private List<HtmlRow> foot = new LinkedList<HtmlRow>();
 
 	// 下面的参数是从TableConfiguration类移过来的
@@ -81,6 +81,13 @@ public class HtmlTable {
 		return body;
 	}
 
+	/**
+	 * @return the columnar storage of the body rows.
+	 */
+	public HtmlTableBody getBody() {
+		return body;
+	}
+
 	public HtmlRow addHeaderRow() {
 		HtmlRow row = new HtmlRow();
 		this.head.add(row);
@@ -88,9 +95,7 @@ public class HtmlTable {
 	}
 
 	public HtmlRow addRow() {
-		HtmlRow row = new HtmlRow();
-		this.body.add(row);
-		return row;
+		return this.body.addRow();
 	}
 
 	public HtmlRow addFooterRow() {
@@ -100,9 +105,7 @@ public class HtmlTable {
 	}
 
 	public HtmlRow addRow(String rowId) {
-		HtmlRow row = new HtmlRow(rowId);
-		this.body.add(row);
-		return row;
+		return this.body.addRow();
 	}
 
 	public HtmlTable addRows(HtmlRow... rows) {
@@ -125,7 +128,7 @@ public class HtmlTable {
 	}
 
 	public HtmlRow getLastBodyRow() {
-		return ((LinkedList<HtmlRow>) this.body).getLast();
+		return this.body.getLastRow();
 	}
 
 	//	@Override
@@ -160,6 +163,27 @@ public class HtmlTable {
 	//		this.tableConfiguration = tableConfiguration;
 	//	}
 	
+	/**
+	 * Creates a view of this table sharing its caption, rows and
+	 * configurations, but exported with the passed configuration in its
+	 * format. This table is left untouched.
+	 * 
+	 * @param exportConf
+	 *            The export configuration of the view.
+	 * @return the view.
+	 */
+	public HtmlTable withExportConf(ExportConf exportConf) {
+		HtmlTable view = new HtmlTable(originalId, null, null);
+		view.caption = caption;
+		view.head = head;
+		view.body = body;
+		view.foot = foot;
+		view.configurations = configurations;
+		view.exportConfiguration = new LinkedHashMap<String, ExportConf>(exportConfiguration);
+		view.exportConfiguration.put(exportConf.getFormat(), exportConf);
+		return view;
+	}
+
 	public String getOriginalId() {
 		return originalId;
 	}
@@ -0,0 +1,543 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core.html;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import com.github.exporthelper.core.ReservedFormat;
+
+/**
+ * <p>
+ * Columnar storage of the body rows of a {@link HtmlTable}.
+ * <p>
+ * Instead of one {@link HtmlRow} per row and one {@link HtmlColumn} per cell,
+ * the cell values are stored column by column in chunked arrays, and the
+ * display types are stored once per column. A value is either the text
+ * content of the cell or a typed value (number, date...) added with
+ * {@link HtmlRow#addColumnValue(Object)}. The {@link HtmlRow} and
+ * {@link HtmlColumn} instances returned by this list are lightweight views
+ * created on demand: updating them through their setters and adders, or
+ * through the set returned by {@link HtmlColumn#getEnabledDisplayTypes()},
+ * updates the body, but the {@link StringBuilder} returned by
+ * {@link HtmlColumn#getContent()} is a copy.
+ * <p>
+ * Exporters may also read the cells directly using
+ * {@link #getValue(int, int)} and {@link #getContent(int, int)}.
+ *
+ * @see HtmlTable#getBody()
+ * @since 1.0
+ */
+public class HtmlTableBody extends AbstractList<HtmlRow> implements RandomAccess {
+
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static final Set<String> DEFAULT_DISPLAY_TYPES = Collections.singleton(ReservedFormat.ALL);
+
+	private final List<ColumnVector> columns = new ArrayList<ColumnVector>();
+	private int rowCount;
+
+	/**
+	 * Appends a new empty row.
+	 *
+	 * @return a view over the new row.
+	 */
+	public HtmlRow addRow() {
+		modCount++;
+		return new BodyRow(rowCount++, 0);
+	}
+
+	/**
+	 * @return a view over the last row.
+	 * @throws NoSuchElementException
+	 *             if the body is empty.
+	 */
+	public HtmlRow getLastRow() {
+		if (rowCount == 0) {
+			throw new NoSuchElementException();
+		}
+		return get(rowCount - 1);
+	}
+
+	/**
+	 * Appends a copy of the passed row.
+	 */
+	@Override
+	public boolean add(HtmlRow row) {
+		HtmlRow newRow = addRow();
+		for (HtmlColumn column : row.getColumns()) {
+			newRow.addColumn(column);
+		}
+		return true;
+	}
+
+	@Override
+	public HtmlRow get(int rowIndex) {
+		if (rowIndex < 0 || rowIndex >= rowCount) {
+			throw new IndexOutOfBoundsException("Row: " + rowIndex + ", size: " + rowCount);
+		}
+		return new BodyRow(rowIndex, -1);
+	}
+
+	@Override
+	public int size() {
+		return rowCount;
+	}
+
+	@Override
+	public void clear() {
+		modCount++;
+		columns.clear();
+		rowCount = 0;
+	}
+
+	/**
+	 * @return the highest number of columns of the rows.
+	 */
+	public int getColumnCount() {
+		return columns.size();
+	}
+
+	/**
+	 * @return the number of columns of the passed row.
+	 */
+	public int getRowLength(int rowIndex) {
+		int length = 0;
+		while (length < columns.size() && columns.get(length).get(rowIndex) != null) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * @return the value of the passed cell, or <code>null</code> if the row
+	 *         has no such column.
+	 */
+	public Object getValue(int rowIndex, int columnIndex) {
+		if (columnIndex >= columns.size()) {
+			return null;
+		}
+		return columns.get(columnIndex).get(rowIndex);
+	}
+
+	/**
+	 * @return the text content of the passed cell, or <code>null</code> if the
+	 *         row has no such column.
+	 */
+	public String getContent(int rowIndex, int columnIndex) {
+		Object value = getValue(rowIndex, columnIndex);
+		if (value == null || value instanceof String) {
+			return (String) value;
+		}
+		return HtmlColumn.toContent(value);
+	}
+
+	/**
+	 * @return the display types enabled for the passed cell.
+	 */
+	public Set<String> getEnabledDisplayTypes(int rowIndex, int columnIndex) {
+		return columns.get(columnIndex).getDisplayTypes(rowIndex);
+	}
+
+	/**
+	 * @return whether the passed cell is enabled for at least one of the passed
+	 *         formats.
+	 */
+	public boolean isEnabled(int rowIndex, int columnIndex, String... enabledFormats) {
+		Set<String> displayTypes = getEnabledDisplayTypes(rowIndex, columnIndex);
+		for (String enabledFormat : enabledFormats) {
+			if (displayTypes.contains(enabledFormat)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void setCell(int rowIndex, int columnIndex, Object value, Set<String> displayTypes) {
+		while (columns.size() <= columnIndex) {
+			columns.add(new ColumnVector());
+		}
+		ColumnVector column = columns.get(columnIndex);
+		column.set(rowIndex, value != null ? value : "");
+		if (displayTypes != null) {
+			column.setDisplayTypes(rowIndex, displayTypes);
+		}
+	}
+
+	/**
+	 * Values of a single column, stored in chunks of {@value #CHUNK_SIZE}
+	 * rows, with the display types shared by all its cells.
+	 */
+	private static final class ColumnVector {
+
+		private Object[][] chunks = new Object[4][];
+		private Set<String> displayTypes;
+		private Map<Integer, Set<String>> displayTypeOverrides;
+
+		Object get(int rowIndex) {
+			int chunk = rowIndex >>> CHUNK_SHIFT;
+			if (chunk >= chunks.length || chunks[chunk] == null) {
+				return null;
+			}
+			return chunks[chunk][rowIndex & CHUNK_MASK];
+		}
+
+		void set(int rowIndex, Object value) {
+			int chunk = rowIndex >>> CHUNK_SHIFT;
+			if (chunk >= chunks.length) {
+				Object[][] newChunks = new Object[Math.max(chunks.length * 2, chunk + 1)][];
+				System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+				chunks = newChunks;
+			}
+			if (chunks[chunk] == null) {
+				chunks[chunk] = new Object[CHUNK_SIZE];
+			}
+			chunks[chunk][rowIndex & CHUNK_MASK] = value;
+		}
+
+		Set<String> getDisplayTypes(int rowIndex) {
+			if (displayTypeOverrides != null) {
+				Set<String> override = displayTypeOverrides.get(rowIndex);
+				if (override != null) {
+					return override;
+				}
+			}
+			return displayTypes != null ? displayTypes : DEFAULT_DISPLAY_TYPES;
+		}
+
+		void setDisplayTypes(int rowIndex, Set<String> types) {
+			if (displayTypes == null) {
+				displayTypes = shared(types);
+			}
+			else if (types != displayTypes && !types.equals(displayTypes)) {
+				if (displayTypeOverrides == null) {
+					displayTypeOverrides = new HashMap<Integer, Set<String>>();
+				}
+				displayTypeOverrides.put(rowIndex, shared(types));
+			}
+			else if (displayTypeOverrides != null) {
+				displayTypeOverrides.remove(rowIndex);
+			}
+		}
+
+		private static Set<String> shared(Set<String> types) {
+			if (types == DEFAULT_DISPLAY_TYPES || DEFAULT_DISPLAY_TYPES.equals(types)) {
+				return DEFAULT_DISPLAY_TYPES;
+			}
+			return Collections.unmodifiableSet(new HashSet<String>(types));
+		}
+	}
+
+	/**
+	 * View over a row of the body.
+	 */
+	private final class BodyRow extends HtmlRow {
+
+		private final int rowIndex;
+		private int length;
+
+		BodyRow(int rowIndex, int length) {
+			super((List<HtmlColumn>) null);
+			this.rowIndex = rowIndex;
+			this.length = length;
+		}
+
+		private int length() {
+			if (length < 0) {
+				length = getRowLength(rowIndex);
+			}
+			return length;
+		}
+
+		private HtmlColumn append(Object value, Set<String> displayTypes) {
+			int columnIndex = length();
+			setCell(rowIndex, columnIndex, value, displayTypes);
+			length++;
+			return new BodyCell(rowIndex, columnIndex);
+		}
+
+		@Override
+		public List<HtmlColumn> getColumns(String... enabledFormats) {
+			List<HtmlColumn> result = new ArrayList<HtmlColumn>();
+			for (int columnIndex = 0; columnIndex < length(); columnIndex++) {
+				Set<String> displayTypes = getEnabledDisplayTypes(rowIndex, columnIndex);
+				for (String enabledFormat : enabledFormats) {
+					if (displayTypes.contains(enabledFormat)) {
+						result.add(new BodyCell(rowIndex, columnIndex));
+					}
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public List<HtmlColumn> getColumns() {
+			return new AbstractList<HtmlColumn>() {
+
+				@Override
+				public HtmlColumn get(int columnIndex) {
+					if (columnIndex < 0 || columnIndex >= length()) {
+						throw new IndexOutOfBoundsException("Column: " + columnIndex + ", size: " + length());
+					}
+					return new BodyCell(rowIndex, columnIndex);
+				}
+
+				@Override
+				public int size() {
+					return length();
+				}
+
+				@Override
+				public boolean add(HtmlColumn column) {
+					addColumn(column);
+					return true;
+				}
+			};
+		}
+
+		@Override
+		public void setColumns(List<HtmlColumn> newColumns) {
+			List<HtmlColumn> copy = new ArrayList<HtmlColumn>(newColumns.size());
+			for (HtmlColumn column : newColumns) {
+				HtmlColumn columnCopy = new HtmlColumn(new StringBuilder(), column.getEnabledDisplayTypes());
+				columnCopy.setValue(column.getValue());
+				copy.add(columnCopy);
+			}
+			for (int columnIndex = 0; columnIndex < length(); columnIndex++) {
+				columns.get(columnIndex).set(rowIndex, null);
+			}
+			length = 0;
+			for (HtmlColumn column : copy) {
+				addColumn(column);
+			}
+		}
+
+		@Override
+		public HtmlColumn addHeaderColumn(HtmlColumn headerColumn) {
+			return addColumn(headerColumn);
+		}
+
+		@Override
+		public HtmlColumn addHeaderColumn(String columnContent) {
+			return addColumn(columnContent);
+		}
+
+		@Override
+		public HtmlColumn addColumn(HtmlColumn column) {
+			return append(column.getValue(), column.getEnabledDisplayTypes());
+		}
+
+		@Override
+		public HtmlColumn addColumnValue(Object value) {
+			return append(value, DEFAULT_DISPLAY_TYPES);
+		}
+
+		@Override
+		public HtmlColumn addColumn(String columnContent) {
+			return append(columnContent, DEFAULT_DISPLAY_TYPES);
+		}
+
+		@Override
+		public HtmlColumn addColumn(String columnContent, String displayFormat) {
+			return append(columnContent, Collections.singleton(displayFormat.trim().toLowerCase()));
+		}
+
+		@Override
+		public List<HtmlColumn> getHeaderColumns() {
+			return new ArrayList<HtmlColumn>();
+		}
+
+		@Override
+		public HtmlColumn getLastColumn() {
+			if (length() == 0) {
+				throw new NoSuchElementException();
+			}
+			return new BodyCell(rowIndex, length() - 1);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("HtmlRow [columns=[");
+			for (int columnIndex = 0; columnIndex < length(); columnIndex++) {
+				if (columnIndex > 0) {
+					sb.append(", ");
+				}
+				sb.append(getContent(rowIndex, columnIndex));
+			}
+			return sb.append("]]").toString();
+		}
+	}
+
+	/**
+	 * View over a cell of the body.
+	 */
+	private final class BodyCell extends HtmlColumn {
+
+		private final int rowIndex;
+		private final int columnIndex;
+
+		BodyCell(int rowIndex, int columnIndex) {
+			super((StringBuilder) null, (Set<String>) null);
+			this.rowIndex = rowIndex;
+			this.columnIndex = columnIndex;
+		}
+
+		@Override
+		public StringBuilder getContent() {
+			return new StringBuilder(HtmlTableBody.this.getContent(rowIndex, columnIndex));
+		}
+
+		@Override
+		public Object getValue() {
+			return HtmlTableBody.this.getValue(rowIndex, columnIndex);
+		}
+
+		@Override
+		public void setValue(Object value) {
+			setCell(rowIndex, columnIndex, value, null);
+		}
+
+		@Override
+		public void setContent(StringBuilder content) {
+			setCell(rowIndex, columnIndex, content != null ? content.toString() : null, null);
+		}
+
+		@Override
+		public void addContent(StringBuilder contentToAdd) {
+			addContent(String.valueOf(contentToAdd));
+		}
+
+		@Override
+		public void addContent(String contentToAdd) {
+			setCell(rowIndex, columnIndex, HtmlTableBody.this.getContent(rowIndex, columnIndex) + contentToAdd, null);
+		}
+
+		@Override
+		public Set<String> getEnabledDisplayTypes() {
+			return new CellDisplayTypes(rowIndex, columnIndex);
+		}
+
+		@Override
+		public void setEnabledDisplayTypes(Set<String> enabledDisplayTypes) {
+			columns.get(columnIndex).setDisplayTypes(rowIndex, enabledDisplayTypes);
+		}
+	}
+
+	/**
+	 * View over the display types of a cell, the changes being written back
+	 * into its column.
+	 */
+	private final class CellDisplayTypes extends AbstractSet<String> {
+
+		private final int rowIndex;
+		private final int columnIndex;
+
+		CellDisplayTypes(int rowIndex, int columnIndex) {
+			this.rowIndex = rowIndex;
+			this.columnIndex = columnIndex;
+		}
+
+		private Set<String> current() {
+			return HtmlTableBody.this.getEnabledDisplayTypes(rowIndex, columnIndex);
+		}
+
+		@Override
+		public int size() {
+			return current().size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return current().contains(o);
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			// Iterates over a copy so that the types can be removed meanwhile
+			final Iterator<String> types = new ArrayList<String>(current()).iterator();
+			return new Iterator<String>() {
+
+				private String last;
+
+				@Override
+				public boolean hasNext() {
+					return types.hasNext();
+				}
+
+				@Override
+				public String next() {
+					last = types.next();
+					return last;
+				}
+
+				@Override
+				public void remove() {
+					if (last == null) {
+						throw new IllegalStateException();
+					}
+					CellDisplayTypes.this.remove(last);
+					last = null;
+				}
+			};
+		}
+
+		@Override
+		public boolean add(String type) {
+			Set<String> types = new HashSet<String>(current());
+			if (!types.add(type)) {
+				return false;
+			}
+			columns.get(columnIndex).setDisplayTypes(rowIndex, types);
+			return true;
+		}
+
+		@Override
+		public boolean remove(Object type) {
+			Set<String> types = new HashSet<String>(current());
+			if (!types.remove(type)) {
+				return false;
+			}
+			columns.get(columnIndex).setDisplayTypes(rowIndex, types);
+			return true;
+		}
+	}
+}
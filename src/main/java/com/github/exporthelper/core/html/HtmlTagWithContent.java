@@ -39,7 +39,15 @@ public abstract class HtmlTagWithContent {
 	/**
 	 * Content of the tag.
 	 */
-	protected StringBuilder content = new StringBuilder();
+	protected StringBuilder content;
+
+	protected HtmlTagWithContent() {
+		this(new StringBuilder());
+	}
+
+	protected HtmlTagWithContent(StringBuilder content) {
+		this.content = content;
+	}
 
 	public StringBuilder getContent() {
 		return content;
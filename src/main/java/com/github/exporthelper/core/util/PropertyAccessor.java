@@ -0,0 +1,366 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core.util;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.exporthelper.core.exception.ExportException;
+
+/**
+ * <p>
+ * Compiled reader of a (possibly nested) bean property, such as
+ * <code>address.town.name</code>.
+ * <p>
+ * Each property path is resolved once per bean class into a chain of
+ * {@link MethodHandle}s, which is then cached and shared between threads.
+ * Reading a property doesn't involve any introspection, string parsing or
+ * exception: a <code>null</code> intermediate value or a property that doesn't
+ * exist both result in {@link #NOT_FOUND}, the latter being cached as well.
+ * <p>
+ * Indexed and mapped properties (<code>a[0]</code>, <code>a(key)</code>) as
+ * well as {@link DynaBean}s are delegated to commons-beanutils.
+ *
+ * @since 1.0
+ */
+public final class PropertyAccessor {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(PropertyAccessor.class);
+
+	/**
+	 * Value returned when the property path cannot be followed, either
+	 * because a property doesn't exist or because an intermediate value is
+	 * <code>null</code>.
+	 */
+	public static final Object NOT_FOUND = new Object() {
+		@Override
+		public String toString() {
+			return "NOT_FOUND";
+		}
+	};
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	/**
+	 * Accessors by bean class and by property path. A {@link ClassValue} is used
+	 * so that the cache doesn't prevent bean classes from being unloaded.
+	 */
+	private static final ClassValue<ConcurrentMap<String, PropertyAccessor>> ACCESSORS = new ClassValue<ConcurrentMap<String, PropertyAccessor>>() {
+		@Override
+		protected ConcurrentMap<String, PropertyAccessor> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, PropertyAccessor>();
+		}
+	};
+
+	private final String propertyPath;
+	private final Step[] steps;
+	private final boolean resolvable;
+
+	private PropertyAccessor(String propertyPath, Step[] steps, boolean resolvable) {
+		this.propertyPath = propertyPath;
+		this.steps = steps;
+		this.resolvable = resolvable;
+	}
+
+	/**
+	 * Returns the accessor of the passed property path for the passed bean
+	 * class, compiling it on first use.
+	 *
+	 * @param beanClass
+	 *            The class of the beans to read.
+	 * @param propertyPath
+	 *            The (possibly nested) property path.
+	 * @return the cached accessor, never <code>null</code>.
+	 */
+	public static PropertyAccessor forProperty(Class<?> beanClass, String propertyPath) {
+		ConcurrentMap<String, PropertyAccessor> accessors = ACCESSORS.get(beanClass);
+		PropertyAccessor accessor = accessors.get(propertyPath);
+		if (accessor == null) {
+			accessor = compile(beanClass, propertyPath);
+			PropertyAccessor existing = accessors.putIfAbsent(propertyPath, accessor);
+			if (existing != null) {
+				accessor = existing;
+			}
+		}
+		return accessor;
+	}
+
+	/**
+	 * Reads the passed property path from the passed bean.
+	 *
+	 * @param bean
+	 *            The bean to read, possibly <code>null</code>.
+	 * @param propertyPath
+	 *            The (possibly nested) property path.
+	 * @return the property value, or {@link #NOT_FOUND} if the path cannot be
+	 *         followed.
+	 */
+	public static Object getProperty(Object bean, String propertyPath) {
+		if (bean == null) {
+			return NOT_FOUND;
+		}
+		return forProperty(bean.getClass(), propertyPath).getValue(bean);
+	}
+
+	/**
+	 * Reads the property from the passed bean.
+	 *
+	 * @param bean
+	 *            The bean to read. Must be an instance of the class this
+	 *            accessor has been compiled for.
+	 * @return the property value, or {@link #NOT_FOUND} if the path cannot be
+	 *         followed.
+	 * @throws ExportException
+	 *             if one of the accessor methods throws a checked exception.
+	 */
+	public Object getValue(Object bean) {
+		Object value = bean;
+		for (Step step : steps) {
+			if (value == null || value == NOT_FOUND) {
+				return NOT_FOUND;
+			}
+			value = step.apply(value);
+		}
+		return value;
+	}
+
+	/**
+	 * @return <code>false</code> if the property is known not to exist in the
+	 *         bean class.
+	 */
+	public boolean isResolvable() {
+		return resolvable;
+	}
+
+	public String getPropertyPath() {
+		return propertyPath;
+	}
+
+	private static PropertyAccessor compile(Class<?> beanClass, String propertyPath) {
+
+		if (propertyPath.indexOf('[') >= 0 || propertyPath.indexOf('(') >= 0
+				|| DynaBean.class.isAssignableFrom(beanClass)) {
+			return new PropertyAccessor(propertyPath, new Step[] { new BeanUtilsStep(propertyPath) }, true);
+		}
+
+		String[] names = propertyPath.split("\\.");
+		List<Step> steps = new ArrayList<Step>(names.length);
+		Class<?> type = beanClass;
+
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+
+			if (type == null) {
+				// The declared type is unknown, resolve against the runtime class
+				steps.add(new DynamicStep(name));
+			}
+			else if (Map.class.isAssignableFrom(type)) {
+				steps.add(new MapStep(name));
+				type = null;
+			}
+			else {
+				Method readMethod = findReadMethod(type, name);
+				MethodHandle getter = readMethod != null ? toHandle(type, readMethod) : null;
+				if (getter != null) {
+					steps.add(new GetterStep(getter, name));
+					type = readMethod.getReturnType() == Object.class ? null : readMethod.getReturnType();
+				}
+				else if (i == 0) {
+					logger.warn(
+							"The property '{}' cannot be read from {}. Check that an accessor method for this property exists in the bean.",
+							propertyPath, beanClass.getName());
+					return new PropertyAccessor(propertyPath, new Step[] { NotFoundStep.INSTANCE }, false);
+				}
+				else if (Modifier.isFinal(type.getModifiers()) || type.isPrimitive()) {
+					// No subclass can declare the property
+					return new PropertyAccessor(propertyPath, new Step[] { NotFoundStep.INSTANCE }, false);
+				}
+				else {
+					// A subclass of the declared type may declare the property
+					steps.add(new DynamicStep(name));
+					type = null;
+				}
+			}
+		}
+
+		return new PropertyAccessor(propertyPath, steps.toArray(new Step[steps.size()]), true);
+	}
+
+	/**
+	 * Returns the passed read method as a handle of type
+	 * <code>(Object)Object</code>, or <code>null</code> if it is not accessible.
+	 */
+	private static MethodHandle toHandle(Class<?> type, Method readMethod) {
+		Method accessibleMethod = MethodUtils.getAccessibleMethod(type, readMethod);
+		try {
+			if (accessibleMethod != null) {
+				return MethodHandles.publicLookup().unreflect(accessibleMethod).asType(GETTER_TYPE);
+			}
+			readMethod.setAccessible(true);
+			return MethodHandles.lookup().unreflect(readMethod).asType(GETTER_TYPE);
+		} catch (IllegalAccessException e) {
+			logger.debug("The read method {} is not accessible", readMethod);
+			return null;
+		} catch (RuntimeException e) {
+			logger.debug("The read method {} cannot be made accessible", readMethod);
+			return null;
+		}
+	}
+
+	private static Method findReadMethod(Class<?> type, String name) {
+		try {
+			BeanInfo beanInfo = Introspector.getBeanInfo(type);
+			for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+				if (descriptor.getName().equals(name) && descriptor.getReadMethod() != null) {
+					return descriptor.getReadMethod();
+				}
+			}
+		} catch (IntrospectionException e) {
+			logger.debug("Unable to introspect {}", type.getName());
+		}
+
+		// The introspector ignores the properties inherited from super-interfaces
+		if (type.isInterface()) {
+			for (Class<?> superInterface : type.getInterfaces()) {
+				Method readMethod = findReadMethod(superInterface, name);
+				if (readMethod != null) {
+					return readMethod;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A single segment of a property path.
+	 */
+	private static abstract class Step {
+		abstract Object apply(Object bean);
+	}
+
+	private static final class GetterStep extends Step {
+
+		private final MethodHandle getter;
+		private final String name;
+
+		GetterStep(MethodHandle getter, String name) {
+			this.getter = getter;
+			this.name = name;
+		}
+
+		@Override
+		Object apply(Object bean) {
+			try {
+				return (Object) getter.invokeExact(bean);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new ExportException("Unable to read the property '" + name + "' of " + bean.getClass().getName(), e);
+			}
+		}
+	}
+
+	private static final class MapStep extends Step {
+
+		private final String key;
+
+		MapStep(String key) {
+			this.key = key;
+		}
+
+		@Override
+		Object apply(Object bean) {
+			return ((Map<?, ?>) bean).get(key);
+		}
+	}
+
+	private static final class DynamicStep extends Step {
+
+		private final String name;
+
+		DynamicStep(String name) {
+			this.name = name;
+		}
+
+		@Override
+		Object apply(Object bean) {
+			return forProperty(bean.getClass(), name).getValue(bean);
+		}
+	}
+
+	private static final class BeanUtilsStep extends Step {
+
+		private final String propertyPath;
+
+		BeanUtilsStep(String propertyPath) {
+			this.propertyPath = propertyPath;
+		}
+
+		@Override
+		Object apply(Object bean) {
+			try {
+				return PropertyUtils.getNestedProperty(bean, propertyPath);
+			} catch (Exception e) {
+				return NOT_FOUND;
+			}
+		}
+	}
+
+	private static final class NotFoundStep extends Step {
+
+		static final NotFoundStep INSTANCE = new NotFoundStep();
+
+		@Override
+		Object apply(Object bean) {
+			return NOT_FOUND;
+		}
+	}
+}
@@ -31,7 +31,11 @@ package com.github.exporthelper.extras.itext;
 
 import java.io.OutputStream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.github.exporthelper.core.DatatablesExport;
+import com.github.exporthelper.core.DatatablesStreamingExport;
 import com.github.exporthelper.core.ExportConf;
 import com.github.exporthelper.core.ReservedFormat;
 import com.github.exporthelper.core.ExportConf.Orientation;
@@ -50,14 +54,35 @@ import com.itextpdf.text.pdf.PdfPTable;
 import com.itextpdf.text.pdf.PdfWriter;
 
 /**
+ * <p>
  * Default PDF export implementation.
+ * <p>
+ * The table is built as an incomplete iText table, added to the document every
+ * {@link ExportConf#getRowAccessWindow()} rows, or every 100 rows if it is 0
+ * or less: the completed pages are then written to the output and their rows
+ * released, so that the memory used doesn't grow with the number of rows. The
+ * header rows are repeated on each page.
  * 
  * @author Thibault Duchateau
  */
-public class PdfExport implements DatatablesExport {
+public class PdfExport implements DatatablesExport, DatatablesStreamingExport {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(PdfExport.class);
+
+	/**
+	 * Number of rows between two additions of the table to the document when
+	 * the row access window is 0 or less, e.g. -1 for the unlimited SXSSF
+	 * window.
+	 */
+	private static final int DEFAULT_FLUSH_ROWS = 100;
 
 	private HtmlTable table;
 	private ExportConf exportConf;
+	private Document document;
+	private PdfPTable pdfTable;
+	private int flushRows;
+	private int bufferedRows;
 
 	@Override
 	public void initExport(HtmlTable table) {
@@ -68,8 +93,25 @@ public class PdfExport implements DatatablesExport {
 
 	@Override
 	public void processExport(OutputStream output) {
+		beginExport(table, output);
+		try {
+			for (HtmlRow htmlRow : table.getBodyRows()) {
+				exportRow(htmlRow);
+			}
+		} catch (RuntimeException e) {
+			abortExport();
+			throw e;
+		}
+		endExport();
+	}
+
+	@Override
+	public void beginExport(HtmlTable table, OutputStream output) {
+		initExport(table);
+		Integer rowAccessWindow = exportConf.getRowAccessWindow();
+		this.flushRows = rowAccessWindow != null && rowAccessWindow > 0 ? rowAccessWindow : DEFAULT_FLUSH_ROWS;
+		this.bufferedRows = 0;
 
-		Document document = null;
 		if (exportConf.getOrientation() != null && exportConf.getOrientation().equals(Orientation.LANDSCAPE)) {
 			document = new Document(PageSize.LETTER.rotate());
 		}
@@ -84,16 +126,57 @@ public class PdfExport implements DatatablesExport {
 
 			document.open();
 			addTitle(document);
-			addTable(document);
+			addTableHeader();
+
+		} catch (DocumentException e) {
+			document.close();
+			throw wrap(e);
+		}
+	}
+
+	@Override
+	public void exportRow(HtmlRow htmlRow) {
+		if (pdfTable != null) {
+			addCells(htmlRow);
+			if (++bufferedRows == flushRows) {
+				try {
+					// Writes the completed pages and releases their rows
+					document.add(pdfTable);
+				} catch (DocumentException e) {
+					throw wrap(e);
+				}
+				bufferedRows = 0;
+			}
+		}
+	}
 
+	@Override
+	public void endExport() {
+		try {
+			if (pdfTable != null) {
+				pdfTable.setComplete(true);
+				document.add(pdfTable);
+			}
 		} catch (DocumentException e) {
-			StringBuilder sb = new StringBuilder("Something went wrong during the PDF generation of the table '");
-			sb.append(table.getOriginalId());
-			sb.append("' and with the following export configuration: ");
-			sb.append(exportConf.toString());
-			throw new ExportException(sb.toString(), e);
+			throw wrap(e);
 		} finally {
 			document.close();
+			pdfTable = null;
+		}
+	}
+
+	/**
+	 * Closes the document, releasing the rows of the incomplete table.
+	 */
+	@Override
+	public void abortExport() {
+		pdfTable = null;
+		if (document != null && document.isOpen()) {
+			try {
+				document.close();
+			} catch (RuntimeException e) {
+				logger.debug("Unable to close the aborted PDF export of the table '{}'", table.getOriginalId(), e);
+			}
 		}
 	}
 
@@ -104,43 +187,50 @@ public class PdfExport implements DatatablesExport {
 		document.add(title);
 	}
 
-	private void addTable(Document document) throws DocumentException {
-
-		PdfPCell cell = null;
+	private void addTableHeader() {
 
 		// Compute the column count in order to initialize the iText table
 		int columnCount = table.getLastHeaderRow().getColumns(ReservedFormat.ALL, ReservedFormat.PDF).size();
 
 		if (columnCount != 0) {
 
-			PdfPTable pdfTable = new PdfPTable(columnCount);
+			pdfTable = new PdfPTable(columnCount);
 			pdfTable.setWidthPercentage(100f);
+			pdfTable.setComplete(false);
 
 			// Header
 			if (exportConf != null && exportConf.getIncludeHeader()) {
 
+				int cellCount = 0;
 				for (HtmlRow htmlRow : table.getHeadRows()) {
-
-					for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.PDF)) {
-
-						cell = new PdfPCell();
-						cell.setPhrase(new Phrase(column.getContent().toString()));
-						pdfTable.addCell(cell);
-					}
-				}
-			}
-
-			for (HtmlRow htmlRow : table.getBodyRows()) {
-
-				for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.PDF)) {
-
-					cell = new PdfPCell();
-					cell.setPhrase(new Phrase(column.getContent().toString()));
-					pdfTable.addCell(cell);
+					cellCount += addCells(htmlRow);
 				}
+				// Repeated on each page
+				pdfTable.setHeaderRows(cellCount / columnCount);
 			}
+		}
+	}
 
-			document.add(pdfTable);
+	/**
+	 * @return the number of cells added.
+	 */
+	private int addCells(HtmlRow htmlRow) {
+		int cellCount = 0;
+		for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.PDF)) {
+
+			PdfPCell cell = new PdfPCell();
+			cell.setPhrase(new Phrase(column.getContent().toString()));
+			pdfTable.addCell(cell);
+			cellCount++;
 		}
+		return cellCount;
+	}
+
+	private ExportException wrap(DocumentException e) {
+		StringBuilder sb = new StringBuilder("Something went wrong during the PDF generation of the table '");
+		sb.append(table.getOriginalId());
+		sb.append("' and with the following export configuration: ");
+		sb.append(exportConf.toString());
+		return new ExportException(sb.toString(), e);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,199 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import com.github.exporthelper.core.ExcelCellStyle;
+import com.github.exporthelper.core.ReservedFormat;
+import com.github.exporthelper.core.configuration.ColumnConfig;
+import com.github.exporthelper.core.configuration.ColumnConfiguration;
+import com.github.exporthelper.core.configuration.ConfigToken;
+import com.github.exporthelper.core.html.HtmlColumn;
+import com.github.exporthelper.core.html.HtmlTable;
+
+/**
+ * <p>
+ * Creates the cell styles of a workbook, each distinct combination of an
+ * {@link ExcelCellStyle} and a data format being created only once, as are
+ * the fonts. This keeps the styled exports within the limits of the formats
+ * (4,000 styles for XLS, 64,000 for XLSX) whatever their number of cells.
+ * <p>
+ * One cache is used per workbook since the styles belong to it.
+ *
+ * @see CellValueWriter
+ * @since 1.0
+ */
+final class CellStyleCache {
+
+	private final Workbook workbook;
+	private final Map<List<Object>, CellStyle> styles = new HashMap<List<Object>, CellStyle>();
+	private final Map<List<Object>, Font> fonts = new HashMap<List<Object>, Font>();
+	private final Map<String, Short> dataFormats = new HashMap<String, Short>();
+	private DataFormat dataFormat;
+
+	CellStyleCache(Workbook workbook) {
+		this.workbook = workbook;
+	}
+
+	/**
+	 * Returns the cell style matching the passed style and data format.
+	 *
+	 * @param style
+	 *            The style of the column, or <code>null</code>.
+	 * @param defaultFormat
+	 *            The data format of the value, e.g. a date format, used if
+	 *            the style doesn't have any, or <code>null</code>.
+	 * @return the cell style, or <code>null</code> if the cell keeps the
+	 *         default one.
+	 */
+	CellStyle get(ExcelCellStyle style, String defaultFormat) {
+		String format = style != null && style.getDataFormat() != null ? style.getDataFormat() : defaultFormat;
+		if (style == null && format == null) {
+			return null;
+		}
+
+		List<Object> key = Arrays.<Object> asList(style, format);
+		CellStyle cellStyle = styles.get(key);
+		if (cellStyle == null) {
+			cellStyle = create(style, format);
+			styles.put(key, cellStyle);
+		}
+		return cellStyle;
+	}
+
+	/**
+	 * Returns the style of each column of the passed table, read from the
+	 * configuration of its last header row.
+	 *
+	 * @param token
+	 *            {@link ColumnConfig#HEADER_STYLE} or
+	 *            {@link ColumnConfig#BODY_STYLE}.
+	 * @return the styles, <code>null</code> for the columns without any.
+	 */
+	static ExcelCellStyle[] getColumnStyles(HtmlTable table, String format, ConfigToken<ExcelCellStyle> token) {
+		if (table.getLastHeaderRow() == null) {
+			return new ExcelCellStyle[0];
+		}
+		List<HtmlColumn> columns = table.getLastHeaderRow().getColumns(ReservedFormat.ALL, format);
+		ExcelCellStyle[] columnStyles = new ExcelCellStyle[columns.size()];
+		for (int i = 0; i < columnStyles.length; i++) {
+			ColumnConfiguration configuration = columns.get(i).getColumnConfiguration();
+			if (configuration != null) {
+				columnStyles[i] = token.valueFrom(configuration);
+			}
+		}
+		return columnStyles;
+	}
+
+	/**
+	 * @return the number of cell styles created.
+	 */
+	int size() {
+		return styles.size();
+	}
+
+	private CellStyle create(ExcelCellStyle style, String format) {
+		CellStyle cellStyle = workbook.createCellStyle();
+		if (format != null) {
+			cellStyle.setDataFormat(getDataFormat(format));
+		}
+		if (style == null) {
+			return cellStyle;
+		}
+
+		if (style.hasFont()) {
+			cellStyle.setFont(getFont(style));
+		}
+		if (style.getFillColor() != null) {
+			cellStyle.setFillForegroundColor(style.getFillColor());
+			cellStyle.setFillPattern(CellStyle.SOLID_FOREGROUND);
+		}
+		if (style.getAlignment() != null) {
+			switch (style.getAlignment()) {
+			case LEFT:
+				cellStyle.setAlignment(CellStyle.ALIGN_LEFT);
+				break;
+			case CENTER:
+				cellStyle.setAlignment(CellStyle.ALIGN_CENTER);
+				break;
+			case RIGHT:
+				cellStyle.setAlignment(CellStyle.ALIGN_RIGHT);
+				break;
+			}
+		}
+		return cellStyle;
+	}
+
+	private Font getFont(ExcelCellStyle style) {
+		List<Object> key = style.getFontKey();
+		Font font = fonts.get(key);
+		if (font == null) {
+			font = workbook.createFont();
+			if (style.getFontName() != null) {
+				font.setFontName(style.getFontName());
+			}
+			if (style.getFontSize() != null) {
+				font.setFontHeightInPoints(style.getFontSize());
+			}
+			if (Boolean.TRUE.equals(style.getBold())) {
+				font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+			}
+			if (Boolean.TRUE.equals(style.getItalic())) {
+				font.setItalic(true);
+			}
+			if (style.getFontColor() != null) {
+				font.setColor(style.getFontColor());
+			}
+			fonts.put(key, font);
+		}
+		return font;
+	}
+
+	private short getDataFormat(String format) {
+		Short index = dataFormats.get(format);
+		if (index == null) {
+			if (dataFormat == null) {
+				dataFormat = workbook.getCreationHelper().createDataFormat();
+			}
+			index = dataFormat.getFormat(format);
+			dataFormats.put(format, index);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAccessor;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import com.github.exporthelper.core.ExcelCellStyle;
+import com.github.exporthelper.core.html.HtmlColumn;
+
+/**
+ * <p>
+ * Writes the value of a {@link HtmlColumn} into a POI cell using the most
+ * appropriate cell type: numbers as numeric cells, dates as numeric cells
+ * with a date format, booleans as boolean cells and anything else as text.
+ * <p>
+ * Numbers that Excel cannot hold are written as text, following
+ * {@link ExcelNumbers}.
+ * <p>
+ * The cells get their style from a {@link CellStyleCache}, combining the
+ * style of their column with the date format of their value. One writer is
+ * used per workbook since the styles belong to it.
+ *
+ * @since 1.0
+ */
+class CellValueWriter {
+
+	private final CellStyleCache styles;
+	private final Calendar calendar = Calendar.getInstance();
+
+	CellValueWriter(Workbook workbook) {
+		this.styles = new CellStyleCache(workbook);
+	}
+
+	/**
+	 * Fills the passed cell with the value of the passed column.
+	 */
+	void write(Cell cell, HtmlColumn column) {
+		write(cell, column, null);
+	}
+
+	/**
+	 * Fills the passed cell with the value of the passed column.
+	 *
+	 * @param style
+	 *            The style of the column, or <code>null</code>.
+	 */
+	void write(Cell cell, HtmlColumn column, ExcelCellStyle style) {
+		Object value = column.getValue();
+		String format = null;
+
+		if (value instanceof Number) {
+			writeNumber(cell, (Number) value);
+		}
+		else if (value instanceof Boolean) {
+			cell.setCellValue((Boolean) value);
+		}
+		else if (value instanceof Date) {
+			format = writeDate(cell, (Date) value);
+		}
+		else if (value instanceof Calendar) {
+			format = writeDate(cell, ((Calendar) value).getTime());
+		}
+		else if (value instanceof TemporalAccessor) {
+			format = writeTemporal(cell, (TemporalAccessor) value);
+		}
+		else {
+			cell.setCellValue(column.getContent().toString());
+		}
+
+		CellStyle cellStyle = styles.get(style, format);
+		if (cellStyle != null) {
+			cell.setCellStyle(cellStyle);
+		}
+	}
+
+	private void writeNumber(Cell cell, Number value) {
+		Double number = ExcelNumbers.toDouble(value);
+		if (number != null) {
+			cell.setCellValue(number);
+		}
+		else {
+			cell.setCellValue(value.toString());
+		}
+	}
+
+	/**
+	 * @return the format of the date.
+	 */
+	private String writeDate(Cell cell, Date value) {
+		cell.setCellValue(value);
+		calendar.setTime(value);
+		boolean midnight = calendar.get(Calendar.HOUR_OF_DAY) == 0 && calendar.get(Calendar.MINUTE) == 0
+				&& calendar.get(Calendar.SECOND) == 0 && calendar.get(Calendar.MILLISECOND) == 0;
+		return midnight ? ExcelSerials.DATE_FORMAT : ExcelSerials.DATETIME_FORMAT;
+	}
+
+	/**
+	 * @return the format of the temporal, or <code>null</code> if it is
+	 *         written as text.
+	 */
+	private String writeTemporal(Cell cell, TemporalAccessor value) {
+		ZoneId zone = ZoneId.systemDefault();
+
+		if (value instanceof LocalDate) {
+			cell.setCellValue(Date.from(((LocalDate) value).atStartOfDay(zone).toInstant()));
+			return ExcelSerials.DATE_FORMAT;
+		}
+		else if (value instanceof LocalDateTime) {
+			cell.setCellValue(Date.from(((LocalDateTime) value).atZone(zone).toInstant()));
+			return ExcelSerials.DATETIME_FORMAT;
+		}
+		else if (value instanceof ZonedDateTime) {
+			return writeDate(cell, Date.from(((ZonedDateTime) value).toInstant()));
+		}
+		else if (value instanceof OffsetDateTime) {
+			return writeDate(cell, Date.from(((OffsetDateTime) value).toInstant()));
+		}
+		else if (value instanceof Instant) {
+			return writeDate(cell, Date.from((Instant) value));
+		}
+		else if (value instanceof LocalTime) {
+			// Excel stores a time as a fraction of a day
+			cell.setCellValue(((LocalTime) value).toNanoOfDay() / 86400e9);
+			return ExcelSerials.TIME_FORMAT;
+		}
+		else {
+			cell.setCellValue(value.toString());
+			return null;
+		}
+	}
+}
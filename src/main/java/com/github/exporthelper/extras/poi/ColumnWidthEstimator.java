@@ -0,0 +1,242 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.poi.ss.usermodel.Sheet;
+
+import com.github.exporthelper.core.ExportConf;
+import com.github.exporthelper.core.html.HtmlColumn;
+
+/**
+ * <p>
+ * Estimates the width of the columns of a sheet from the cells written in it,
+ * as an alternative to {@link Sheet#autoSizeColumn(int)} which renders each
+ * cell with the AWT fonts.
+ * <p>
+ * The width of a cell is its number of characters, East Asian wide characters
+ * counting double and combining marks not counting, the widest line being
+ * kept for multi-line cells. Typed values are measured as they are displayed,
+ * e.g. a date as <code>yyyy-mm-dd</code>. Only the first
+ * <code>sampleRows</code> rows can be measured, the next ones being ignored.
+ *
+ * @since 1.0
+ */
+final class ColumnWidthEstimator {
+
+	/**
+	 * Characters added to the widest cell, for the margins.
+	 */
+	private static final int PADDING = 2;
+
+	/**
+	 * Maximum width of a column, in characters.
+	 */
+	private static final int MAX_WIDTH = 255;
+
+	private static final int DATE_WIDTH = "yyyy-mm-dd".length();
+	private static final int DATETIME_WIDTH = "yyyy-mm-dd hh:mm:ss".length();
+	private static final int TIME_WIDTH = "hh:mm:ss".length();
+	private static final int BOOLEAN_WIDTH = "FALSE".length();
+
+	private final int sampleRows;
+	private int[] widths = new int[16];
+	private int columnCount;
+	private int rowCount;
+
+	/**
+	 * @param sampleRows
+	 *            The number of rows to measure, or 0 to measure all of them.
+	 */
+	ColumnWidthEstimator(int sampleRows) {
+		this.sampleRows = sampleRows;
+	}
+
+	/**
+	 * @return an estimator for a new sheet, or <code>null</code> if the
+	 *         passed configuration doesn't use the
+	 *         {@link ExportConf.AutoSizeStrategy#ESTIMATE} strategy.
+	 */
+	static ColumnWidthEstimator create(ExportConf exportConf) {
+		if (!exportConf.getAutoSize() || exportConf.getAutoSizeStrategy() != ExportConf.AutoSizeStrategy.ESTIMATE) {
+			return null;
+		}
+		Integer sampleRows = exportConf.getAutoSizeSampleRows();
+		return new ColumnWidthEstimator(sampleRows != null ? sampleRows : 0);
+	}
+
+	/**
+	 * @return <code>true</code> if the next row must be measured.
+	 */
+	boolean isSampling() {
+		return sampleRows <= 0 || rowCount < sampleRows;
+	}
+
+	/**
+	 * Ends the current row.
+	 */
+	void nextRow() {
+		rowCount++;
+	}
+
+	/**
+	 * Measures the passed cell of the current row.
+	 */
+	void measure(int columnIndex, HtmlColumn column) {
+		Object value = column.getValue();
+		int width;
+
+		if (value instanceof BigDecimal) {
+			width = ((BigDecimal) value).toPlainString().length();
+		}
+		else if (value instanceof Number) {
+			width = value.toString().length();
+		}
+		else if (value instanceof Boolean) {
+			width = BOOLEAN_WIDTH;
+		}
+		else if (value instanceof Date || value instanceof Calendar) {
+			width = DATETIME_WIDTH;
+		}
+		else if (value instanceof LocalDate) {
+			width = DATE_WIDTH;
+		}
+		else if (value instanceof LocalTime) {
+			width = TIME_WIDTH;
+		}
+		else if (value instanceof TemporalAccessor) {
+			width = DATETIME_WIDTH;
+		}
+		else {
+			width = getDisplayWidth(column.getContent());
+		}
+		measure(columnIndex, width);
+	}
+
+	/**
+	 * Records a cell of the passed width, in characters.
+	 */
+	void measure(int columnIndex, int width) {
+		if (columnIndex >= widths.length) {
+			widths = Arrays.copyOf(widths, Math.max(columnIndex + 1, widths.length * 2));
+		}
+		if (columnIndex >= columnCount) {
+			columnCount = columnIndex + 1;
+		}
+		if (width > widths[columnIndex]) {
+			widths[columnIndex] = width;
+		}
+	}
+
+	/**
+	 * @return the number of columns measured so far.
+	 */
+	int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * @return the width of the passed column, in characters, margins
+	 *         included.
+	 */
+	int getWidth(int columnIndex) {
+		int width = columnIndex < columnCount ? widths[columnIndex] : 0;
+		return Math.min(MAX_WIDTH, width + PADDING);
+	}
+
+	/**
+	 * Sets the estimated widths on the passed sheet.
+	 */
+	void apply(Sheet sheet) {
+		for (int i = 0; i < columnCount; i++) {
+			sheet.setColumnWidth(i, getWidth(i) * 256);
+		}
+	}
+
+	/**
+	 * @return the number of columns the passed text takes once displayed.
+	 */
+	static int getDisplayWidth(CharSequence text) {
+		int max = 0;
+		int width = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			int codePoint = c;
+			if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+				codePoint = Character.toCodePoint(c, text.charAt(++i));
+			}
+
+			if (codePoint == '\n') {
+				max = Math.max(max, width);
+				width = 0;
+			}
+			else {
+				width += getCharWidth(codePoint);
+			}
+		}
+		return Math.max(max, width);
+	}
+
+	private static int getCharWidth(int codePoint) {
+		if (codePoint < 0x300) {
+			// Latin, the most frequent case
+			return codePoint < 0x20 ? 0 : 1;
+		}
+
+		int type = Character.getType(codePoint);
+		if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK || type == Character.FORMAT) {
+			return 0;
+		}
+		return isWide(codePoint) ? 2 : 1;
+	}
+
+	/**
+	 * @return <code>true</code> for the East Asian wide and fullwidth
+	 *         characters.
+	 */
+	private static boolean isWide(int codePoint) {
+		return (codePoint >= 0x1100 && codePoint <= 0x115F) // Hangul Jamo
+				|| (codePoint >= 0x2E80 && codePoint <= 0xA4CF && codePoint != 0x303F) // CJK, Kana, Yi
+				|| (codePoint >= 0xAC00 && codePoint <= 0xD7A3) // Hangul syllables
+				|| (codePoint >= 0xF900 && codePoint <= 0xFAFF) // CJK compatibility ideographs
+				|| (codePoint >= 0xFE30 && codePoint <= 0xFE4F) // CJK compatibility forms
+				|| (codePoint >= 0xFF00 && codePoint <= 0xFF60) // Fullwidth forms
+				|| (codePoint >= 0xFFE0 && codePoint <= 0xFFE6) // Fullwidth signs
+				|| (codePoint >= 0x1F300 && codePoint <= 0x1F64F) // Emoji
+				|| (codePoint >= 0x20000 && codePoint <= 0x3FFFD); // CJK extensions
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * <p>
+ * Decides how the numbers are written in the Excel exports, whatever the
+ * engine: as numeric cells when Excel can hold them, as text otherwise.
+ * <p>
+ * Excel keeps 15 significant digits and numbers between
+ * {@link Double#MIN_NORMAL} and 9.99999999999999E+307 in absolute value. The
+ * longs, big integers and big decimals with more digits, the numbers out of
+ * that range, the NaN and the custom {@link Number} implementations are
+ * written as text. A float is written with its decimal value, 0.1f as 0.1,
+ * instead of its binary one.
+ *
+ * @see CellValueWriter
+ * @see XlsxPackageWriter
+ * @see XlsRecordWriter
+ * @since 1.0
+ */
+final class ExcelNumbers {
+
+	/**
+	 * Number of significant digits kept by Excel.
+	 */
+	private static final int MAX_PRECISION = 15;
+
+	/**
+	 * Largest number Excel can hold.
+	 */
+	private static final double MAX_VALUE = 9.99999999999999E307;
+
+	/**
+	 * Largest integer written without exponent in the XLSX files.
+	 */
+	private static final double MAX_PLAIN_INTEGER = 1E15;
+
+	/**
+	 * Prevent instantiation.
+	 */
+	private ExcelNumbers() {
+	}
+
+	/**
+	 * @return the value of the numeric cell, or <code>null</code> if the number
+	 *         must be written as text.
+	 */
+	static Double toDouble(Number value) {
+		double d;
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte || value instanceof Double) {
+			d = value.doubleValue();
+		}
+		else if (value instanceof Float) {
+			d = Double.parseDouble(value.toString());
+		}
+		else if (value instanceof Long || value instanceof BigInteger || value instanceof BigDecimal) {
+			BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+			if (decimal.precision() > MAX_PRECISION) {
+				return null;
+			}
+			d = decimal.doubleValue();
+			if (d == 0 && decimal.signum() != 0) {
+				// Too small, not to be written as 0
+				return null;
+			}
+		}
+		else {
+			// AtomicLong, LongAdder... or any custom number
+			return null;
+		}
+
+		double abs = Math.abs(d);
+		if (Double.isNaN(d) || abs > MAX_VALUE || (abs < Double.MIN_NORMAL && d != 0)) {
+			return null;
+		}
+		return d;
+	}
+
+	/**
+	 * @return the text of the value of a numeric cell in the XLSX files.
+	 */
+	static String toText(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < MAX_PLAIN_INTEGER) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+}
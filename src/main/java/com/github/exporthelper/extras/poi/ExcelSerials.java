@@ -0,0 +1,134 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * Converts the dates into Excel serial numbers, i.e. the number of days since
+ * 1899-12-30 in the default time zone, along with the format they are
+ * displayed with, for the writers not using the POI object model.
+ * <p>
+ * A converter holds the result of the last conversion and is not
+ * thread-safe.
+ *
+ * @see XlsxPackageWriter
+ * @see XlsRecordWriter
+ * @since 1.0
+ */
+final class ExcelSerials {
+
+	static final String DATE_FORMAT = "yyyy-mm-dd";
+	static final String DATETIME_FORMAT = "yyyy-mm-dd hh:mm:ss";
+	static final String TIME_FORMAT = "hh:mm:ss";
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	/**
+	 * Days between the Excel epoch (1899-12-30) and the Java one.
+	 */
+	private static final long EPOCH_OFFSET = 25569;
+
+	private final TimeZone timeZone = TimeZone.getDefault();
+	private double serial;
+	private String format;
+
+	/**
+	 * Converts the passed value, if it is a date, a time or a date-time.
+	 *
+	 * @return <code>false</code> if the value must be written as text.
+	 */
+	boolean convert(Object value) {
+		if (value instanceof Date) {
+			convert(((Date) value).getTime());
+		}
+		else if (value instanceof Calendar) {
+			convert(((Calendar) value).getTimeInMillis());
+		}
+		else if (value instanceof LocalDate) {
+			serial = ((LocalDate) value).toEpochDay() + EPOCH_OFFSET;
+			format = DATE_FORMAT;
+		}
+		else if (value instanceof LocalDateTime) {
+			LocalDateTime dateTime = (LocalDateTime) value;
+			serial = dateTime.toLocalDate().toEpochDay() + EPOCH_OFFSET + dateTime.toLocalTime().toNanoOfDay()
+					/ 86400e9;
+			format = DATETIME_FORMAT;
+		}
+		else if (value instanceof ZonedDateTime) {
+			convert(((ZonedDateTime) value).toInstant().toEpochMilli());
+		}
+		else if (value instanceof OffsetDateTime) {
+			convert(((OffsetDateTime) value).toInstant().toEpochMilli());
+		}
+		else if (value instanceof Instant) {
+			convert(((Instant) value).toEpochMilli());
+		}
+		else if (value instanceof LocalTime) {
+			// Excel stores a time as a fraction of a day
+			serial = ((LocalTime) value).toNanoOfDay() / 86400e9;
+			format = TIME_FORMAT;
+		}
+		else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the serial number of the last converted value.
+	 */
+	double getSerial() {
+		return serial;
+	}
+
+	/**
+	 * @return the format of the last converted value, a date format for the
+	 *         instants at midnight and a date-time one otherwise.
+	 */
+	String getFormat() {
+		return format;
+	}
+
+	private void convert(long millis) {
+		long localMillis = millis + timeZone.getOffset(millis);
+		serial = (double) localMillis / MILLIS_PER_DAY + EPOCH_OFFSET;
+		format = Math.floorMod(localMillis, MILLIS_PER_DAY) == 0 ? DATE_FORMAT : DATETIME_FORMAT;
+	}
+}
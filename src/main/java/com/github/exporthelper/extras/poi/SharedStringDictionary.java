@@ -0,0 +1,380 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Deduplicated table of the strings of an XLSX file, each distinct string
+ * being given the index under which it is referenced by the cells.
+ * <p>
+ * The distinct strings are appended to a temporary file as they are added.
+ * The first ones are looked up in an in-memory map; once it holds
+ * <code>memoryCapacity</code> strings, the next ones are looked up in an
+ * on-disk hash table, so that the heap used doesn't depend on the number of
+ * distinct strings.
+ * <p>
+ * A dictionary is not thread-safe and must be closed to delete its temporary
+ * files.
+ *
+ * @see XlsxPackageWriter
+ * @since 1.0
+ */
+final class SharedStringDictionary implements Closeable {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(SharedStringDictionary.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Each slot of the on-disk table holds the hash of the string (int), its
+	 * index (int) and the offset of its record in the data file (long).
+	 */
+	private static final int SLOT_SIZE = 16;
+	private static final int INITIAL_SLOTS = 1 << 16;
+
+	private final int memoryCapacity;
+	private final Map<String, Integer> memory = new HashMap<String, Integer>();
+
+	/**
+	 * The distinct strings, in index order, as length-prefixed UTF-8 records.
+	 */
+	private File dataFile;
+	private FileChannel data;
+	private final ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+	private long flushedSize;
+
+	private File slotsFile;
+	private FileChannel slots;
+	private int slotCount;
+	private int diskCount;
+	private final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+	private final ByteBuffer slotWrite = ByteBuffer.allocate(SLOT_SIZE);
+	private ByteBuffer record = ByteBuffer.allocate(256);
+
+	private int uniqueCount;
+	private long referenceCount;
+
+	/**
+	 * @param memoryCapacity
+	 *            The number of distinct strings looked up in memory.
+	 */
+	SharedStringDictionary(int memoryCapacity) {
+		this.memoryCapacity = memoryCapacity;
+	}
+
+	/**
+	 * Returns the index of the passed string, adding it if needed.
+	 */
+	int indexOf(String value) throws IOException {
+		referenceCount++;
+		Integer index = memory.get(value);
+		if (index != null) {
+			return index;
+		}
+
+		byte[] bytes = value.getBytes(UTF_8);
+		if (memory.size() < memoryCapacity) {
+			index = append(bytes);
+			memory.put(value, index);
+			return index;
+		}
+		return indexOnDisk(value.hashCode(), bytes);
+	}
+
+	/**
+	 * @return the number of distinct strings.
+	 */
+	int getUniqueCount() {
+		return uniqueCount;
+	}
+
+	/**
+	 * @return the number of strings looked up, i.e. the number of cells
+	 *         referencing the table.
+	 */
+	long getReferenceCount() {
+		return referenceCount;
+	}
+
+	/**
+	 * Writes the <code>si</code> element of each string, in index order.
+	 */
+	void writeItems(final Appendable output) throws IOException {
+		readItems(new ItemHandler() {
+			@Override
+			public void handle(String value) throws IOException {
+				output.append("<si><t xml:space=\"preserve\">");
+				XlsxPackageWriter.appendEscaped(output, value);
+				output.append("</t></si>");
+			}
+		});
+	}
+
+	/**
+	 * Reads the strings back from the temporary file, in index order.
+	 */
+	void readItems(ItemHandler handler) throws IOException {
+		if (data == null) {
+			return;
+		}
+		flush();
+
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile), 64 * 1024));
+		try {
+			byte[] bytes = new byte[256];
+			for (int i = 0; i < uniqueCount; i++) {
+				int length = input.readInt();
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				input.readFully(bytes, 0, length);
+				handler.handle(new String(bytes, 0, length, UTF_8));
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		memory.clear();
+		closeQuietly(data, dataFile);
+		closeQuietly(slots, slotsFile);
+		data = null;
+		slots = null;
+	}
+
+	private int append(byte[] bytes) throws IOException {
+		if (data == null) {
+			dataFile = File.createTempFile("exporthelper-sst", ".bin");
+			data = new RandomAccessFile(dataFile, "rw").getChannel();
+		}
+		if (writeBuffer.remaining() < 4 + bytes.length) {
+			flush();
+		}
+		if (writeBuffer.remaining() < 4 + bytes.length) {
+			// Larger than the buffer
+			ByteBuffer large = ByteBuffer.allocate(4 + bytes.length);
+			large.putInt(bytes.length).put(bytes).flip();
+			writeFully(large, flushedSize);
+			flushedSize += large.capacity();
+		}
+		else {
+			writeBuffer.putInt(bytes.length).put(bytes);
+		}
+		return uniqueCount++;
+	}
+
+	private void flush() throws IOException {
+		writeBuffer.flip();
+		int size = writeBuffer.remaining();
+		writeFully(writeBuffer, flushedSize);
+		flushedSize += size;
+		writeBuffer.clear();
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += data.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Looks the string up in the on-disk table, using linear probing.
+	 */
+	private int indexOnDisk(int hash, byte[] bytes) throws IOException {
+		if (slots == null) {
+			slotsFile = File.createTempFile("exporthelper-sst", ".idx");
+			slots = new RandomAccessFile(slotsFile, "rw").getChannel();
+			slotCount = INITIAL_SLOTS;
+		}
+
+		int mask = slotCount - 1;
+		for (int i = mix(hash) & mask;; i = (i + 1) & mask) {
+			readSlot(slots, i);
+			long offset = slot.getLong(8);
+			if (offset == 0) {
+				// Offsets are stored plus one so that 0 means empty
+				long recordOffset = flushedSize + writeBuffer.position();
+				int index = append(bytes);
+				writeSlot(slots, i, hash, index, recordOffset + 1);
+				if (++diskCount > slotCount / 2) {
+					grow();
+				}
+				return index;
+			}
+			if (slot.getInt(0) == hash && equalsRecord(offset - 1, bytes)) {
+				return slot.getInt(4);
+			}
+		}
+	}
+
+	private boolean equalsRecord(long offset, byte[] bytes) throws IOException {
+		byte[] stored;
+		int start;
+		if (offset >= flushedSize) {
+			// The write buffer only holds whole records, compared in place
+			stored = writeBuffer.array();
+			start = (int) (offset - flushedSize);
+		}
+		else {
+			if (record.capacity() < 4 + bytes.length) {
+				record = ByteBuffer.allocate(4 + bytes.length);
+			}
+			record.clear();
+			record.limit(4 + bytes.length);
+			long position = offset;
+			while (record.hasRemaining()) {
+				int read = data.read(record, position);
+				if (read < 0) {
+					return false;
+				}
+				position += read;
+			}
+			stored = record.array();
+			start = 0;
+		}
+
+		if (ByteBuffer.wrap(stored, start, 4).getInt() != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (stored[start + 4 + i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Doubles the number of slots, moving the entries into a new file.
+	 */
+	private void grow() throws IOException {
+		File newFile = File.createTempFile("exporthelper-sst", ".idx");
+		FileChannel newSlots = new RandomAccessFile(newFile, "rw").getChannel();
+		int newCount = slotCount * 2;
+		int mask = newCount - 1;
+
+		for (int i = 0; i < slotCount; i++) {
+			readSlot(slots, i);
+			if (slot.getLong(8) == 0) {
+				continue;
+			}
+			// Copied since the slot buffer is reused to probe the new table
+			int hash = slot.getInt(0);
+			int index = slot.getInt(4);
+			long offset = slot.getLong(8);
+			for (int j = mix(hash) & mask;; j = (j + 1) & mask) {
+				readSlot(newSlots, j);
+				if (slot.getLong(8) == 0) {
+					writeSlot(newSlots, j, hash, index, offset);
+					break;
+				}
+			}
+		}
+
+		closeQuietly(slots, slotsFile);
+		slots = newSlots;
+		slotsFile = newFile;
+		slotCount = newCount;
+	}
+
+	/**
+	 * Reads the passed slot into {@link #slot}, an unwritten slot being read
+	 * as empty.
+	 */
+	private void readSlot(FileChannel channel, int i) throws IOException {
+		slot.clear();
+		long position = (long) i * SLOT_SIZE;
+		while (slot.hasRemaining()) {
+			int read = channel.read(slot, position + slot.position());
+			if (read < 0) {
+				while (slot.hasRemaining()) {
+					slot.put((byte) 0);
+				}
+			}
+		}
+	}
+
+	private void writeSlot(FileChannel channel, int i, int hash, int index, long offset) throws IOException {
+		slotWrite.clear();
+		slotWrite.putInt(hash).putInt(index).putLong(offset).flip();
+		long position = (long) i * SLOT_SIZE;
+		while (slotWrite.hasRemaining()) {
+			position += channel.write(slotWrite, position);
+		}
+	}
+
+	/**
+	 * Spreads the bits of the string hash codes, which are poorly distributed
+	 * in their low bits.
+	 */
+	private static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static void closeQuietly(FileChannel channel, File file) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Unable to close {}", file);
+			}
+		}
+		if (file != null && !file.delete() && file.exists()) {
+			logger.warn("Unable to delete the temporary file {}", file);
+		}
+	}
+
+	/**
+	 * Receives the strings of a dictionary, in index order.
+	 */
+	interface ItemHandler {
+		void handle(String value) throws IOException;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.SpreadsheetVersion;
+
+import com.github.exporthelper.core.ExportConf;
+import com.github.exporthelper.core.exception.ExportException;
+
+/**
+ * <p>
+ * Helpers shared by the Excel exports to spread the rows over several sheets.
+ * <p>
+ * Once a sheet holds the maximum number of rows, the export continues on a
+ * new sheet, starting with the header rows again. The sheets are named after
+ * the file: <code>name</code>, <code>name (2)</code>, <code>name (3)</code>...
+ *
+ * @since 1.0
+ */
+final class Sheets {
+
+	private static final int MAX_NAME_LENGTH = 31;
+
+	private Sheets() {
+	}
+
+	/**
+	 * @param name
+	 *            The base name of the sheets, usually the file name.
+	 * @param number
+	 *            The number of the sheet, starting from 1.
+	 * @return a name Excel accepts: at most 31 characters, none of
+	 *         <code>[]:*?/\</code>, not blank, the suffix of the number
+	 *         being kept whole.
+	 */
+	static String getName(String name, int number) {
+		String cleaned = name == null || name.trim().isEmpty() ? "Sheet" : name.replaceAll("[\\[\\]:*?/\\\\]", "_");
+		if (cleaned.startsWith("'")) {
+			cleaned = "_" + cleaned.substring(1);
+		}
+
+		String suffix = number > 1 ? " (" + number + ")" : "";
+		int maxLength = MAX_NAME_LENGTH - suffix.length();
+		if (cleaned.length() > maxLength) {
+			cleaned = StringUtils.stripEnd(cleaned.substring(0, maxLength), null);
+		}
+		return cleaned + suffix;
+	}
+
+	/**
+	 * @param exportConf
+	 *            The export configuration, possibly setting a lower limit.
+	 * @param version
+	 *            The file format, setting the upper limit.
+	 * @param headerRows
+	 *            The number of header rows repeated on each sheet.
+	 * @return the number of rows, header included, of each sheet.
+	 * @throws ExportException
+	 *             if a sheet cannot hold more than the header rows.
+	 */
+	static int getMaxRows(ExportConf exportConf, SpreadsheetVersion version, int headerRows) {
+		int maxRows = version.getMaxRows();
+		if (exportConf.getMaxRowsPerSheet() != null && exportConf.getMaxRowsPerSheet() > 0) {
+			maxRows = Math.min(maxRows, exportConf.getMaxRowsPerSheet());
+		}
+		if (maxRows <= headerRows) {
+			throw new ExportException("The sheets of the " + exportConf.getFormat() + " export must hold more than "
+					+ headerRows + " rows to fit the header and at least one body row");
+		}
+		return maxRows;
+	}
+}
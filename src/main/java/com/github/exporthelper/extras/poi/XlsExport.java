@@ -33,26 +33,59 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import com.github.exporthelper.core.DatatablesExport;
+import com.github.exporthelper.core.DatatablesStreamingExport;
+import com.github.exporthelper.core.ExcelCellStyle;
 import com.github.exporthelper.core.ExportConf;
 import com.github.exporthelper.core.ReservedFormat;
+import com.github.exporthelper.core.configuration.ColumnConfig;
 import com.github.exporthelper.core.exception.ExportException;
 import com.github.exporthelper.core.html.HtmlColumn;
 import com.github.exporthelper.core.html.HtmlRow;
 import com.github.exporthelper.core.html.HtmlTable;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 
 /**
+ * <p>
  * Default Excel export class.
+ * <p>
+ * The export continues on a new sheet, starting with the header again, once
+ * a sheet holds {@link ExportConf#getMaxRowsPerSheet()} rows or the 65,536
+ * rows allowed by the format.
+ * <p>
+ * With the {@link ExportConf.AutoSizeStrategy#ESTIMATE} strategy, the widths
+ * of the columns are estimated while the rows are written instead of being
+ * computed with the fonts at the end of each sheet.
+ * <p>
+ * With the {@link ExportConf.Engine#STREAMING} or
+ * {@link ExportConf.Engine#DIRECT} engine, POI's workbook model is not used:
+ * the cells are written as BIFF8 records into a temporary file of the
+ * <code>java.io.tmpdir</code> directory and the strings into a shared table
+ * spilling to disk after {@link ExportConf#getSharedStringsInMemory()}
+ * entries, so that the memory used doesn't grow with the rows. The columns are
+ * then always auto-sized by estimation, from all the rows or from the first
+ * {@link ExportConf#getAutoSizeSampleRows()} ones.
  * 
  * @author Thibault Duchateau
  */
-public class XlsExport implements DatatablesExport {
+public class XlsExport implements DatatablesExport, DatatablesStreamingExport {
 
 	private HtmlTable table;
 	private ExportConf exportConf;
+	private OutputStream output;
+	private HSSFWorkbook workbook;
+	private HSSFSheet sheet;
+	private CellValueWriter cellValueWriter;
+	private XlsRecordWriter recordWriter;
+	private ExcelCellStyle[] headerStyles;
+	private ExcelCellStyle[] bodyStyles;
+	private ColumnWidthEstimator columnWidths;
+	private int rowIndex;
+	private int maxRows;
+	private int sheetCount;
 
 	@Override
 	public void initExport(HtmlTable table) {
@@ -63,59 +96,164 @@ public class XlsExport implements DatatablesExport {
 
 	@Override
 	public void processExport(OutputStream output) {
-
+		beginExport(table, output);
 		try {
-			HSSFWorkbook workbook = new HSSFWorkbook();
-			HSSFSheet sheet = workbook.createSheet(exportConf.getFileName());
-			Row row = null;
-			Cell cell = null;
-			int rowIndex = 0;
-			int columnIndex;
-			// title
-			table.getCaption();
-
-			// Header
-			if (exportConf.getIncludeHeader()) {
-
-				for (HtmlRow htmlRow : table.getHeadRows()) {
-
-					row = sheet.createRow(rowIndex++);
-					columnIndex = 0;
-
-					for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.XLS)) {
-						cell = row.createCell(columnIndex++);
-						cell.setCellValue(column.getContent().toString());
-					}
-				}
+			for (HtmlRow htmlRow : table.getBodyRows()) {
+				exportRow(htmlRow);
 			}
+		} catch (RuntimeException e) {
+			abortExport();
+			throw e;
+		}
+		endExport();
+	}
 
-			// Body
-			for (HtmlRow htmlRow : table.getBodyRows()) {
+	@Override
+	public void beginExport(HtmlTable table, OutputStream output) {
+		initExport(table);
+		this.output = output;
+		this.maxRows = Sheets.getMaxRows(exportConf, SpreadsheetVersion.EXCEL97,
+				exportConf.getIncludeHeader() ? table.getHeadRows().size() : 0);
+		this.sheetCount = 0;
+		this.headerStyles = CellStyleCache.getColumnStyles(table, ReservedFormat.XLS, ColumnConfig.HEADER_STYLE);
+		this.bodyStyles = CellStyleCache.getColumnStyles(table, ReservedFormat.XLS, ColumnConfig.BODY_STYLE);
+
+		if (exportConf.getEngine() == ExportConf.Engine.USER_MODEL) {
+			this.workbook = new HSSFWorkbook();
+			this.cellValueWriter = new CellValueWriter(workbook);
+		}
+		else {
+			Integer sampleRows = exportConf.getAutoSizeSampleRows();
+			this.recordWriter = new XlsRecordWriter(output, new SharedStringDictionary(
+					exportConf.getSharedStringsInMemory()), exportConf.getAutoSize(), sampleRows != null
+					&& sampleRows > 0 ? sampleRows : 0);
+		}
+
+		beginSheet();
+	}
+
+	@Override
+	public void exportRow(HtmlRow htmlRow) {
+		if (rowIndex == maxRows) {
+			beginSheet();
+		}
+		writeRow(htmlRow, bodyStyles);
+	}
 
-				row = sheet.createRow(rowIndex++);
-				columnIndex = 0;
+	/**
+	 * Starts a new sheet with the header rows, completing the current one if
+	 * any.
+	 */
+	private void beginSheet() {
+		String name = Sheets.getName(exportConf.getFileName(), ++sheetCount);
+		if (recordWriter != null) {
+			try {
+				recordWriter.beginSheet(name);
+			} catch (IOException e) {
+				throw wrap(e);
+			}
+		}
+		else {
+			if (sheet != null) {
+				autoSizeColumns();
+			}
+			this.sheet = workbook.createSheet(name);
+			this.columnWidths = ColumnWidthEstimator.create(exportConf);
+		}
+		this.rowIndex = 0;
 
-				for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.XLS)) {
-					cell = row.createCell(columnIndex++);
-					cell.setCellValue(column.getContent().toString());
-				}
+		// Header
+		if (exportConf.getIncludeHeader()) {
+			for (HtmlRow htmlRow : table.getHeadRows()) {
+				writeRow(htmlRow, headerStyles);
 			}
+		}
+	}
 
-			// Column auto-sizing
-			for (columnIndex = 0; columnIndex < table.getLastHeaderRow().getColumns(ReservedFormat.ALL, ReservedFormat.XLS).size(); columnIndex++) {
-				if (exportConf.getAutoSize()) {
-					sheet.autoSizeColumn(columnIndex);
-				}
+	private void writeRow(HtmlRow htmlRow, ExcelCellStyle[] styles) {
+		if (recordWriter != null) {
+			try {
+				recordWriter.writeRow(htmlRow, styles);
+			} catch (IOException e) {
+				throw wrap(e);
 			}
+			rowIndex++;
+			return;
+		}
 
-			workbook.write(output);
+		Row row = sheet.createRow(rowIndex++);
+		boolean measured = columnWidths != null && columnWidths.isSampling();
+		int columnIndex = 0;
 
+		for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.XLS)) {
+			if (measured) {
+				columnWidths.measure(columnIndex, column);
+			}
+			Cell cell = row.createCell(columnIndex);
+			cellValueWriter.write(cell, column, columnIndex < styles.length ? styles[columnIndex] : null);
+			columnIndex++;
+		}
+		if (columnWidths != null) {
+			columnWidths.nextRow();
+		}
+	}
+
+	private void autoSizeColumns() {
+		if (!exportConf.getAutoSize()) {
+			return;
+		}
+		if (columnWidths != null) {
+			columnWidths.apply(sheet);
+			return;
+		}
+
+		// Column auto-sizing
+		for (int columnIndex = 0; columnIndex < table.getLastHeaderRow().getColumns(ReservedFormat.ALL, ReservedFormat.XLS).size(); columnIndex++) {
+			sheet.autoSizeColumn(columnIndex);
+		}
+	}
+
+	@Override
+	public void endExport() {
+
+		try {
+			if (recordWriter != null) {
+				recordWriter.finish();
+				return;
+			}
+			autoSizeColumns();
+			workbook.write(output);
 		} catch (IOException e) {
-			StringBuilder sb = new StringBuilder("Something went wrong during the XLS generation of the table '");
-			sb.append(table.getOriginalId());
-			sb.append("' and with the following export configuration: ");
-			sb.append(exportConf.toString());
-			throw new ExportException(sb.toString(), e);
+			throw wrap(e);
+		} finally {
+			dispose();
 		}
 	}
+
+	@Override
+	public void abortExport() {
+		dispose();
+	}
+
+	/**
+	 * Deletes the temporary files of the record writer.
+	 */
+	private void dispose() {
+		if (recordWriter != null) {
+			recordWriter.close();
+		}
+		workbook = null;
+		sheet = null;
+		cellValueWriter = null;
+		recordWriter = null;
+		columnWidths = null;
+	}
+
+	private ExportException wrap(IOException e) {
+		StringBuilder sb = new StringBuilder("Something went wrong during the XLS generation of the table '");
+		sb.append(table.getOriginalId());
+		sb.append("' and with the following export configuration: ");
+		sb.append(exportConf.toString());
+		return new ExportException(sb.toString(), e);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,877 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.poifs.filesystem.POIFSWriterEvent;
+import org.apache.poi.poifs.filesystem.POIFSWriterListener;
+import org.apache.poi.util.LittleEndianOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.exporthelper.core.ExcelCellStyle;
+import com.github.exporthelper.core.ReservedFormat;
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.html.HtmlColumn;
+import com.github.exporthelper.core.html.HtmlRow;
+
+/**
+ * <p>
+ * Writes an XLS file directly as BIFF8 records, without the POI object model.
+ * <p>
+ * The cells are converted into records as soon as the rows are received and
+ * appended to a temporary file, by blocks of 32 rows each preceded by the ROW
+ * records of its rows. The strings are stored once in a
+ * {@link SharedStringDictionary}, which itself spills to disk. Once the last
+ * row is received, the workbook globals (fonts, formats, cell formats, sheets
+ * and shared strings table) and then the sheets are streamed into the
+ * <code>Workbook</code> stream of an OLE2 container, so that the memory used
+ * doesn't depend on the number of rows.
+ * <p>
+ * Since the column widths are written once the rows are known, the columns
+ * can be sized with a {@link ColumnWidthEstimator} on all the rows.
+ *
+ * @see XlsExport
+ * @since 1.0
+ */
+final class XlsRecordWriter implements Closeable {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(XlsRecordWriter.class);
+
+	private static final int BOF = 0x0809;
+	private static final int EOF = 0x000A;
+	private static final int CODEPAGE = 0x0042;
+	private static final int WINDOW1 = 0x003D;
+	private static final int DATEMODE = 0x0022;
+	private static final int FONT = 0x0031;
+	private static final int FORMAT = 0x041E;
+	private static final int XF = 0x00E0;
+	private static final int STYLE = 0x0293;
+	private static final int BOUNDSHEET = 0x0085;
+	private static final int SST = 0x00FC;
+	private static final int CONTINUE = 0x003C;
+	private static final int EXTSST = 0x00FF;
+	private static final int COLINFO = 0x007D;
+	private static final int DIMENSIONS = 0x0200;
+	private static final int ROW = 0x0208;
+	private static final int NUMBER = 0x0203;
+	private static final int BOOLERR = 0x0205;
+	private static final int LABELSST = 0x00FD;
+	private static final int WINDOW2 = 0x023E;
+
+	private static final int BOF_SIZE = 20;
+	private static final int EOF_SIZE = 4;
+	private static final int COLINFO_SIZE = 16;
+	private static final int DIMENSIONS_SIZE = 18;
+	private static final int WINDOW2_SIZE = 22;
+
+	/**
+	 * Maximum size of the data of a record, the longer ones being continued
+	 * in CONTINUE records.
+	 */
+	private static final int MAX_RECORD_DATA = 8224;
+
+	private static final int ROWS_PER_BLOCK = 32;
+	private static final int MAX_COLUMNS = 256;
+	private static final int MAX_TEXT_LENGTH = 32767;
+
+	/**
+	 * Smaller streams would be stored in the mini stream of the container,
+	 * which Excel doesn't read the workbook from.
+	 */
+	private static final int MIN_STREAM_SIZE = 4096;
+
+	/**
+	 * The default cell format, after the 15 style ones.
+	 */
+	private static final int DEFAULT_XF = 15;
+
+	/**
+	 * The lower ids are those of the built-in number formats.
+	 */
+	private static final int FIRST_CUSTOM_FORMAT = 164;
+
+	private static final String DEFAULT_FONT_NAME = "Arial";
+	private static final int DEFAULT_FONT_SIZE = 10;
+
+	private final OutputStream output;
+	private final SharedStringDictionary sharedStrings;
+	private final boolean autoSize;
+	private final int autoSizeSampleRows;
+	private final ExcelSerials serials = new ExcelSerials();
+	private final List<SheetData> sheets = new ArrayList<SheetData>();
+
+	// Styles, the fonts and formats being interned like the cell formats
+	private final Map<List<Object>, Integer> cellFormats = new HashMap<List<Object>, Integer>();
+	private final List<ExcelCellStyle> cellFormatStyles = new ArrayList<ExcelCellStyle>();
+	private final List<String> cellFormatFormats = new ArrayList<String>();
+	private final Map<List<Object>, Integer> fonts = new HashMap<List<Object>, Integer>();
+	private final List<ExcelCellStyle> fontStyles = new ArrayList<ExcelCellStyle>();
+	private final Map<String, Integer> formats = new HashMap<String, Integer>();
+	private final List<String> formatCodes = new ArrayList<String>();
+
+	private File cellsFile;
+	private CountingOutputStream cellsCounter;
+	private LittleEndianOutputStream cells;
+
+	// Cells of the current block of rows
+	private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+	private final LittleEndianOutputStream block = new LittleEndianOutputStream(blockBytes);
+	private final int[] blockColumnCounts = new int[ROWS_PER_BLOCK];
+	private int blockFirstRow;
+	private int blockRowCount;
+
+	private SheetData sheet;
+	private File sstFile;
+
+	/**
+	 * @param output
+	 *            The stream to fill. It is not closed by the writer.
+	 * @param sharedStrings
+	 *            The table of the strings. It is closed along with the
+	 *            writer.
+	 * @param autoSize
+	 *            <code>true</code> to size the columns.
+	 * @param autoSizeSampleRows
+	 *            The number of rows of each sheet the column widths are
+	 *            estimated on, or 0 for all of them.
+	 */
+	XlsRecordWriter(OutputStream output, SharedStringDictionary sharedStrings, boolean autoSize,
+			int autoSizeSampleRows) {
+		this.output = output;
+		this.sharedStrings = sharedStrings;
+		this.autoSize = autoSize;
+		this.autoSizeSampleRows = autoSizeSampleRows;
+	}
+
+	/**
+	 * Starts a new sheet, completing the current one if any.
+	 *
+	 * @param name
+	 *            The name of the sheet, as returned by
+	 *            {@link Sheets#getName(String, int)}.
+	 */
+	void beginSheet(String name) throws IOException {
+		if (cells == null) {
+			cellsFile = File.createTempFile("exporthelper-xls", ".bin");
+			cellsCounter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(cellsFile),
+					64 * 1024));
+			cells = new LittleEndianOutputStream(cellsCounter);
+		}
+		if (sheet != null) {
+			endSheet();
+		}
+
+		sheet = new SheetData(name, cellsCounter.getByteCount());
+		if (autoSize) {
+			sheet.columnWidths = new ColumnWidthEstimator(autoSizeSampleRows);
+		}
+		sheets.add(sheet);
+	}
+
+	/**
+	 * @param styles
+	 *            The style of each column, <code>null</code> for the columns
+	 *            without any.
+	 */
+	void writeRow(HtmlRow htmlRow, ExcelCellStyle[] styles) throws IOException {
+		if (blockRowCount == 0) {
+			blockFirstRow = sheet.rowCount;
+		}
+
+		ColumnWidthEstimator columnWidths = sheet.columnWidths;
+		boolean measured = columnWidths != null && columnWidths.isSampling();
+		int columnIndex = 0;
+		for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.XLS)) {
+			if (columnIndex == MAX_COLUMNS) {
+				throw new ExportException("The XLS format is limited to " + MAX_COLUMNS + " columns");
+			}
+			if (measured) {
+				columnWidths.measure(columnIndex, column);
+			}
+			writeCell(sheet.rowCount, columnIndex, column, columnIndex < styles.length ? styles[columnIndex] : null);
+			columnIndex++;
+		}
+		if (columnWidths != null) {
+			columnWidths.nextRow();
+		}
+
+		sheet.columnCount = Math.max(sheet.columnCount, columnIndex);
+		blockColumnCounts[blockRowCount++] = columnIndex;
+		sheet.rowCount++;
+		if (blockRowCount == ROWS_PER_BLOCK) {
+			flushBlock();
+		}
+	}
+
+	/**
+	 * Completes the current sheet and writes the workbook. The underlying
+	 * stream is flushed but left open.
+	 */
+	void finish() throws IOException {
+		if (sheet == null) {
+			beginSheet(Sheets.getName(null, 1));
+		}
+		endSheet();
+		cells.close();
+
+		final SharedStringsTable sst = writeSharedStrings();
+		final byte[] globals = getGlobals();
+		long boundSheetsSize = 0;
+		for (SheetData sheetData : sheets) {
+			boundSheetsSize += 4 + 6 + getStringSize(sheetData.name);
+		}
+		final long sstOffset = globals.length + boundSheetsSize;
+		long offset = sstOffset + sst.size + sst.getExtSstSize() + EOF_SIZE;
+		for (SheetData sheetData : sheets) {
+			sheetData.offset = offset;
+			offset += sheetData.getSize();
+		}
+
+		final int padding = (int) Math.max(0, MIN_STREAM_SIZE - offset);
+		if (offset + padding > Integer.MAX_VALUE) {
+			throw new ExportException("The workbook is too large for the XLS format");
+		}
+		POIFSFileSystem fileSystem = new POIFSFileSystem();
+		fileSystem.createDocument("Workbook", (int) offset + padding, new POIFSWriterListener() {
+			@Override
+			public void processPOIFSWriterEvent(POIFSWriterEvent event) {
+				try {
+					writeWorkbook(event.getStream(), globals, sst, sstOffset, padding);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+		try {
+			fileSystem.writeFilesystem(output);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		output.flush();
+	}
+
+	/**
+	 * Deletes the temporary files.
+	 */
+	@Override
+	public void close() {
+		if (cells != null) {
+			try {
+				cells.close();
+			} catch (IOException e) {
+				logger.debug("Unable to close {}", cellsFile);
+			}
+		}
+		delete(cellsFile);
+		delete(sstFile);
+		sharedStrings.close();
+	}
+
+	private void endSheet() throws IOException {
+		flushBlock();
+		sheet.dataSize = cellsCounter.getByteCount() - sheet.dataOffset;
+	}
+
+	/**
+	 * Writes the ROW records of the current block, then its cells.
+	 */
+	private void flushBlock() throws IOException {
+		for (int i = 0; i < blockRowCount; i++) {
+			cells.writeShort(ROW);
+			cells.writeShort(16);
+			cells.writeShort(blockFirstRow + i);
+			cells.writeShort(0);
+			cells.writeShort(blockColumnCounts[i]);
+			// Default height, in twips
+			cells.writeShort(0x00FF);
+			cells.writeShort(0);
+			cells.writeShort(0);
+			cells.writeShort(0x0100);
+			cells.writeShort(DEFAULT_XF);
+		}
+		blockBytes.writeTo(cells);
+		blockBytes.reset();
+		blockRowCount = 0;
+	}
+
+	private void writeCell(int rowIndex, int columnIndex, HtmlColumn column, ExcelCellStyle style)
+			throws IOException {
+		Object value = column.getValue();
+
+		if (value instanceof Number) {
+			Double number = ExcelNumbers.toDouble((Number) value);
+			if (number != null) {
+				writeNumber(rowIndex, columnIndex, number, getCellFormat(style, null));
+			}
+			else {
+				writeString(rowIndex, columnIndex, value.toString(), style);
+			}
+		}
+		else if (value instanceof Boolean) {
+			block.writeShort(BOOLERR);
+			block.writeShort(8);
+			block.writeShort(rowIndex);
+			block.writeShort(columnIndex);
+			block.writeShort(getCellFormat(style, null));
+			block.writeByte((Boolean) value ? 1 : 0);
+			block.writeByte(0);
+		}
+		else if (value instanceof Date || value instanceof Calendar || value instanceof TemporalAccessor) {
+			if (serials.convert(value)) {
+				writeNumber(rowIndex, columnIndex, serials.getSerial(), getCellFormat(style, serials.getFormat()));
+			}
+			else {
+				writeString(rowIndex, columnIndex, value.toString(), style);
+			}
+		}
+		else {
+			writeString(rowIndex, columnIndex, column.getContent().toString(), style);
+		}
+	}
+
+	private void writeNumber(int rowIndex, int columnIndex, double value, int cellFormat) throws IOException {
+		block.writeShort(NUMBER);
+		block.writeShort(14);
+		block.writeShort(rowIndex);
+		block.writeShort(columnIndex);
+		block.writeShort(cellFormat);
+		block.writeDouble(value);
+	}
+
+	private void writeString(int rowIndex, int columnIndex, String value, ExcelCellStyle style) throws IOException {
+		if (value.length() > MAX_TEXT_LENGTH) {
+			throw new ExportException("The maximum length of cell contents (text) is " + MAX_TEXT_LENGTH
+					+ " characters");
+		}
+		block.writeShort(LABELSST);
+		block.writeShort(10);
+		block.writeShort(rowIndex);
+		block.writeShort(columnIndex);
+		block.writeShort(getCellFormat(style, null));
+		block.writeInt(sharedStrings.indexOf(value));
+	}
+
+	/**
+	 * @return the index of the cell format matching the passed style and
+	 *         data format, {@link #DEFAULT_XF} for the default one.
+	 */
+	private int getCellFormat(ExcelCellStyle style, String defaultFormat) {
+		String format = style != null && style.getDataFormat() != null ? style.getDataFormat() : defaultFormat;
+		if (style == null && format == null) {
+			return DEFAULT_XF;
+		}
+
+		List<Object> key = Arrays.<Object> asList(style, format);
+		Integer index = cellFormats.get(key);
+		if (index == null) {
+			index = DEFAULT_XF + 1 + cellFormatStyles.size();
+			cellFormatStyles.add(style);
+			cellFormatFormats.add(format);
+			cellFormats.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the SST record and its CONTINUE records in a temporary file.
+	 */
+	private SharedStringsTable writeSharedStrings() throws IOException {
+		sstFile = File.createTempFile("exporthelper-xls", ".sst");
+		final SharedStringsTable sst = new SharedStringsTable(new BufferedOutputStream(
+				new FileOutputStream(sstFile), 64 * 1024), sharedStrings.getUniqueCount());
+		try {
+			sst.putInt((int) sharedStrings.getReferenceCount());
+			sst.putInt(sharedStrings.getUniqueCount());
+			sharedStrings.readItems(new SharedStringDictionary.ItemHandler() {
+				@Override
+				public void handle(String value) throws IOException {
+					sst.putString(value);
+				}
+			});
+			sst.flushRecord();
+		} finally {
+			sst.output.close();
+		}
+		return sst;
+	}
+
+	/**
+	 * @return the records of the workbook globals preceding the BOUNDSHEET
+	 *         ones.
+	 */
+	private byte[] getGlobals() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		LittleEndianOutputStream out = new LittleEndianOutputStream(bytes);
+		writeBof(out, 0x0005);
+
+		out.writeShort(CODEPAGE);
+		out.writeShort(2);
+		// UTF-16
+		out.writeShort(1200);
+
+		out.writeShort(WINDOW1);
+		out.writeShort(18);
+		out.writeShort(0x0168);
+		out.writeShort(0x010E);
+		out.writeShort(0x3A5C);
+		out.writeShort(0x23BE);
+		out.writeShort(0x0038);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(1);
+		out.writeShort(0x0258);
+
+		out.writeShort(DATEMODE);
+		out.writeShort(2);
+		out.writeShort(0);
+
+		// The custom fonts and formats are interned while the cell formats
+		// are, hence before being written
+		int[] fontIndexes = new int[cellFormatStyles.size()];
+		int[] formatIds = new int[cellFormatStyles.size()];
+		for (int i = 0; i < cellFormatStyles.size(); i++) {
+			ExcelCellStyle style = cellFormatStyles.get(i);
+			fontIndexes[i] = style != null && style.hasFont() ? getFont(style) : 0;
+			formatIds[i] = cellFormatFormats.get(i) != null ? getFormat(cellFormatFormats.get(i)) : 0;
+		}
+
+		// Excel expects 4 default fonts, the index 4 being never used
+		for (int i = 0; i < 4; i++) {
+			writeFont(out, null);
+		}
+		for (ExcelCellStyle style : fontStyles) {
+			writeFont(out, style);
+		}
+		for (int i = 0; i < formatCodes.size(); i++) {
+			out.writeShort(FORMAT);
+			out.writeShort(2 + 2 + getCharsSize(formatCodes.get(i)));
+			out.writeShort(FIRST_CUSTOM_FORMAT + i);
+			out.writeShort(formatCodes.get(i).length());
+			writeChars(out, formatCodes.get(i));
+		}
+
+		// The style formats, then the default cell format
+		for (int i = 0; i < DEFAULT_XF; i++) {
+			writeXf(out, 0, 0, 0xFFF5, 0x20, i == 0 ? 0 : 0xF4, 0, 0x20C0);
+		}
+		writeXf(out, 0, 0, 0x0001, 0x20, 0, 0, 0x20C0);
+		for (int i = 0; i < cellFormatStyles.size(); i++) {
+			ExcelCellStyle style = cellFormatStyles.get(i);
+			int alignment = 0;
+			Short fillColor = null;
+			if (style != null) {
+				alignment = style.getAlignment() != null ? style.getAlignment().ordinal() + 1 : 0;
+				fillColor = style.getFillColor();
+			}
+			int used = (formatIds[i] > 0 ? 0x04 : 0) | (fontIndexes[i] > 0 ? 0x08 : 0) | (alignment > 0 ? 0x10 : 0)
+					| (fillColor != null ? 0x40 : 0);
+			writeXf(out, fontIndexes[i], formatIds[i], 0x0001, 0x20 | alignment, used, fillColor != null ? 1 << 26
+					: 0, fillColor != null ? (fillColor & 0x7F) | (0x41 << 7) : 0x20C0);
+		}
+
+		// The Normal style
+		out.writeShort(STYLE);
+		out.writeShort(4);
+		out.writeShort(0x8000);
+		out.writeByte(0);
+		out.writeByte(0xFF);
+		return bytes.toByteArray();
+	}
+
+	private int getFont(ExcelCellStyle style) {
+		List<Object> key = style.getFontKey();
+		Integer index = fonts.get(key);
+		if (index == null) {
+			index = 5 + fontStyles.size();
+			fontStyles.add(style);
+			fonts.put(key, index);
+		}
+		return index;
+	}
+
+	private int getFormat(String format) {
+		Integer id = formats.get(format);
+		if (id == null) {
+			id = FIRST_CUSTOM_FORMAT + formatCodes.size();
+			formatCodes.add(format);
+			formats.put(format, id);
+		}
+		return id;
+	}
+
+	private void writeFont(LittleEndianOutputStream out, ExcelCellStyle style) {
+		String name = DEFAULT_FONT_NAME;
+		int size = DEFAULT_FONT_SIZE;
+		boolean bold = false;
+		boolean italic = false;
+		int color = 0x7FFF;
+		if (style != null) {
+			name = style.getFontName() != null ? style.getFontName() : name;
+			size = style.getFontSize() != null ? style.getFontSize() : size;
+			bold = Boolean.TRUE.equals(style.getBold());
+			italic = Boolean.TRUE.equals(style.getItalic());
+			color = style.getFontColor() != null ? style.getFontColor() : color;
+		}
+
+		out.writeShort(FONT);
+		out.writeShort(14 + getStringSize(name));
+		// Height in twips
+		out.writeShort(size * 20);
+		out.writeShort(italic ? 0x0002 : 0);
+		out.writeShort(color);
+		out.writeShort(bold ? 700 : 400);
+		out.writeShort(0);
+		out.writeByte(0);
+		out.writeByte(0);
+		out.writeByte(0);
+		out.writeByte(0);
+		writeString(out, name);
+	}
+
+	private void writeXf(LittleEndianOutputStream out, int font, int format, int type, int alignment, int used,
+			int pattern, int fillColors) {
+		out.writeShort(XF);
+		out.writeShort(20);
+		out.writeShort(font);
+		out.writeShort(format);
+		out.writeShort(type);
+		out.writeByte(alignment);
+		out.writeByte(0);
+		out.writeByte(0);
+		out.writeByte(used);
+		out.writeInt(0);
+		out.writeInt(pattern);
+		out.writeShort(fillColors);
+	}
+
+	/**
+	 * Streams the whole workbook into the OLE2 container.
+	 */
+	private void writeWorkbook(OutputStream stream, byte[] globals, SharedStringsTable sst, long sstOffset,
+			int padding) throws IOException {
+		LittleEndianOutputStream out = new LittleEndianOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+		byte[] buffer = new byte[64 * 1024];
+
+		out.write(globals);
+		for (SheetData sheetData : sheets) {
+			out.writeShort(BOUNDSHEET);
+			out.writeShort(6 + getStringSize(sheetData.name));
+			out.writeInt((int) sheetData.offset);
+			out.writeShort(0);
+			writeString(out, sheetData.name);
+		}
+		InputStream input = new FileInputStream(sstFile);
+		try {
+			copy(input, out, sst.size, buffer);
+		} finally {
+			input.close();
+		}
+		sst.writeExtSst(out, sstOffset);
+		writeEof(out);
+
+		input = new BufferedInputStream(new FileInputStream(cellsFile), 64 * 1024);
+		try {
+			for (int i = 0; i < sheets.size(); i++) {
+				SheetData sheetData = sheets.get(i);
+				writeBof(out, 0x0010);
+				for (int column = 0; sheetData.columnWidths != null && column < sheetData.getColumnInfoCount(); column++) {
+					out.writeShort(COLINFO);
+					out.writeShort(12);
+					out.writeShort(column);
+					out.writeShort(column);
+					out.writeShort(sheetData.columnWidths.getWidth(column) * 256);
+					out.writeShort(DEFAULT_XF);
+					out.writeShort(0);
+					out.writeShort(0);
+				}
+				out.writeShort(DIMENSIONS);
+				out.writeShort(14);
+				out.writeInt(0);
+				out.writeInt(sheetData.rowCount);
+				out.writeShort(0);
+				out.writeShort(sheetData.columnCount);
+				out.writeShort(0);
+
+				copy(input, out, sheetData.dataSize, buffer);
+
+				out.writeShort(WINDOW2);
+				out.writeShort(18);
+				// The first sheet is the selected one
+				out.writeShort(i == 0 ? 0x06B6 : 0x00B6);
+				out.writeShort(0);
+				out.writeShort(0);
+				out.writeInt(0x40);
+				out.writeShort(0);
+				out.writeShort(0);
+				out.writeInt(0);
+				writeEof(out);
+			}
+		} finally {
+			input.close();
+		}
+		out.write(new byte[padding]);
+		out.flush();
+	}
+
+	private static void writeBof(LittleEndianOutputStream out, int type) {
+		out.writeShort(BOF);
+		out.writeShort(16);
+		// BIFF8
+		out.writeShort(0x0600);
+		out.writeShort(type);
+		out.writeShort(0x0DBB);
+		out.writeShort(0x07CC);
+		out.writeInt(0x41);
+		out.writeInt(0x06);
+	}
+
+	private static void writeEof(LittleEndianOutputStream out) {
+		out.writeShort(EOF);
+		out.writeShort(0);
+	}
+
+	/**
+	 * Writes a string with a one-byte length, as in the FONT and BOUNDSHEET
+	 * records.
+	 */
+	private static void writeString(LittleEndianOutputStream out, String value) {
+		out.writeByte(value.length());
+		writeChars(out, value);
+	}
+
+	/**
+	 * @return the size of a string written by
+	 *         {@link #writeString(LittleEndianOutputStream, String)}.
+	 */
+	private static int getStringSize(String value) {
+		return 1 + getCharsSize(value);
+	}
+
+	/**
+	 * Writes the option flags and the characters of a string, compressed to
+	 * one byte per character when possible.
+	 */
+	private static void writeChars(LittleEndianOutputStream out, String value) {
+		boolean compressed = isCompressible(value);
+		out.writeByte(compressed ? 0 : 1);
+		for (int i = 0; i < value.length(); i++) {
+			if (compressed) {
+				out.writeByte(value.charAt(i));
+			}
+			else {
+				out.writeShort(value.charAt(i));
+			}
+		}
+	}
+
+	private static int getCharsSize(String value) {
+		return 1 + value.length() * (isCompressible(value) ? 1 : 2);
+	}
+
+	private static boolean isCompressible(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > 0xFF) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void copy(InputStream input, OutputStream out, long size, byte[] buffer) throws IOException {
+		long remaining = size;
+		while (remaining > 0) {
+			int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (read < 0) {
+				throw new IOException("Unexpected end of the temporary file");
+			}
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+
+	private static void delete(File file) {
+		if (file != null && !file.delete() && file.exists()) {
+			logger.warn("Unable to delete the temporary file {}", file);
+		}
+	}
+
+	/**
+	 * A sheet and the location of its cells in the temporary file.
+	 */
+	private static final class SheetData {
+
+		private final String name;
+		private final long dataOffset;
+		private long dataSize;
+		private int rowCount;
+		private int columnCount;
+		private ColumnWidthEstimator columnWidths;
+
+		/**
+		 * Position of the BOF record of the sheet in the workbook stream.
+		 */
+		private long offset;
+
+		SheetData(String name, long dataOffset) {
+			this.name = name;
+			this.dataOffset = dataOffset;
+		}
+
+		int getColumnInfoCount() {
+			return Math.min(columnWidths.getColumnCount(), MAX_COLUMNS);
+		}
+
+		/**
+		 * @return the size of the substream of the sheet.
+		 */
+		long getSize() {
+			int columnInfos = columnWidths != null ? getColumnInfoCount() : 0;
+			return BOF_SIZE + columnInfos * COLINFO_SIZE + DIMENSIONS_SIZE + dataSize + WINDOW2_SIZE + EOF_SIZE;
+		}
+	}
+
+	/**
+	 * Writes the SST record, split into CONTINUE records, and keeps the
+	 * positions of the strings needed by the EXTSST record.
+	 */
+	private static final class SharedStringsTable {
+
+		private final OutputStream output;
+		private final byte[] record = new byte[MAX_RECORD_DATA];
+		private int position;
+		private boolean continued;
+		private long size;
+
+		/**
+		 * The EXTSST record indexes one string out of
+		 * <code>stringsPerBucket</code>.
+		 */
+		private final int stringsPerBucket;
+		private final List<long[]> buckets = new ArrayList<long[]>();
+		private int stringCount;
+
+		SharedStringsTable(OutputStream output, int uniqueCount) {
+			this.output = output;
+			this.stringsPerBucket = Math.max(8, (uniqueCount + 127) / 128);
+		}
+
+		void putString(String value) throws IOException {
+			boolean compressed = isCompressible(value);
+			int charSize = compressed ? 1 : 2;
+			// The header and the first character are never split
+			if (position + 3 + (value.isEmpty() ? 0 : charSize) > MAX_RECORD_DATA) {
+				flushRecord();
+			}
+			if (stringCount++ % stringsPerBucket == 0) {
+				buckets.add(new long[] { size + 4 + position, 4 + position });
+			}
+
+			putShort(value.length());
+			record[position++] = (byte) (compressed ? 0 : 1);
+			int i = 0;
+			while (i < value.length()) {
+				int room = (MAX_RECORD_DATA - position) / charSize;
+				if (room == 0) {
+					// The characters go on in a CONTINUE record, after the option flags
+					flushRecord();
+					record[position++] = (byte) (compressed ? 0 : 1);
+					continue;
+				}
+				int end = Math.min(value.length(), i + room);
+				for (; i < end; i++) {
+					char c = value.charAt(i);
+					if (compressed) {
+						record[position++] = (byte) c;
+					}
+					else {
+						putShort(c);
+					}
+				}
+			}
+		}
+
+		void putInt(int value) {
+			putShort(value & 0xFFFF);
+			putShort(value >>> 16);
+		}
+
+		private void putShort(int value) {
+			record[position++] = (byte) value;
+			record[position++] = (byte) (value >>> 8);
+		}
+
+		void flushRecord() throws IOException {
+			int sid = continued ? CONTINUE : SST;
+			output.write(new byte[] { (byte) sid, (byte) (sid >>> 8), (byte) position, (byte) (position >>> 8) });
+			output.write(record, 0, position);
+			size += 4 + position;
+			position = 0;
+			continued = true;
+		}
+
+		long getExtSstSize() {
+			return 4 + 2 + 8 * buckets.size();
+		}
+
+		void writeExtSst(LittleEndianOutputStream out, long sstOffset) {
+			out.writeShort(EXTSST);
+			out.writeShort(2 + 8 * buckets.size());
+			out.writeShort(stringsPerBucket);
+			for (long[] bucket : buckets) {
+				out.writeInt((int) (sstOffset + bucket[0]));
+				out.writeShort((int) bucket[1]);
+				out.writeShort(0);
+			}
+		}
+	}
+}
@@ -33,87 +33,271 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import com.github.exporthelper.core.DatatablesExport;
+import com.github.exporthelper.core.DatatablesStreamingExport;
+import com.github.exporthelper.core.ExcelCellStyle;
 import com.github.exporthelper.core.ExportConf;
 import com.github.exporthelper.core.ReservedFormat;
+import com.github.exporthelper.core.configuration.ColumnConfig;
 import com.github.exporthelper.core.exception.ExportException;
 import com.github.exporthelper.core.html.HtmlColumn;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.github.exporthelper.core.html.HtmlRow;
 import com.github.exporthelper.core.html.HtmlTable;
 
 /**
+ * <p>
  * Default Excel (XLSX) export class.
+ * <p>
+ * With the {@link ExportConf.Engine#STREAMING} engine, only the last
+ * {@link ExportConf#getRowAccessWindow()} rows are kept in memory, the older
+ * ones being flushed to a temporary file of the <code>java.io.tmpdir</code>
+ * directory, deleted once the export is over, whether it succeeded or not. The
+ * columns are then auto-sized from the rows of the first window, unless the
+ * {@link ExportConf.AutoSizeStrategy#ESTIMATE} strategy is used: the widths
+ * are then estimated while the rows are written, from all of them or from
+ * the first {@link ExportConf#getAutoSizeSampleRows()} ones.
+ * <p>
+ * With the {@link ExportConf.Engine#DIRECT} engine, POI is not used at all:
+ * the rows are written as the XML of the sheet straight into the XLSX archive.
+ * The columns are then auto-sized by estimation from the first
+ * {@link ExportConf#getAutoSizeSampleRows()} rows, or the first
+ * {@link ExportConf#getRowAccessWindow()} ones by default, and the strings can be
+ * deduplicated with {@link ExportConf#getSharedStrings()}.
+ * <p>
+ * Whatever the engine, the export continues on a new sheet, starting with the
+ * header again, once a sheet holds {@link ExportConf#getMaxRowsPerSheet()}
+ * rows or the 1,048,576 rows allowed by the format.
  * 
  * @author Thibault Duchateau
  */
-public class XlsxExport implements DatatablesExport {
+public class XlsxExport implements DatatablesExport, DatatablesStreamingExport {
+
+	// Logger
+	private static Logger logger = LoggerFactory.getLogger(XlsxExport.class);
 
 	private HtmlTable table;
 	private ExportConf exportConf;
+	private OutputStream output;
+	private Workbook workbook;
+	private Sheet sheet;
+	private CellValueWriter cellValueWriter;
+	private ExcelCellStyle[] headerStyles;
+	private ExcelCellStyle[] bodyStyles;
+	private XlsxPackageWriter packageWriter;
+	private ColumnWidthEstimator columnWidths;
+	private int rowIndex;
+	private int maxRows;
+	private int sheetCount;
+	private int autoSizeRowIndex;
+	private boolean autoSized;
 
 	@Override
 	public void initExport(HtmlTable table) {
 		this.table = table;
-		this.exportConf = table.getExportConfiguration().get(
-				ReservedFormat.XLSX);
+		this.exportConf = table.getExportConfiguration()
+				.get(ReservedFormat.XLSX);
 	}
 
 	@Override
 	public void processExport(OutputStream output) {
-
+		beginExport(table, output);
 		try {
-			XSSFWorkbook workbook = new XSSFWorkbook();
-			XSSFSheet sheet = workbook.createSheet(exportConf.getFileName());
-			Row row = null;
-			Cell cell = null;
-			int rowIndex = 0;
-			int columnIndex;
+			for (HtmlRow htmlRow : table.getBodyRows()) {
+				exportRow(htmlRow);
+			}
+		} catch (RuntimeException e) {
+			abortExport();
+			throw e;
+		}
+		endExport();
+	}
 
-			// Header
-			if (exportConf.getIncludeHeader()) {
+	@Override
+	public void beginExport(HtmlTable table, OutputStream output) {
+		initExport(table);
+		this.output = output;
+		this.maxRows = Sheets.getMaxRows(exportConf, SpreadsheetVersion.EXCEL2007,
+				exportConf.getIncludeHeader() ? table.getHeadRows().size() : 0);
+		this.sheetCount = 0;
+		this.headerStyles = CellStyleCache.getColumnStyles(table, ReservedFormat.XLSX, ColumnConfig.HEADER_STYLE);
+		this.bodyStyles = CellStyleCache.getColumnStyles(table, ReservedFormat.XLSX, ColumnConfig.BODY_STYLE);
 
-				for (HtmlRow htmlRow : table.getHeadRows()) {
+		if (exportConf.getEngine() == ExportConf.Engine.DIRECT) {
+			Integer sampleRows = exportConf.getAutoSizeSampleRows();
+			if (sampleRows == null || sampleRows <= 0) {
+				sampleRows = exportConf.getRowAccessWindow();
+			}
+			this.packageWriter = new XlsxPackageWriter(output, exportConf.getCompressionLevel(),
+					exportConf.getAutoSize() ? sampleRows : 0,
+					exportConf.getSharedStrings() ? new SharedStringDictionary(exportConf.getSharedStringsInMemory())
+							: null);
+		}
+		else if (exportConf.getEngine() == ExportConf.Engine.STREAMING) {
+			int window = exportConf.getRowAccessWindow();
+			this.workbook = new SXSSFWorkbook(null, window, exportConf.getCompressTempFiles());
+			// The rows are sized just before the first window gets flushed,
+			// unless the widths are estimated
+			this.autoSizeRowIndex = exportConf.getAutoSizeStrategy() == ExportConf.AutoSizeStrategy.ESTIMATE ? -1
+					: window;
+		}
+		else {
+			this.workbook = new XSSFWorkbook();
+			this.autoSizeRowIndex = -1;
+		}
+		if (workbook != null) {
+			this.cellValueWriter = new CellValueWriter(workbook);
+		}
 
-					row = sheet.createRow(rowIndex++);
-					columnIndex = 0;
+		beginSheet();
+	}
 
-					for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.XLSX)) {
-						cell = row.createCell(columnIndex++);
-						cell.setCellValue(column.getContent().toString());
+	@Override
+	public void exportRow(HtmlRow htmlRow) {
+		if (rowIndex == maxRows) {
+			beginSheet();
+		}
+		writeRow(htmlRow, bodyStyles);
+	}
+
+	/**
+	 * Starts a new sheet with the header rows, completing the current one if
+	 * any.
+	 */
+	private void beginSheet() {
+		String name = Sheets.getName(exportConf.getFileName(), ++sheetCount);
+		try {
+			if (packageWriter != null) {
+				packageWriter.beginSheet(name);
+			}
+			else {
+				if (sheet != null) {
+					autoSizeColumns();
+					if (sheet instanceof SXSSFSheet) {
+						// Keeps a single window in memory whatever the number of sheets
+						((SXSSFSheet) sheet).flushRows();
 					}
 				}
+				this.sheet = workbook.createSheet(name);
+				this.columnWidths = ColumnWidthEstimator.create(exportConf);
+				this.autoSized = false;
 			}
+		} catch (IOException e) {
+			throw wrap(e);
+		}
+		this.rowIndex = 0;
 
-			// Body
-			for (HtmlRow htmlRow : table.getBodyRows()) {
-
-				row = sheet.createRow(rowIndex++);
-				columnIndex = 0;
+		// Header
+		if (exportConf.getIncludeHeader()) {
+			for (HtmlRow htmlRow : table.getHeadRows()) {
+				writeRow(htmlRow, headerStyles);
+			}
+		}
+	}
 
-				for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.XLSX)) {
-					cell = row.createCell(columnIndex++);
-					cell.setCellValue(column.getContent().toString());
-				}
+	private void writeRow(HtmlRow htmlRow, ExcelCellStyle[] styles) {
+		if (packageWriter != null) {
+			try {
+				packageWriter.writeRow(htmlRow, styles);
+			} catch (IOException e) {
+				throw wrap(e);
 			}
+			rowIndex++;
+			return;
+		}
 
-			// Column auto-sizing
-			for (columnIndex = 0; columnIndex < table.getLastHeaderRow().getColumns(ReservedFormat.ALL, ReservedFormat.XLSX).size(); columnIndex++) {
-				if (exportConf.getAutoSize()) {
-					sheet.autoSizeColumn(columnIndex);
-				}
+		if (rowIndex == autoSizeRowIndex) {
+			autoSizeColumns();
+		}
+
+		Row row = sheet.createRow(rowIndex++);
+		boolean measured = columnWidths != null && columnWidths.isSampling();
+		int columnIndex = 0;
+
+		for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.XLSX)) {
+			if (measured) {
+				columnWidths.measure(columnIndex, column);
 			}
+			Cell cell = row.createCell(columnIndex);
+			cellValueWriter.write(cell, column, columnIndex < styles.length ? styles[columnIndex] : null);
+			columnIndex++;
+		}
+		if (columnWidths != null) {
+			columnWidths.nextRow();
+		}
+	}
+
+	@Override
+	public void endExport() {
 
+		try {
+			if (packageWriter != null) {
+				packageWriter.finish();
+				return;
+			}
+			autoSizeColumns();
 			workbook.write(output);
 		} catch (IOException e) {
-			StringBuilder sb = new StringBuilder("Something went wrong during the XLSX generation of the table '");
-			sb.append(table.getOriginalId());
-			sb.append("' and with the following export configuration: ");
-			sb.append(exportConf.toString());
-			throw new ExportException(sb.toString(), e);
+			throw wrap(e);
+		} finally {
+			dispose();
 		}
 	}
-}
\ No newline at end of file
+
+	@Override
+	public void abortExport() {
+		dispose();
+	}
+
+	private void autoSizeColumns() {
+		if (autoSized || !exportConf.getAutoSize()) {
+			return;
+		}
+		if (columnWidths != null) {
+			columnWidths.apply(sheet);
+			autoSized = true;
+			return;
+		}
+
+		// Column auto-sizing
+		for (int columnIndex = 0; columnIndex < table.getLastHeaderRow().getColumns(ReservedFormat.ALL, ReservedFormat.XLSX).size(); columnIndex++) {
+			sheet.autoSizeColumn(columnIndex);
+		}
+		autoSized = true;
+	}
+
+	/**
+	 * Deletes the temporary files of the streaming engine.
+	 */
+	private void dispose() {
+		if (workbook instanceof SXSSFWorkbook && !((SXSSFWorkbook) workbook).dispose()) {
+			logger.warn("Unable to delete the temporary files of the XLSX export of the table '{}'",
+					table.getOriginalId());
+		}
+		if (packageWriter != null) {
+			packageWriter.close();
+		}
+		workbook = null;
+		sheet = null;
+		cellValueWriter = null;
+		packageWriter = null;
+		columnWidths = null;
+	}
+
+	private ExportException wrap(IOException e) {
+		StringBuilder sb = new StringBuilder("Something went wrong during the XLSX generation of the table '");
+		sb.append(table.getOriginalId());
+		sb.append("' and with the following export configuration: ");
+		sb.append(exportConf.toString());
+		return new ExportException(sb.toString(), e);
+	}
+}
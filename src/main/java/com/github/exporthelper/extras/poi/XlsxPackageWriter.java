@@ -0,0 +1,438 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.github.exporthelper.core.ExcelCellStyle;
+import com.github.exporthelper.core.ReservedFormat;
+import com.github.exporthelper.core.html.HtmlColumn;
+import com.github.exporthelper.core.html.HtmlRow;
+
+/**
+ * <p>
+ * Writes an XLSX file directly as an OOXML package, without the POI object
+ * model: the rows are converted into the XML of the sheet as soon as they are
+ * received and deflated into the archive.
+ * <p>
+ * The package only holds the parts Excel needs: the content types, the
+ * relationships, the workbook, the styles part (the date formats and the
+ * styles of the columns, see {@link XlsxStyleSheet}) and the sheets. The strings are either inlined in the cells
+ * or, when a {@link SharedStringDictionary} is passed, stored once in the
+ * shared strings part and referenced by index.
+ * <p>
+ * When the columns are auto-sized, the first rows of each sheet are buffered
+ * so that the widths, which must precede the data, can be estimated with a
+ * {@link ColumnWidthEstimator}.
+ *
+ * @see XlsxExport
+ * @since 1.0
+ */
+final class XlsxPackageWriter implements Closeable {
+
+	private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+	private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+	private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final String PACKAGE_RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+	private final ZipOutputStream zip;
+	private final Writer writer;
+	private final int autoSizeRows;
+	private final SharedStringDictionary sharedStrings;
+	private final ExcelSerials serials = new ExcelSerials();
+	private final List<String> sheetNames = new ArrayList<String>();
+	private final List<String> columnRefs = new ArrayList<String>();
+	private final XlsxStyleSheet styles = new XlsxStyleSheet();
+
+	private Appendable sheet;
+	private StringBuilder pendingRows;
+	private ColumnWidthEstimator columnWidths;
+	private int rowIndex;
+	private ExcelCellStyle[] rowStyles;
+
+	/**
+	 * @param output
+	 *            The stream to fill. It is not closed by the writer.
+	 * @param compressionLevel
+	 *            The level used to deflate the parts.
+	 * @param autoSizeRows
+	 *            The number of rows of each sheet the column widths are
+	 *            measured on, or 0 not to size the columns.
+	 * @param sharedStrings
+	 *            The table of the strings, or <code>null</code> to inline
+	 *            them. It is closed along with the writer.
+	 */
+	XlsxPackageWriter(OutputStream output, int compressionLevel, int autoSizeRows,
+			SharedStringDictionary sharedStrings) {
+		this.zip = new ZipOutputStream(output);
+		this.zip.setLevel(compressionLevel);
+		this.writer = new BufferedWriter(new OutputStreamWriter(zip, Charset.forName("UTF-8")), 8192);
+		this.autoSizeRows = autoSizeRows;
+		this.sharedStrings = sharedStrings;
+	}
+
+	/**
+	 * Starts a new sheet, completing the current one if any.
+	 *
+	 * @param name
+	 *            The name of the sheet, as returned by
+	 *            {@link Sheets#getName(String, int)}.
+	 */
+	void beginSheet(String name) throws IOException {
+		if (sheet != null) {
+			endSheet();
+		}
+
+		sheetNames.add(name);
+		zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + sheetNames.size() + ".xml"));
+		writer.write(XML_DECLARATION);
+		writer.write("<worksheet xmlns=\"" + MAIN_NS + "\">");
+
+		rowIndex = 0;
+		if (autoSizeRows > 0) {
+			pendingRows = new StringBuilder();
+			columnWidths = new ColumnWidthEstimator(autoSizeRows);
+			sheet = pendingRows;
+		}
+		else {
+			writer.write("<sheetData>");
+			sheet = writer;
+		}
+	}
+
+	/**
+	 * @param styles
+	 *            The style of each column, <code>null</code> for the columns
+	 *            without any.
+	 */
+	void writeRow(HtmlRow htmlRow, ExcelCellStyle[] styles) throws IOException {
+		if (pendingRows != null && rowIndex == autoSizeRows) {
+			writePendingRows();
+		}
+
+		rowStyles = styles;
+
+		rowIndex++;
+		sheet.append("<row r=\"").append(Integer.toString(rowIndex)).append("\">");
+		int columnIndex = 0;
+		for (HtmlColumn column : htmlRow.getColumns(ReservedFormat.ALL, ReservedFormat.XLSX)) {
+			writeCell(columnIndex++, column);
+		}
+		sheet.append("</row>");
+	}
+
+	/**
+	 * Completes the current sheet and writes the remaining parts of the
+	 * package. The underlying stream is flushed but left open.
+	 */
+	void finish() throws IOException {
+		if (sheet == null) {
+			beginSheet(Sheets.getName(null, 1));
+		}
+		endSheet();
+
+		writePart("[Content_Types].xml", getContentTypes());
+		writePart("_rels/.rels", XML_DECLARATION + "<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NS + "\">"
+				+ "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS_NS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+				+ "</Relationships>");
+		writePart("xl/workbook.xml", getWorkbook());
+		writePart("xl/_rels/workbook.xml.rels", getWorkbookRelationships());
+		writePart("xl/styles.xml", XML_DECLARATION + styles.toXml(MAIN_NS));
+		if (sharedStrings != null) {
+			writeSharedStrings();
+		}
+		zip.finish();
+		zip.flush();
+	}
+
+	/**
+	 * Deletes the temporary files, if any.
+	 */
+	@Override
+	public void close() {
+		if (sharedStrings != null) {
+			sharedStrings.close();
+		}
+	}
+
+	private void endSheet() throws IOException {
+		if (pendingRows != null) {
+			writePendingRows();
+		}
+		writer.write("</sheetData></worksheet>");
+		writer.flush();
+		zip.closeEntry();
+		sheet = null;
+	}
+
+	/**
+	 * Writes the column widths measured on the buffered rows, then the rows
+	 * themselves. The next rows are written directly.
+	 */
+	private void writePendingRows() throws IOException {
+		if (columnWidths.getColumnCount() > 0) {
+			writer.write("<cols>");
+			for (int i = 0; i < columnWidths.getColumnCount(); i++) {
+				int width = columnWidths.getWidth(i);
+				writer.write("<col min=\"" + (i + 1) + "\" max=\"" + (i + 1) + "\" width=\"" + width
+						+ "\" customWidth=\"1\"/>");
+			}
+			writer.write("</cols>");
+		}
+		writer.write("<sheetData>");
+		writer.append(pendingRows);
+		pendingRows = null;
+		columnWidths = null;
+		sheet = writer;
+	}
+
+	private void writeCell(int columnIndex, HtmlColumn column) throws IOException {
+		Object value = column.getValue();
+
+		if (value instanceof Number) {
+			if (!writeNumber(columnIndex, (Number) value)) {
+				writeString(columnIndex, value.toString());
+			}
+		}
+		else if (value instanceof Boolean) {
+			beginCell(columnIndex, "b", null);
+			sheet.append((Boolean) value ? "1" : "0");
+			endCell(columnIndex, Boolean.FALSE.toString().length());
+		}
+		else if (value instanceof Date || value instanceof Calendar || value instanceof TemporalAccessor) {
+			if (serials.convert(value)) {
+				writeSerial(columnIndex, serials.getSerial(), serials.getFormat());
+			}
+			else {
+				writeString(columnIndex, value.toString());
+			}
+		}
+		else {
+			writeString(columnIndex, column.getContent().toString());
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the number must be written as text.
+	 */
+	private boolean writeNumber(int columnIndex, Number value) throws IOException {
+		Double number = ExcelNumbers.toDouble(value);
+		if (number == null) {
+			return false;
+		}
+
+		String text = ExcelNumbers.toText(number);
+		beginCell(columnIndex, "n", null);
+		sheet.append(text);
+		endCell(columnIndex, text.length());
+		return true;
+	}
+
+	private void writeSerial(int columnIndex, double serial, String format) throws IOException {
+		beginCell(columnIndex, "n", format);
+		sheet.append(Double.toString(serial));
+		endCell(columnIndex, format.length());
+	}
+
+	private void writeString(int columnIndex, String value) throws IOException {
+		if (sharedStrings != null) {
+			beginCell(columnIndex, "s", null);
+			sheet.append(Integer.toString(sharedStrings.indexOf(value)));
+			endCell(columnIndex, ColumnWidthEstimator.getDisplayWidth(value));
+			return;
+		}
+
+		sheet.append("<c r=\"").append(getColumnRef(columnIndex)).append(Integer.toString(rowIndex));
+		appendStyle(columnIndex, null);
+		sheet.append("\" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+		appendEscaped(sheet, value);
+		sheet.append("</t></is></c>");
+		measure(columnIndex, ColumnWidthEstimator.getDisplayWidth(value));
+	}
+
+	/**
+	 * @param format
+	 *            The data format of the value, or <code>null</code>.
+	 */
+	private void beginCell(int columnIndex, String type, String format) throws IOException {
+		sheet.append("<c r=\"").append(getColumnRef(columnIndex)).append(Integer.toString(rowIndex));
+		appendStyle(columnIndex, format);
+		sheet.append("\" t=\"").append(type).append("\"><v>");
+	}
+
+	private void appendStyle(int columnIndex, String format) throws IOException {
+		int style = styles.indexOf(columnIndex < rowStyles.length ? rowStyles[columnIndex] : null, format);
+		if (style > 0) {
+			sheet.append("\" s=\"").append(Integer.toString(style));
+		}
+	}
+
+	private void endCell(int columnIndex, int length) throws IOException {
+		sheet.append("</v></c>");
+		measure(columnIndex, length);
+	}
+
+	private void measure(int columnIndex, int length) {
+		if (pendingRows == null) {
+			return;
+		}
+		columnWidths.measure(columnIndex, length);
+	}
+
+	/**
+	 * Escapes the XML markup and drops the characters XML 1.0 cannot hold.
+	 */
+	static void appendEscaped(Appendable output, String value) throws IOException {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '<':
+				output.append("&lt;");
+				break;
+			case '>':
+				output.append("&gt;");
+				break;
+			case '&':
+				output.append("&amp;");
+				break;
+			case '"':
+				output.append("&quot;");
+				break;
+			default:
+				if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+					if (c != 0xFFFE && c != 0xFFFF) {
+						output.append(c);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the letters of the passed column, e.g. <code>AB</code> for the
+	 *         28th one.
+	 */
+	private String getColumnRef(int columnIndex) {
+		while (columnRefs.size() <= columnIndex) {
+			int index = columnRefs.size() + 1;
+			StringBuilder ref = new StringBuilder();
+			while (index > 0) {
+				int remainder = (index - 1) % 26;
+				ref.insert(0, (char) ('A' + remainder));
+				index = (index - remainder - 1) / 26;
+			}
+			columnRefs.add(ref.toString());
+		}
+		return columnRefs.get(columnIndex);
+	}
+
+	private void writeSharedStrings() throws IOException {
+		zip.putNextEntry(new ZipEntry("xl/sharedStrings.xml"));
+		writer.write(XML_DECLARATION);
+		writer.write("<sst xmlns=\"" + MAIN_NS + "\" count=\"" + sharedStrings.getReferenceCount()
+				+ "\" uniqueCount=\"" + sharedStrings.getUniqueCount() + "\">");
+		sharedStrings.writeItems(writer);
+		writer.write("</sst>");
+		writer.flush();
+		zip.closeEntry();
+	}
+
+	private void writePart(String name, String content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		writer.write(content);
+		writer.flush();
+		zip.closeEntry();
+	}
+
+	private String getContentTypes() {
+		StringBuilder sb = new StringBuilder(XML_DECLARATION);
+		sb.append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">");
+		sb.append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>");
+		sb.append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>");
+		sb.append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>");
+		sb.append("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+		if (sharedStrings != null) {
+			sb.append("<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>");
+		}
+		for (int i = 1; i <= sheetNames.size(); i++) {
+			sb.append("<Override PartName=\"/xl/worksheets/sheet").append(i)
+					.append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+		}
+		sb.append("</Types>");
+		return sb.toString();
+	}
+
+	private String getWorkbook() {
+		StringBuilder sb = new StringBuilder(XML_DECLARATION);
+		sb.append("<workbook xmlns=\"").append(MAIN_NS).append("\" xmlns:r=\"").append(RELATIONSHIPS_NS)
+				.append("\"><sheets>");
+		for (int i = 1; i <= sheetNames.size(); i++) {
+			sb.append("<sheet name=\"").append(escapeAttribute(sheetNames.get(i - 1))).append("\" sheetId=\"")
+					.append(i).append("\" r:id=\"rId").append(i).append("\"/>");
+		}
+		sb.append("</sheets></workbook>");
+		return sb.toString();
+	}
+
+	private String getWorkbookRelationships() {
+		StringBuilder sb = new StringBuilder(XML_DECLARATION);
+		sb.append("<Relationships xmlns=\"").append(PACKAGE_RELATIONSHIPS_NS).append("\">");
+		int i = 1;
+		for (; i <= sheetNames.size(); i++) {
+			sb.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(RELATIONSHIPS_NS)
+					.append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+		}
+		sb.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(RELATIONSHIPS_NS)
+				.append("/styles\" Target=\"styles.xml\"/>");
+		if (sharedStrings != null) {
+			sb.append("<Relationship Id=\"rId").append(i + 1).append("\" Type=\"").append(RELATIONSHIPS_NS)
+					.append("/sharedStrings\" Target=\"sharedStrings.xml\"/>");
+		}
+		sb.append("</Relationships>");
+		return sb.toString();
+	}
+
+	static String escapeAttribute(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+}
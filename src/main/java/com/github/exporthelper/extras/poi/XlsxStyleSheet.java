@@ -0,0 +1,191 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.exporthelper.core.ExcelCellStyle;
+
+/**
+ * <p>
+ * Styles part of the XLSX files written by {@link XlsxPackageWriter}. Each
+ * distinct combination of an {@link ExcelCellStyle} and a data format is
+ * given a single cell format, as are the fonts, fills and number formats it
+ * uses, the first cell format being the default one.
+ *
+ * @see CellStyleCache
+ * @since 1.0
+ */
+final class XlsxStyleSheet {
+
+	/**
+	 * The lower ids are those of the built-in number formats.
+	 */
+	private static final int FIRST_CUSTOM_FORMAT = 164;
+
+	private static final String DEFAULT_FONT_NAME = "Calibri";
+	private static final int DEFAULT_FONT_SIZE = 11;
+
+	private final Map<List<Object>, Integer> cellFormats = new HashMap<List<Object>, Integer>();
+	private final StringBuilder cellFormatsXml = new StringBuilder(
+			"<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>");
+	private final Map<List<Object>, Integer> fonts = new HashMap<List<Object>, Integer>();
+	private final StringBuilder fontsXml = new StringBuilder("<font><sz val=\"" + DEFAULT_FONT_SIZE
+			+ "\"/><name val=\"" + DEFAULT_FONT_NAME + "\"/><family val=\"2\"/></font>");
+	private final Map<Short, Integer> fills = new HashMap<Short, Integer>();
+	private final StringBuilder fillsXml = new StringBuilder(
+			"<fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill>");
+	private final Map<String, Integer> numberFormats = new HashMap<String, Integer>();
+	private final StringBuilder numberFormatsXml = new StringBuilder();
+
+	/**
+	 * Returns the index of the cell format matching the passed style and
+	 * data format.
+	 *
+	 * @param style
+	 *            The style of the column, or <code>null</code>.
+	 * @param defaultFormat
+	 *            The data format of the value, e.g. a date format, used if
+	 *            the style doesn't have any, or <code>null</code>.
+	 * @return the index of the cell format, 0 for the default one.
+	 */
+	int indexOf(ExcelCellStyle style, String defaultFormat) {
+		String format = style != null && style.getDataFormat() != null ? style.getDataFormat() : defaultFormat;
+		if (style == null && format == null) {
+			return 0;
+		}
+
+		List<Object> key = Arrays.<Object> asList(style, format);
+		Integer index = cellFormats.get(key);
+		if (index == null) {
+			index = cellFormats.size() + 1;
+			appendCellFormat(style, format);
+			cellFormats.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the XML of the styles part, without the XML declaration.
+	 */
+	String toXml(String namespace) {
+		StringBuilder sb = new StringBuilder("<styleSheet xmlns=\"").append(namespace).append("\">");
+		if (!numberFormats.isEmpty()) {
+			sb.append("<numFmts count=\"").append(numberFormats.size()).append("\">").append(numberFormatsXml)
+					.append("</numFmts>");
+		}
+		sb.append("<fonts count=\"").append(fonts.size() + 1).append("\">").append(fontsXml).append("</fonts>");
+		sb.append("<fills count=\"").append(fills.size() + 2).append("\">").append(fillsXml).append("</fills>");
+		sb.append("<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>");
+		sb.append("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>");
+		sb.append("<cellXfs count=\"").append(cellFormats.size() + 1).append("\">").append(cellFormatsXml)
+				.append("</cellXfs>");
+		sb.append("<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>");
+		return sb.append("</styleSheet>").toString();
+	}
+
+	private void appendCellFormat(ExcelCellStyle style, String format) {
+		int numberFormatId = format != null ? getNumberFormatId(format) : 0;
+		int fontId = style != null && style.hasFont() ? getFontId(style) : 0;
+		int fillId = style != null && style.getFillColor() != null ? getFillId(style.getFillColor()) : 0;
+		ExcelCellStyle.Alignment alignment = style != null ? style.getAlignment() : null;
+
+		cellFormatsXml.append("<xf numFmtId=\"").append(numberFormatId).append("\" fontId=\"").append(fontId)
+				.append("\" fillId=\"").append(fillId).append("\" borderId=\"0\" xfId=\"0\"");
+		if (numberFormatId > 0) {
+			cellFormatsXml.append(" applyNumberFormat=\"1\"");
+		}
+		if (fontId > 0) {
+			cellFormatsXml.append(" applyFont=\"1\"");
+		}
+		if (fillId > 0) {
+			cellFormatsXml.append(" applyFill=\"1\"");
+		}
+		if (alignment != null) {
+			cellFormatsXml.append(" applyAlignment=\"1\"><alignment horizontal=\"")
+					.append(alignment.name().toLowerCase()).append("\"/></xf>");
+		}
+		else {
+			cellFormatsXml.append("/>");
+		}
+	}
+
+	private int getNumberFormatId(String format) {
+		Integer id = numberFormats.get(format);
+		if (id == null) {
+			id = FIRST_CUSTOM_FORMAT + numberFormats.size();
+			numberFormatsXml.append("<numFmt numFmtId=\"").append(id).append("\" formatCode=\"")
+					.append(XlsxPackageWriter.escapeAttribute(format)).append("\"/>");
+			numberFormats.put(format, id);
+		}
+		return id;
+	}
+
+	private int getFontId(ExcelCellStyle style) {
+		List<Object> key = style.getFontKey();
+		Integer id = fonts.get(key);
+		if (id == null) {
+			id = fonts.size() + 1;
+			fontsXml.append("<font>");
+			if (Boolean.TRUE.equals(style.getBold())) {
+				fontsXml.append("<b/>");
+			}
+			if (Boolean.TRUE.equals(style.getItalic())) {
+				fontsXml.append("<i/>");
+			}
+			fontsXml.append("<sz val=\"")
+					.append(style.getFontSize() != null ? style.getFontSize().intValue() : DEFAULT_FONT_SIZE)
+					.append("\"/>");
+			if (style.getFontColor() != null) {
+				fontsXml.append("<color indexed=\"").append(style.getFontColor().intValue()).append("\"/>");
+			}
+			fontsXml.append("<name val=\"")
+					.append(XlsxPackageWriter.escapeAttribute(style.getFontName() != null ? style.getFontName() : DEFAULT_FONT_NAME))
+					.append("\"/></font>");
+			fonts.put(key, id);
+		}
+		return id;
+	}
+
+	private int getFillId(Short color) {
+		Integer id = fills.get(color);
+		if (id == null) {
+			// The first two fills are reserved by Excel
+			id = fills.size() + 2;
+			fillsXml.append("<fill><patternFill patternType=\"solid\"><fgColor indexed=\"").append(color.intValue())
+					.append("\"/><bgColor indexed=\"64\"/></patternFill></fill>");
+			fills.put(color, id);
+		}
+		return id;
+	}
+}
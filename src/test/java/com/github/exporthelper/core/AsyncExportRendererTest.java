@@ -0,0 +1,318 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.mock.Mock;
+import com.github.exporthelper.mock.Person;
+
+/**
+ * Test the asynchronous rendering of the exports.
+ */
+public class AsyncExportRendererTest {
+
+	private static final String SLOW = "slow";
+	private static CountDownLatch started;
+	private static CountDownLatch released;
+	private static AtomicInteger rendered;
+
+	private ExportConf exportConf;
+	private HtmlTable table;
+	private AsyncRequest request;
+	private MockHttpServletResponse response;
+
+	@Before
+	public void setup() {
+		exportConf = new ExportConf(ReservedFormat.CSV);
+		table = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id")
+				.build();
+		request = new AsyncRequest();
+		response = new MockHttpServletResponse();
+		started = new CountDownLatch(1);
+		released = new CountDownLatch(1);
+		rendered = new AtomicInteger();
+		ExportRegistry.register(new ExportFactory() {
+
+			@Override
+			public String getFormat() {
+				return SLOW;
+			}
+
+			@Override
+			public DatatablesExport newExport() {
+				return new SlowExport();
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		ExportRegistry.unregister(SLOW);
+	}
+
+	@Test
+	public void should_render_the_export_on_the_executor() throws Exception {
+		request.setAsyncSupported(true);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		new AsyncExportRenderer(executor).renderExport(table, exportConf, request, response);
+		executor.shutdown();
+		assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(response.getContentAsString()).startsWith("Id\r\n1\r\n");
+		assertThat(request.isAsyncStarted()).isFalse();
+	}
+
+	@Test
+	public void should_render_the_export_synchronously_if_async_is_not_supported() throws Exception {
+		request.setAsyncSupported(false);
+
+		new AsyncExportRenderer(1, 1).renderExport(table, exportConf, request, response);
+
+		assertThat(response.getContentAsString()).startsWith("Id\r\n1\r\n");
+	}
+
+	@Test
+	public void should_reject_the_export_if_the_executor_is_full() {
+		request.setAsyncSupported(true);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+
+		new AsyncExportRenderer(executor).renderExport(table, exportConf, request, response);
+
+		assertThat(response.getStatus()).isEqualTo(503);
+		assertThat(request.isAsyncStarted()).isFalse();
+	}
+
+	@Test
+	public void should_stop_the_export_from_writing_once_timed_out() throws Exception {
+		request.setAsyncSupported(true);
+		ExportConf slowConf = new ExportConf.Builder(SLOW).build();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		new AsyncExportRenderer(executor).renderExport(table, slowConf, request, response);
+		assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+		request.timeout();
+		released.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(rendered.get()).isEqualTo(1);
+		assertThat(response.getStatus()).isEqualTo(503);
+		assertThat(response.getContentAsString()).isEmpty();
+		assertThat(response.getHeader("Content-Disposition")).isNull();
+		assertThat(request.isAsyncStarted()).isFalse();
+	}
+
+	@Test
+	public void should_not_start_an_export_already_timed_out() throws Exception {
+		request.setAsyncSupported(true);
+		ExportConf slowConf = new ExportConf.Builder(SLOW).build();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		// Keeps the only thread busy
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		new AsyncExportRenderer(executor).renderExport(table, slowConf, request, response);
+		request.timeout();
+		released.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(rendered.get()).isEqualTo(0);
+		assertThat(response.getStatus()).isEqualTo(503);
+	}
+
+	/**
+	 * Export waiting to be released, whatever its interruption.
+	 */
+	public static class SlowExport extends CsvExport {
+		@Override
+		public void processExport(OutputStream output) {
+			rendered.incrementAndGet();
+			started.countDown();
+			boolean interrupted = false;
+			while (true) {
+				try {
+					released.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			super.processExport(output);
+		}
+	}
+
+	/**
+	 * The Spring mock doesn't implement the Servlet 3 asynchronous support.
+	 */
+	private static class AsyncRequest extends MockHttpServletRequest {
+
+		private boolean asyncSupported;
+		private volatile boolean asyncStarted;
+		private final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+
+		public void setAsyncSupported(boolean asyncSupported) {
+			this.asyncSupported = asyncSupported;
+		}
+
+		@Override
+		public boolean isAsyncSupported() {
+			return asyncSupported;
+		}
+
+		@Override
+		public boolean isAsyncStarted() {
+			return asyncStarted;
+		}
+
+		/**
+		 * Notifies the listeners as the container does once the timeout has
+		 * expired.
+		 */
+		public void timeout() throws IOException {
+			for (AsyncListener listener : listeners) {
+				listener.onTimeout(null);
+			}
+		}
+
+		@Override
+		public AsyncContext startAsync(final ServletRequest request, final ServletResponse response) {
+			asyncStarted = true;
+
+			return new AsyncContext() {
+
+				private long timeout;
+
+				@Override
+				public ServletRequest getRequest() {
+					return request;
+				}
+
+				@Override
+				public ServletResponse getResponse() {
+					return response;
+				}
+
+				@Override
+				public boolean hasOriginalRequestAndResponse() {
+					return true;
+				}
+
+				@Override
+				public void dispatch() {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void dispatch(String path) {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void dispatch(ServletContext context, String path) {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void complete() {
+					asyncStarted = false;
+				}
+
+				@Override
+				public void start(Runnable run) {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void addListener(AsyncListener listener) {
+					listeners.add(listener);
+				}
+
+				@Override
+				public void addListener(AsyncListener listener, ServletRequest servletRequest,
+						ServletResponse servletResponse) {
+				}
+
+				@Override
+				public <T extends AsyncListener> T createListener(Class<T> clazz) {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void setTimeout(long timeout) {
+					this.timeout = timeout;
+				}
+
+				@Override
+				public long getTimeout() {
+					return timeout;
+				}
+			};
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * Test that the compiled cell formats behave like {@link MessageFormat}.
+ */
+public class CellFormatTest {
+
+	private static final Date DATE = new Date(1408960800000L);
+
+	@Test
+	public void should_format_like_message_format() {
+		assertSameFormat("{0,date,dd-MM-yyyy}", DATE);
+		assertSameFormat("{0,time,HH:mm}", DATE);
+		assertSameFormat("{0,number,#.##}", 3.14159d);
+		assertSameFormat("{0,number,#.##}", new BigDecimal("2.5"));
+		assertSameFormat("{0,date,short}", DATE);
+		assertSameFormat("Born on {0,date,dd/MM}", DATE);
+		assertSameFormat("{0}", 1234567L);
+	}
+
+	@Test
+	public void should_not_compile_blank_patterns() {
+		assertThat(CellFormat.compile(null)).isNull();
+		assertThat(CellFormat.compile(" ")).isNull();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void should_reject_values_of_the_wrong_type() {
+		CellFormat.compile("{0,number,#.##}").format("text");
+	}
+
+	private void assertSameFormat(String pattern, Object value) {
+		assertThat(CellFormat.compile(pattern).format(value)).isEqualTo(
+				new MessageFormat(pattern).format(new Object[] { value }));
+	}
+}
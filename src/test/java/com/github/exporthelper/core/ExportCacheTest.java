@@ -0,0 +1,172 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.mock.Mock;
+import com.github.exporthelper.mock.Person;
+
+/**
+ * Test the cache of rendered exports.
+ */
+public class ExportCacheTest {
+
+	private static final AtomicInteger renderings = new AtomicInteger();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ExportConf exportConf;
+	private HtmlTable table;
+
+	@Before
+	public void setup() {
+		renderings.set(0);
+		exportConf = new ExportConf.Builder(ReservedFormat.CSV).exportClass(CountingExport.class.getName()).build();
+		table = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id")
+				.build();
+	}
+
+	private String render(ExportCache cache, String dataVersion) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		cache.renderExport(dataVersion, table, exportConf, output);
+		return output.toString();
+	}
+
+	@Test
+	public void should_render_identical_exports_once() throws IOException {
+		ExportCache cache = new ExportCache.Builder().build();
+
+		String first = render(cache, "v1");
+		String second = render(cache, "v1");
+
+		assertThat(second).isEqualTo(first).startsWith("Id\r\n1\r\n");
+		assertThat(renderings.get()).isEqualTo(1);
+		assertThat(cache.getStatistics().getMemoryHits()).isEqualTo(1);
+		assertThat(cache.getStatistics().getMisses()).isEqualTo(1);
+	}
+
+	@Test
+	public void should_render_again_when_the_data_version_or_the_configuration_changes() throws IOException {
+		ExportCache cache = new ExportCache.Builder().build();
+
+		render(cache, "v1");
+		render(cache, "v2");
+		exportConf.setIncludeHeader(false);
+		render(cache, "v2");
+
+		assertThat(renderings.get()).isEqualTo(3);
+	}
+
+	@Test
+	public void should_key_the_exports_on_the_properties_changing_their_bytes() {
+		ExportConf named = new ExportConf.Builder(ReservedFormat.CSV).exportClass(CountingExport.class.getName())
+				.fileName("persons").build();
+		named.setLabel("Persons");
+		ExportConf comma = new ExportConf.Builder(ReservedFormat.CSV).exportClass(CountingExport.class.getName())
+				.separator(',').build();
+
+		assertThat(ExportCache.key("v1", table, named)).isEqualTo(ExportCache.key("v1", table, exportConf));
+		assertThat(ExportCache.key("v1", table, comma)).isNotEqualTo(ExportCache.key("v1", table, exportConf));
+	}
+
+	@Test
+	public void should_not_share_a_key_between_tables_filled_differently() {
+		HtmlTable byFirstName = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("firstName").title("Name")
+				.build();
+		HtmlTable byLastName = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("lastName").title("Name")
+				.build();
+		HtmlTable byYear = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("birthDate", "{0,date,yyyy}").title("Birth")
+				.build();
+		HtmlTable byDay = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("birthDate", "{0,date,dd/MM/yyyy}").title("Birth")
+				.build();
+
+		assertThat(ExportCache.key("v1", byFirstName, exportConf)).isNotEqualTo(
+				ExportCache.key("v1", byLastName, exportConf));
+		assertThat(ExportCache.key("v1", byYear, exportConf)).isNotEqualTo(ExportCache.key("v1", byDay, exportConf));
+		assertThat(ExportCache.key("v1", byYear, exportConf)).isEqualTo(ExportCache.key("v1", byYear, exportConf));
+	}
+
+	@Test
+	public void should_serve_the_exports_from_the_disk_tier() throws IOException {
+		File dir = folder.newFolder();
+		String first = render(new ExportCache.Builder().directory(dir).build(), "v1");
+
+		// A new cache only has the disk tier filled
+		ExportCache cache = new ExportCache.Builder().directory(dir).build();
+		assertThat(render(cache, "v1")).isEqualTo(first);
+
+		assertThat(renderings.get()).isEqualTo(1);
+		assertThat(cache.getStatistics().getDiskHits()).isEqualTo(1);
+		assertThat(cache.getStatistics().getDiskEntries()).isEqualTo(1);
+	}
+
+	@Test
+	public void should_evict_the_least_recently_used_exports() throws IOException {
+		int size = render(new ExportCache.Builder().build(), "v0").length();
+		ExportCache cache = new ExportCache.Builder().memoryCapacity(2 * size).build();
+
+		render(cache, "v1");
+		render(cache, "v2");
+		render(cache, "v1");
+		render(cache, "v3");
+
+		assertThat(cache.getStatistics().getEvictions()).isEqualTo(1);
+		assertThat(cache.getStatistics().getMemoryEntries()).isEqualTo(2);
+		render(cache, "v1");
+		assertThat(cache.getStatistics().getMemoryHits()).isEqualTo(2);
+	}
+
+	public static class CountingExport extends CsvExport {
+		@Override
+		public void processExport(OutputStream output) {
+			renderings.incrementAndGet();
+			super.processExport(output);
+		}
+	}
+}
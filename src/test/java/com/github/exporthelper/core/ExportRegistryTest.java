@@ -0,0 +1,99 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.extras.poi.XlsExport;
+
+/**
+ * Test the resolution of the export classes.
+ */
+public class ExportRegistryTest {
+
+	@After
+	public void tearDown() {
+		ExportRegistry.unregister(ReservedFormat.CSV);
+		ExportRegistry.reset();
+	}
+
+	@Test
+	public void should_resolve_the_default_export_classes() {
+		assertThat(ExportRegistry.newExport(new ExportConf(ReservedFormat.CSV))).isInstanceOf(CsvExport.class);
+		assertThat(ExportRegistry.newExport(new ExportConf(ReservedFormat.XLS))).isInstanceOf(XlsExport.class);
+	}
+
+	@Test
+	public void should_return_the_same_factory_for_the_same_class() {
+		ExportConf exportConf = new ExportConf.Builder("custom").exportClass(new CsvExport()).build();
+
+		assertThat(ExportRegistry.getFactory(exportConf)).isSameAs(ExportRegistry.getFactory(exportConf));
+		assertThat(ExportRegistry.newExport(exportConf)).isNotSameAs(ExportRegistry.newExport(exportConf));
+	}
+
+	@Test
+	public void should_prefer_the_registered_factory_over_the_default_class() {
+		final DatatablesExport export = new XlsExport();
+		ExportRegistry.register(new ExportFactory() {
+
+			@Override
+			public String getFormat() {
+				return ReservedFormat.CSV;
+			}
+
+			@Override
+			public DatatablesExport newExport() {
+				return export;
+			}
+		});
+
+		assertThat(ExportRegistry.newExport(new ExportConf(ReservedFormat.CSV))).isSameAs(export);
+		assertThat(ExportRegistry.newExport(new ExportConf.Builder(ReservedFormat.CSV).exportClass(
+				"com.github.exporthelper.extras.poi.XlsxExport").build())).isNotSameAs(export);
+	}
+
+	@Test
+	public void should_fail_each_time_for_a_missing_class() {
+		ExportConf exportConf = new ExportConf.Builder("custom").exportClass("com.example.MissingExport").build();
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				ExportRegistry.newExport(exportConf);
+				throw new AssertionError("An ExportException was expected");
+			} catch (ExportException e) {
+				assertThat(e.getMessage()).contains("com.example.MissingExport");
+			}
+		}
+	}
+}
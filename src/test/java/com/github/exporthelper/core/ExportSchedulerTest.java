@@ -0,0 +1,194 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.exporthelper.core.ExportScheduler.Lane;
+import com.github.exporthelper.core.exception.ExportRejectedException;
+import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.mock.Mock;
+import com.github.exporthelper.mock.Person;
+
+/**
+ * Test the admission control of the exports.
+ */
+public class ExportSchedulerTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private ExportScheduler scheduler;
+
+	@After
+	public void tearDown() throws InterruptedException {
+		release.countDown();
+		scheduler.shutdown();
+		scheduler.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	private Callable<Void> blockingExport() {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				release.await();
+				return null;
+			}
+		};
+	}
+
+	@Test
+	public void should_estimate_the_cost_from_the_size_and_the_format() {
+		scheduler = new ExportScheduler.Builder().build();
+		ExportConf csv = new ExportConf(ReservedFormat.CSV);
+		ExportConf xlsx = new ExportConf(ReservedFormat.XLSX);
+
+		assertThat(ExportScheduler.estimateCost(1000, 10, csv)).isEqualTo(10000);
+		assertThat(ExportScheduler.estimateCost(1000, 10, xlsx)).isGreaterThan(ExportScheduler.estimateCost(1000, 10, csv));
+
+		HtmlTable table = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, csv)
+				.column().fillWithProperty("id").title("Id")
+				.column().fillWithProperty("lastName").title("Lastname")
+				.build();
+		assertThat(ExportScheduler.estimateCost(table, csv)).isEqualTo(Mock.persons.size() * 2);
+	}
+
+	@Test
+	public void should_charge_the_streaming_engines_like_a_csv_export() {
+		scheduler = new ExportScheduler.Builder().build();
+		ExportConf csv = new ExportConf(ReservedFormat.CSV);
+
+		for (ExportConf.Engine engine : new ExportConf.Engine[] { ExportConf.Engine.STREAMING,
+				ExportConf.Engine.DIRECT }) {
+			for (String format : new String[] { ReservedFormat.XLS, ReservedFormat.XLSX }) {
+				ExportConf exportConf = new ExportConf.Builder(format).engine(engine).autoSize(true).build();
+				assertThat(ExportScheduler.estimateCost(1000, 10, exportConf)).isEqualTo(
+						ExportScheduler.estimateCost(1000, 10, csv));
+			}
+		}
+		ExportConf userModel = new ExportConf.Builder(ReservedFormat.XLSX).engine(ExportConf.Engine.USER_MODEL)
+				.build();
+		assertThat(ExportScheduler.estimateCost(1000, 10, userModel)).isGreaterThan(
+				ExportScheduler.estimateCost(1000, 10, csv));
+	}
+
+	@Test
+	public void should_not_hold_a_thread_while_waiting_for_the_budget() throws Exception {
+		scheduler = new ExportScheduler.Builder().batchThreads(2).batchBudget(10000).interactiveThreshold(0).build();
+
+		scheduler.submit(8000, blockingExport());
+		waitFor(Lane.BATCH, 1);
+		Future<Void> waiting = scheduler.submit(8000, blockingExport());
+
+		assertThat(waiting.isDone()).isFalse();
+		assertThat(scheduler.getQueueDepth(Lane.BATCH)).isEqualTo(1);
+		assertThat(countThreads("export-batch-")).isEqualTo(1);
+		release.countDown();
+		waiting.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void should_run_the_export() throws Exception {
+		scheduler = new ExportScheduler.Builder().build();
+		ExportConf exportConf = new ExportConf(ReservedFormat.CSV);
+		HtmlTable table = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id")
+				.build();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		scheduler.submit(table, exportConf, output).get(10, TimeUnit.SECONDS);
+
+		assertThat(output.toString()).startsWith("Id\r\n1\r\n");
+	}
+
+	@Test
+	public void should_queue_the_exports_exceeding_the_budget() throws Exception {
+		scheduler = new ExportScheduler.Builder().batchThreads(2).batchBudget(10000).interactiveThreshold(0).build();
+
+		scheduler.submit(8000, blockingExport());
+		Future<Void> second = scheduler.submit(8000, blockingExport());
+
+		waitFor(Lane.BATCH, 1);
+		assertThat(scheduler.getRunningCount(Lane.BATCH)).isEqualTo(1);
+		assertThat(scheduler.getQueueDepth(Lane.BATCH)).isEqualTo(1);
+		assertThat(second.isDone()).isFalse();
+
+		release.countDown();
+		second.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void should_reject_the_exports_when_the_lane_is_full() throws Exception {
+		scheduler = new ExportScheduler.Builder().interactiveThreads(1).interactiveQueueCapacity(1).build();
+
+		scheduler.submit(1, blockingExport());
+		waitFor(Lane.INTERACTIVE, 1);
+		scheduler.submit(1, blockingExport());
+
+		try {
+			scheduler.submit(1, blockingExport());
+			throw new AssertionError("An ExportRejectedException was expected");
+		} catch (ExportRejectedException e) {
+			assertThat(scheduler.getQueueDepth(Lane.INTERACTIVE)).isEqualTo(1);
+		}
+
+		// The other lane is not affected
+		scheduler.submit(Long.MAX_VALUE, new Callable<Void>() {
+			@Override
+			public Void call() {
+				return null;
+			}
+		}).get(10, TimeUnit.SECONDS);
+	}
+
+	private int countThreads(String prefix) {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith(prefix) && thread.isAlive()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void waitFor(Lane lane, int running) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (scheduler.getRunningCount(lane) < running && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+}
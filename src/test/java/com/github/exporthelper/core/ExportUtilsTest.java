@@ -0,0 +1,297 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.mock.Mock;
+import com.github.exporthelper.mock.Person;
+
+/**
+ * Test the rendering of the exports in the response.
+ */
+public class ExportUtilsTest {
+
+	private static final String FAILING = "failing";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void tearDown() {
+		ExportRegistry.unregister(FAILING);
+	}
+
+	private HtmlTable newTable(ExportConf exportConf) {
+		return new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id")
+				.column().fillWithProperty("lastName").title("Lastname")
+				.build();
+	}
+
+	@Test
+	public void should_stream_the_same_content_as_the_buffered_export() throws IOException {
+		ExportConf bufferedConf = new ExportConf.Builder(ReservedFormat.CSV).fileName("persons").build();
+		MockHttpServletResponse buffered = new MockHttpServletResponse();
+		ExportUtils.renderExport(newTable(bufferedConf), bufferedConf, buffered);
+
+		ExportConf streamingConf = new ExportConf.Builder(ReservedFormat.CSV).fileName("persons").streaming(true).build();
+		MockHttpServletResponse streamed = new MockHttpServletResponse();
+		ExportUtils.renderExport(newTable(streamingConf), streamingConf, streamed);
+
+		assertThat(streamed.getContentAsString()).isEqualTo(buffered.getContentAsString());
+		assertThat(streamed.getContentType()).isEqualTo("text/csv");
+		assertThat(streamed.getHeader("Content-Disposition")).isEqualTo("attachment; filename=\"persons.csv\"");
+	}
+
+	@Test
+	public void should_reset_the_response_if_the_export_fails_before_it_is_committed() throws IOException {
+		ExportRegistry.register(new ExportFactory() {
+
+			@Override
+			public String getFormat() {
+				return FAILING;
+			}
+
+			@Override
+			public DatatablesExport newExport() {
+				return new FailingExport();
+			}
+		});
+		ExportConf exportConf = new ExportConf.Builder(FAILING).streaming(true).build();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		try {
+			ExportUtils.renderExport(newTable(exportConf), exportConf, response);
+			throw new AssertionError("An ExportException was expected");
+		} catch (ExportException e) {
+			assertThat(e.getMessage()).isEqualTo("Failure");
+		}
+		assertThat(response.isCommitted()).isFalse();
+		assertThat(response.getContentAsString()).isEmpty();
+		assertThat(response.getHeader("Content-Disposition")).isNull();
+	}
+
+	@Test
+	public void should_publish_the_file_under_its_final_name() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.CSV).fileName("persons").build();
+		File dir = folder.newFolder();
+		File previous = new File(dir, "persons.csv");
+		previous.createNewFile();
+
+		FileExportResult result = ExportUtils.renderExport(newTable(exportConf), exportConf, dir, true);
+
+		assertThat(result.getFile()).isEqualTo(previous.getAbsoluteFile());
+		assertThat(result.getSize()).isEqualTo(previous.length()).isGreaterThan(0);
+		assertThat(dir.list()).containsOnly("persons.csv");
+	}
+
+	@Test
+	public void should_publish_an_export_closing_its_stream() throws IOException {
+		// The XLSX export closes the stream it writes to
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.XLSX).fileName("persons").build();
+		File dir = folder.newFolder();
+
+		FileExportResult result = ExportUtils.renderExport(newTable(exportConf), exportConf, dir, true);
+
+		assertThat(result.getSize()).isEqualTo(result.getFile().length()).isGreaterThan(0);
+		FileInputStream input = new FileInputStream(result.getFile());
+		try {
+			XSSFWorkbook workbook = new XSSFWorkbook(input);
+			assertThat(workbook.getSheetAt(0).getRow(0).getCell(1).getStringCellValue()).isEqualTo("Lastname");
+		} finally {
+			input.close();
+		}
+	}
+
+	@Test
+	public void should_publish_the_file_with_the_default_permissions() throws IOException {
+		Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.CSV).fileName("persons").build();
+		File dir = folder.newFolder();
+		// Created as the export files used to be
+		File reference = new File(dir, "reference");
+		new FileOutputStream(reference).close();
+
+		FileExportResult result = ExportUtils.renderExport(newTable(exportConf), exportConf, dir, false);
+
+		assertThat(Files.getPosixFilePermissions(result.getFile().toPath())).isEqualTo(
+				Files.getPosixFilePermissions(reference.toPath()));
+	}
+
+	@Test
+	public void should_keep_the_permissions_of_the_replaced_file() throws IOException {
+		Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.CSV).fileName("persons").build();
+		File dir = folder.newFolder();
+		File previous = new File(dir, "persons.csv");
+		previous.createNewFile();
+		Files.setPosixFilePermissions(previous.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+
+		ExportUtils.renderExport(newTable(exportConf), exportConf, dir, false);
+
+		assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(previous.toPath()))).isEqualTo(
+				"rw-r-----");
+	}
+
+	@Test
+	public void should_remove_the_temporary_file_if_the_export_fails() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder("custom").exportClass(FailingExport.class.getName()).build();
+		File dir = folder.newFolder();
+
+		try {
+			ExportUtils.renderExport(newTable(exportConf), exportConf, dir, false);
+			throw new AssertionError("An ExportException was expected");
+		} catch (ExportException e) {
+			assertThat(dir.list()).isEmpty();
+		}
+	}
+
+	public static class FailingExport extends CsvExport {
+		@Override
+		public void processExport(OutputStream output) {
+			try {
+				output.write("partial".getBytes());
+			} catch (IOException e) {
+				throw new ExportException(e);
+			}
+			throw new ExportException("Failure");
+		}
+	}
+
+	@Test
+	public void should_compress_the_text_exports_if_the_client_accepts_it() throws IOException {
+		ExportConf exportConf = new ExportConf(ReservedFormat.CSV);
+		MockHttpServletResponse uncompressed = new MockHttpServletResponse();
+		ExportUtils.renderExport(newTable(exportConf), exportConf, uncompressed);
+
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Accept-Encoding", "deflate, gzip;q=0.8");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		ExportUtils.renderExport(newTable(exportConf), exportConf, request, response);
+
+		assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+		assertThat(response.getHeader("Vary")).isEqualTo("Accept-Encoding");
+		GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()));
+		assertThat(new String(IOUtils.toByteArray(input))).isEqualTo(uncompressed.getContentAsString());
+	}
+
+	@Test
+	public void should_not_compress_the_binary_exports() {
+		ExportConf exportConf = new ExportConf(ReservedFormat.XLSX);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Accept-Encoding", "gzip");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		ExportUtils.renderExport(newTable(exportConf), exportConf, request, response);
+
+		assertThat(response.getHeader("Content-Encoding")).isNull();
+		assertThat(response.getContentAsByteArray()[0]).isEqualTo((byte) 'P');
+	}
+
+	@Test
+	public void should_negotiate_gzip() {
+		assertThat(ExportUtils.acceptsGzip("gzip, deflate")).isTrue();
+		assertThat(ExportUtils.acceptsGzip("br;q=1.0, *;q=0.5")).isTrue();
+		assertThat(ExportUtils.acceptsGzip("gzip;q=0, *")).isFalse();
+		assertThat(ExportUtils.acceptsGzip("identity")).isFalse();
+		assertThat(ExportUtils.acceptsGzip(null)).isFalse();
+		assertThat(ExportUtils.isCompressible("text/csv; charset=UTF-8")).isTrue();
+		assertThat(ExportUtils.isCompressible("application/json")).isTrue();
+		assertThat(ExportUtils.isCompressible("application/pdf")).isFalse();
+	}
+
+	@Test
+	public void should_split_the_export_into_a_zip_of_parts() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.CSV).fileName("persons").maxRowsPerPart(400)
+				.build();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		ExportUtils.renderExport(newTable(exportConf), exportConf, response);
+
+		assertThat(response.getContentType()).isEqualTo("application/zip");
+		assertThat(response.getHeader("Content-Disposition")).isEqualTo("attachment; filename=\"persons.zip\"");
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(response.getContentAsByteArray()));
+		List<String> names = new ArrayList<String>();
+		int rows = 0;
+		for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+			names.add(entry.getName());
+			String[] lines = new String(IOUtils.toByteArray(zip)).split("\r\n");
+			assertThat(lines[0]).isEqualTo("Id;Lastname");
+			rows += lines.length - 1;
+		}
+		assertThat(names).containsExactly("persons-part001.csv", "persons-part002.csv", "persons-part003.csv");
+		assertThat(rows).isEqualTo(Mock.persons.size());
+	}
+
+	@Test
+	public void should_split_the_export_into_files() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.CSV).fileName("persons").maxBytesPerPart(2000L)
+				.build();
+		File dir = folder.newFolder();
+
+		List<FileExportResult> results = ExportUtils.renderParts(newTable(exportConf), exportConf, dir);
+
+		assertThat(results.size()).isGreaterThan(1);
+		for (FileExportResult result : results) {
+			assertThat(result.getFile().getParentFile()).isEqualTo(dir);
+			// The limit applies to what the exporter has flushed so far
+			assertThat(result.getSize()).isLessThan(2000L + 8192 + 100);
+		}
+		assertThat(results.get(0).getFile().getName()).isEqualTo("persons-part001.csv");
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.html.HtmlRow;
+import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.mock.Mock;
+import com.github.exporthelper.mock.Person;
+
+/**
+ * Test the export of a table in several formats at once.
+ */
+public class FanOutExportTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HtmlTableBuilder.BuildStep newBuilder(ExportConf exportConf) {
+		return new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id")
+				.column().fillWithProperty("lastName").title("Lastname");
+	}
+
+	@Test
+	public void should_export_the_table_in_each_format() throws IOException {
+		ExportConf csv = new ExportConf(ReservedFormat.CSV);
+		ExportConf xls = new ExportConf(ReservedFormat.XLS);
+		HtmlTable table = newBuilder(csv).build();
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ExportUtils.renderExport(newBuilder(csv).buildSource(), csv, expected);
+
+		ByteArrayOutputStream csvOutput = new ByteArrayOutputStream();
+		ByteArrayOutputStream xlsOutput = new ByteArrayOutputStream();
+		new FanOutExport().add(csv, csvOutput).add(xls, xlsOutput).export(table);
+
+		assertThat(csvOutput.toString()).isEqualTo(expected.toString());
+		HSSFWorkbook workbook = new HSSFWorkbook(new ByteArrayInputStream(xlsOutput.toByteArray()));
+		assertThat(workbook.getSheetAt(0).getLastRowNum()).isEqualTo(Mock.persons.size());
+	}
+
+	@Test
+	public void should_export_a_source_to_files() throws IOException {
+		ExportConf csv = new ExportConf.Builder(ReservedFormat.CSV).fileName("persons").build();
+		ExportConf xlsx = new ExportConf.Builder(ReservedFormat.XLSX).fileName("persons").autoSize(false).build();
+		File dir = folder.newFolder();
+
+		List<FileExportResult> results = new FanOutExport().add(csv, dir).add(xlsx, dir)
+				.export(newBuilder(csv).buildSource());
+
+		assertThat(results).hasSize(2);
+		assertThat(results.get(0).getFile().getName()).isEqualTo("persons.csv");
+		assertThat(results.get(1).getFile().getName()).isEqualTo("persons.xlsx");
+		assertThat(dir.list()).containsOnly("persons.csv", "persons.xlsx");
+	}
+
+	@Test
+	public void should_export_each_target_with_its_own_configuration() {
+		ExportConf tableConf = new ExportConf.Builder(ReservedFormat.CSV).separator(';').build();
+		ExportConf comma = new ExportConf.Builder(ReservedFormat.CSV).separator(',').build();
+		ExportConf tab = new ExportConf.Builder(ReservedFormat.CSV).separator('\t').build();
+		HtmlTable table = newBuilder(tableConf).build();
+		Map<String, ExportConf> exportConfs = new HashMap<String, ExportConf>(table.getExportConfiguration());
+
+		ByteArrayOutputStream commaOutput = new ByteArrayOutputStream();
+		ByteArrayOutputStream tabOutput = new ByteArrayOutputStream();
+		new FanOutExport().add(comma, commaOutput).add(tab, tabOutput).export(table);
+
+		assertThat(commaOutput.toString()).startsWith("Id,Lastname");
+		assertThat(tabOutput.toString()).startsWith("Id\tLastname");
+		assertThat(table.getExportConfiguration()).isEqualTo(exportConfs);
+		assertThat(table.getExportConfiguration().get(ReservedFormat.CSV).getSeparator()).isEqualTo(';');
+	}
+
+	@Test
+	public void should_complete_the_other_exports_if_one_fails() {
+		ExportConf csv = new ExportConf(ReservedFormat.CSV);
+		ExportConf failing = new ExportConf.Builder(ReservedFormat.CSV).exportClass(FailingExport.class.getName())
+				.build();
+		ByteArrayOutputStream csvOutput = new ByteArrayOutputStream();
+
+		try {
+			new FanOutExport().add(failing, new ByteArrayOutputStream()).add(csv, csvOutput)
+					.export(newBuilder(csv).build());
+			throw new AssertionError("An ExportException was expected");
+		} catch (ExportException e) {
+			assertThat(e.getCause()).hasMessage("Failure");
+		}
+		assertThat(csvOutput.toString().split("\n")).hasSize(Mock.persons.size() + 1);
+	}
+
+	public static class FailingExport extends CsvExport {
+		@Override
+		public void exportRow(HtmlRow row) {
+			throw new ExportException("Failure");
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.github.exporthelper.core.HtmlTableBuilder.BuildStep;
+import com.github.exporthelper.core.html.HtmlRow;
+import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.mock.Mock;
+import com.github.exporthelper.mock.Person;
+
+/**
+ * Test the table builder.
+ */
+public class HtmlTableBuilderTest {
+
+	private BuildStep newBuilder() {
+		return new HtmlTableBuilder<Person>()
+				.newBuilder("tableId", Mock.persons, null, new ExportConf(ReservedFormat.CSV))
+				.column().fillWithProperty("id").title("Id")
+				.column().fillWithProperty("lastName").and(" ").andProperty("firstName").title("Name")
+				.column().fillWithProperty("address.town.name", null, "n/a").title("City");
+	}
+
+	@Test
+	public void should_build_the_same_rows_in_parallel() {
+		HtmlTable expected = newBuilder().build();
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			HtmlTable actual = newBuilder().parallel(executor, 7).build();
+
+			assertThat(contentOf(actual.getBodyRows())).isEqualTo(contentOf(expected.getBodyRows()));
+			assertThat(actual.getBodyRows()).hasSize(Mock.persons.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void should_build_the_rows_of_rejected_chunks_on_the_calling_thread() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+
+		HtmlTable table = newBuilder().parallel(executor, 100).build();
+
+		assertThat(table.getBodyRows()).hasSize(Mock.persons.size());
+		assertThat(table.getBodyRows().get(0).getColumns().get(2).getContent().toString()).isEqualTo("n/a");
+	}
+
+	@Test
+	public void should_keep_the_type_of_single_property_columns() {
+		HtmlTable table = newBuilder().build();
+		HtmlRow row = table.getBodyRows().get(0);
+
+		assertThat(row.getColumns().get(0).getValue()).isEqualTo(1L);
+		assertThat(row.getColumns().get(0).getContent().toString()).isEqualTo("1");
+		assertThat(row.getColumns().get(1).getValue()).isEqualTo("Maldonado Selma");
+	}
+
+	@Test
+	public void should_format_the_typed_values_with_the_column_pattern() {
+		HtmlTable table = new HtmlTableBuilder<Person>()
+				.newBuilder("tableId", Mock.persons, null, new ExportConf(ReservedFormat.CSV))
+				.column().fillWithProperty("id", "{0,number,000}").title("Id")
+				.build();
+
+		assertThat(table.getBodyRows().get(0).getColumns().get(0).getValue()).isEqualTo("001");
+	}
+
+	private String contentOf(List<HtmlRow> rows) {
+		StringBuilder content = new StringBuilder();
+		for (HtmlRow row : rows) {
+			for (int i = 0; i < row.getColumns().size(); i++) {
+				content.append(row.getColumns().get(i).getContent()).append('|');
+			}
+			content.append('\n');
+		}
+		return content.toString();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core.html;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.github.exporthelper.core.ReservedFormat;
+
+/**
+ * Test the columnar storage of the body rows.
+ */
+public class HtmlTableBodyTest {
+
+	private HtmlTable table = new HtmlTable("dummyId", null, null);
+
+	@Test
+	public void should_store_rows_of_different_lengths() {
+		table.addRow().addColumns("1", "Selma", "Maldonado");
+		table.addRow().addColumns("2");
+		table.getLastBodyRow().addColumn("Salas");
+
+		assertThat(table.getBodyRows()).hasSize(2);
+		assertThat(table.getBody().getColumnCount()).isEqualTo(3);
+		assertThat(table.getBodyRows().get(0).getColumns()).hasSize(3);
+		assertThat(table.getBodyRows().get(1).getColumns()).hasSize(2);
+		assertThat(table.getBody().getContent(1, 1)).isEqualTo("Salas");
+		assertThat(table.getBody().getContent(1, 2)).isNull();
+	}
+
+	@Test
+	public void should_filter_columns_by_display_type() {
+		HtmlRow row = table.addRow();
+		row.addColumn("1");
+		row.addColumn("Maldonado", ReservedFormat.HTML);
+		row.addColumn("venenatis@Duisvolutpat.com", ReservedFormat.CSV);
+
+		assertThat(row.getColumns(ReservedFormat.ALL, ReservedFormat.CSV)).hasSize(2);
+		assertThat(table.getBody().isEnabled(0, 1, ReservedFormat.ALL, ReservedFormat.CSV)).isFalse();
+	}
+
+	@Test
+	public void should_update_the_body_through_the_views() {
+		table.addRow().addColumns("1", "Selma");
+		HtmlColumn column = table.getLastBodyRow().getLastColumn();
+		column.addContent(" M.");
+
+		assertThat(table.getBody().getContent(0, 1)).isEqualTo("Selma M.");
+		assertThat(table.getLastBodyRow().getColumns().get(1).getContent().toString()).isEqualTo("Selma M.");
+	}
+
+	@Test
+	public void should_update_the_display_types_through_the_views() {
+		table.addRow().addColumns("1", "Selma");
+		table.addRow().addColumns("2", "Salas");
+		HtmlColumn column = table.getBodyRows().get(0).getColumns().get(1);
+		column.getEnabledDisplayTypes().add(ReservedFormat.CSV);
+		column.getEnabledDisplayTypes().remove(ReservedFormat.ALL);
+
+		assertThat(table.getBody().getEnabledDisplayTypes(0, 1)).containsOnly(ReservedFormat.CSV);
+		assertThat(table.getBody().getEnabledDisplayTypes(1, 1)).containsOnly(ReservedFormat.ALL);
+		assertThat(table.getBody().isEnabled(0, 1, ReservedFormat.ALL)).isFalse();
+
+		Iterator<String> types = column.getEnabledDisplayTypes().iterator();
+		types.next();
+		types.remove();
+		assertThat(column.getEnabledDisplayTypes()).isEmpty();
+	}
+
+	@Test
+	public void should_copy_added_rows() {
+		HtmlRow row = new HtmlRow();
+		row.addColumns("1", "Selma");
+		table.addRows(row);
+		row.addColumn("Maldonado");
+
+		assertThat(table.getBodyRows().get(0).getColumns()).hasSize(2);
+	}
+}
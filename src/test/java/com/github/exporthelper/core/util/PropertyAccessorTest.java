@@ -0,0 +1,79 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.core.util;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.exporthelper.mock.Address;
+import com.github.exporthelper.mock.Person;
+import com.github.exporthelper.mock.Town;
+
+/**
+ * Test the compiled property accessors.
+ */
+public class PropertyAccessorTest {
+
+	private Person person = new Person(1L, "Selma", "Maldonado", "venenatis@Duisvolutpat.com", new Address(
+			"947-3605 Feugiat. St.", new Town("Denny")));
+
+	@Test
+	public void should_read_simple_and_nested_properties() {
+		assertThat(PropertyAccessor.getProperty(person, "id")).isEqualTo(1L);
+		assertThat(PropertyAccessor.getProperty(person, "address.town.name")).isEqualTo("Denny");
+	}
+
+	@Test
+	public void should_not_find_a_property_behind_a_null_value() {
+		person.setAddress(null);
+		assertThat(PropertyAccessor.getProperty(person, "address.town.name")).isSameAs(PropertyAccessor.NOT_FOUND);
+		assertThat(PropertyAccessor.getProperty(person, "birthDate")).isNull();
+		assertThat(PropertyAccessor.getProperty(null, "id")).isSameAs(PropertyAccessor.NOT_FOUND);
+	}
+
+	@Test
+	public void should_cache_unknown_properties() {
+		PropertyAccessor accessor = PropertyAccessor.forProperty(Person.class, "unknown");
+		assertThat(accessor.isResolvable()).isFalse();
+		assertThat(accessor.getValue(person)).isSameAs(PropertyAccessor.NOT_FOUND);
+		assertThat(PropertyAccessor.forProperty(Person.class, "unknown")).isSameAs(accessor);
+	}
+
+	@Test
+	public void should_read_map_entries() {
+		Map<String, Object> bean = new HashMap<String, Object>();
+		bean.put("person", person);
+		assertThat(PropertyAccessor.getProperty(bean, "person.address.town.name")).isEqualTo("Denny");
+	}
+}
@@ -31,14 +31,28 @@ package com.github.exporthelper.export;
 
 import static org.fest.assertions.Assertions.assertThat;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.springframework.util.StringUtils;
 
 import com.github.exporthelper.core.CsvExport;
 import com.github.exporthelper.core.ExportConf;
+import com.github.exporthelper.core.ExportUtils;
+import com.github.exporthelper.core.HtmlTableBuilder;
+import com.github.exporthelper.core.HtmlTableBuilder.BuildStep;
+import com.github.exporthelper.core.html.HtmlRow;
+import com.github.exporthelper.core.html.HtmlTable;
 import com.github.exporthelper.mock.Mock;
+import com.github.exporthelper.mock.Person;
 
 /**
  * Test the CSV export.
@@ -86,6 +100,167 @@ public class CsvExportTest extends ExportTest {
 		processExport(new CsvExport());
 		
 		String firstLine = new Scanner(new String(baos.toByteArray())).nextLine();
-		assertThat(StringUtils.countOccurrencesOf(firstLine, ";")).isEqualTo(4);
+		assertThat(StringUtils.countOccurrencesOf(firstLine, ";")).isEqualTo(3);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void should_stream_the_same_content_as_the_built_table() {
+
+		ExportConf exportConf = new ExportConf.Builder("csv").header(true).exportClass(new CsvExport()).build();
+		BuildStep builder = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id")
+				.column().fillWithProperty("firstName").title("FirstName")
+				.column().fillWithProperty("address.town.name").title("City");
+
+		table = builder.build();
+		processExport(new CsvExport());
+
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		ExportUtils.renderExport(builder.buildSource(), exportConf, streamed);
+
+		assertThat(new String(streamed.toByteArray())).isEqualTo(new String(baos.toByteArray()));
+		assertThat(new String(streamed.toByteArray()).split("\n")).hasSize(Mock.persons.size() + 1);
+	}
+
+	@Test
+	public void should_quote_the_cells_containing_special_characters() throws UnsupportedEncodingException {
+
+		table = new HtmlTable("dummyId", null, null);
+		table.addHeaderRow();
+		table.getLastHeaderRow().addColumn("Id");
+		table.getLastHeaderRow().addColumn("Comment");
+		table.addRow();
+		table.getLastBodyRow().addColumn("1");
+		table.getLastBodyRow().addColumn("semi;colon");
+		table.addRow();
+		table.getLastBodyRow().addColumn("2");
+		table.getLastBodyRow().addColumn("say \"hi\"\nthen leave");
+		configureExport(new ExportConf.Builder("csv").build());
+		processExport(new CsvExport());
+
+		assertThat(baos.toString("UTF-8")).isEqualTo(
+				"Id;Comment\r\n1;\"semi;colon\"\r\n2;\"say \"\"hi\"\"\nthen leave\"\r\n");
+	}
+
+	@Test
+	public void should_use_the_configured_separator_line_ending_and_charset() throws UnsupportedEncodingException {
+
+		table = new HtmlTable("dummyId", null, null);
+		table.addHeaderRow();
+		table.getLastHeaderRow().addColumn("Ville");
+		table.getLastHeaderRow().addColumn("Pays");
+		table.addRow();
+		table.getLastBodyRow().addColumn("Besançon, Doubs");
+		table.getLastBodyRow().addColumn("France");
+		configureExport(new ExportConf.Builder("csv").separator(',').quoteChar('\'').lineEnding("\n")
+				.charset("ISO-8859-1").bom(false).build());
+		processExport(new CsvExport());
+
+		assertThat(baos.toString("ISO-8859-1")).isEqualTo("Ville,Pays\n'Besançon, Doubs',France\n");
+		assertThat(baos.size()).isEqualTo(baos.toString("ISO-8859-1").length());
+	}
+
+	@Test
+	public void should_start_with_a_byte_order_mark() {
+
+		table = new HtmlTable("dummyId", null, null);
+		table.addHeaderRow();
+		table.getLastHeaderRow().addColumn("Id");
+		configureExport(new ExportConf.Builder("csv").bom(true).build());
+		processExport(new CsvExport());
+
+		assertThat(baos.toByteArray()).isEqualTo(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'I', 'd', '\r', '\n' });
+	}
+
+	@Test
+	public void should_not_start_with_a_byte_order_mark_in_a_non_unicode_charset()
+			throws UnsupportedEncodingException {
+
+		table = new HtmlTable("dummyId", null, null);
+		table.addHeaderRow();
+		table.getLastHeaderRow().addColumn("Id");
+		configureExport(new ExportConf.Builder("csv").charset("windows-1252").bom(true).build());
+		processExport(new CsvExport());
+
+		assertThat(baos.toString("windows-1252")).isEqualTo("Id\r\n");
+	}
+
+	@Test
+	public void should_write_a_single_byte_order_mark_in_utf_16() {
+
+		table = new HtmlTable("dummyId", null, null);
+		table.addHeaderRow();
+		table.getLastHeaderRow().addColumn("Id");
+		configureExport(new ExportConf.Builder("csv").charset("UTF-16").bom(true).build());
+		processExport(new CsvExport());
+
+		assertThat(baos.toByteArray()).isEqualTo(new byte[] { (byte) 0xFE, (byte) 0xFF, 0, 'I', 0, 'd', 0, '\r', 0, '\n' });
+	}
+
+	@Test
+	public void should_not_write_a_byte_order_mark_in_utf_16_unless_configured() {
+
+		for (String charset : new String[] { "UTF-16", "x-UTF-16LE-BOM" }) {
+			table = new HtmlTable("dummyId", null, null);
+			table.addHeaderRow();
+			table.getLastHeaderRow().addColumn("Id");
+			configureExport(new ExportConf.Builder("csv").charset(charset).bom(false).build());
+			processExport(new CsvExport());
+
+			assertThat(baos.size()).as(charset).isEqualTo(8);
+			assertThat(baos.toByteArray()[0] & 0xFF).as(charset).isNotEqualTo(0xFE).isNotEqualTo(0xFF);
+		}
+	}
+
+	@Test
+	public void should_encode_the_rows_in_parallel_in_the_original_order() throws InterruptedException {
+
+		initDefaultTable();
+		configureExport(new ExportConf.Builder("csv").build());
+		processExport(new CsvExport());
+		byte[] sequential = baos.toByteArray();
+
+		// A single thread and a tiny queue, so that some chunks are rejected
+		ExecutorService executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(1));
+		try {
+			for (int i = 0; i < 3; i++) {
+				table.getBodyRows().addAll(new ArrayList<HtmlRow>(table.getBodyRows()));
+			}
+			configureExport(new ExportConf.Builder("csv").parallelism(4).build());
+			processExport(new CsvExport(executor));
+		} finally {
+			executor.shutdown();
+		}
+
+		String[] lines = new String(baos.toByteArray()).split("\r\n");
+		assertThat(lines).hasSize(8 * Mock.persons.size() + 1);
+		String body = new String(sequential).substring(lines[0].length() + 2);
+		StringBuilder expected = new StringBuilder(lines[0]).append("\r\n");
+		for (int i = 0; i < 8; i++) {
+			expected.append(body);
+		}
+		assertThat(new String(baos.toByteArray())).isEqualTo(expected.toString());
+	}
+
+	@Test
+	public void should_encode_the_rows_in_parallel_in_utf_16_without_any_byte_order_mark() {
+
+		table = new HtmlTable("dummyId", null, null);
+		table.addHeaderRow();
+		table.getLastHeaderRow().addColumn("Id");
+		for (int i = 0; i < 2500; i++) {
+			table.addRow();
+			table.getLastBodyRow().addColumn(String.valueOf(i));
+		}
+		configureExport(new ExportConf.Builder("csv").charset("UTF-16").bom(false).build());
+		processExport(new CsvExport());
+		byte[] sequential = baos.toByteArray();
+
+		configureExport(new ExportConf.Builder("csv").charset("UTF-16").bom(false).parallelism(4).build());
+		processExport(new CsvExport());
+
+		assertThat(baos.toByteArray()).isEqualTo(sequential);
+		assertThat(new String(sequential, Charset.forName("UTF-16BE"))).doesNotContain("\uFEFF");
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.export;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.github.exporthelper.core.ExportConf;
+import com.github.exporthelper.core.ReservedFormat;
+import com.github.exporthelper.core.exception.ExportException;
+import com.github.exporthelper.core.html.HtmlRow;
+import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.extras.itext.PdfExport;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+/**
+ * Test the PDF export.
+ */
+public class PdfExportTest {
+
+	@Test
+	public void should_write_the_pages_while_the_rows_are_exported() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.PDF).fileName("Persons").rowAccessWindow(50)
+				.build();
+		HtmlTable table = new HtmlTable("tableId", null, null);
+		table.getExportConfiguration().put(ReservedFormat.PDF, exportConf);
+		table.addHeaderRow().addHeaderColumns("Id", "Name");
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PdfExport export = new PdfExport();
+		export.beginExport(table, output);
+		int writtenAtBegin = output.size();
+		for (int i = 0; i < 500; i++) {
+			HtmlRow row = new HtmlRow();
+			row.addColumns(String.valueOf(i), "Name " + i);
+			export.exportRow(row);
+		}
+		int writtenBeforeEnd = output.size();
+		export.endExport();
+
+		assertThat(writtenBeforeEnd).isGreaterThan(writtenAtBegin);
+		PdfReader reader = new PdfReader(output.toByteArray());
+		assertThat(reader.getNumberOfPages()).isGreaterThan(1);
+		String lastPage = PdfTextExtractor.getTextFromPage(reader, reader.getNumberOfPages());
+		assertThat(lastPage).contains("Id").contains("Name 499");
+		reader.close();
+	}
+
+	@Test
+	public void should_flush_the_rows_with_a_non_positive_row_access_window() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.PDF).rowAccessWindow(-1).build();
+		HtmlTable table = new HtmlTable("tableId", null, null);
+		table.getExportConfiguration().put(ReservedFormat.PDF, exportConf);
+		table.addHeaderRow().addHeaderColumns("Id", "Name");
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PdfExport export = new PdfExport();
+		export.beginExport(table, output);
+		int writtenAtBegin = output.size();
+		for (int i = 0; i < 500; i++) {
+			HtmlRow row = new HtmlRow();
+			row.addColumns(String.valueOf(i), "Name " + i);
+			export.exportRow(row);
+		}
+
+		assertThat(output.size()).isGreaterThan(writtenAtBegin);
+		export.endExport();
+	}
+
+	@Test
+	public void should_close_the_document_of_an_aborted_export() {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.PDF).build();
+		HtmlTable table = new HtmlTable("tableId", null, null);
+		table.getExportConfiguration().put(ReservedFormat.PDF, exportConf);
+		table.addHeaderRow().addHeaderColumns("Id", "Name");
+		table.addRow().addColumns("1", "Name 1");
+		table.addRow().addColumns("2");
+
+		final AtomicBoolean closed = new AtomicBoolean();
+		OutputStream output = new ByteArrayOutputStream() {
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+		PdfExport export = new PdfExport() {
+			@Override
+			public void exportRow(HtmlRow htmlRow) {
+				if (htmlRow.getColumns().size() != 2) {
+					throw new ExportException("Incomplete row");
+				}
+				super.exportRow(htmlRow);
+			}
+		};
+		export.initExport(table);
+
+		try {
+			export.processExport(output);
+			throw new AssertionError("An ExportException was expected");
+		} catch (ExportException e) {
+			assertThat(e).hasMessage("Incomplete row");
+		}
+		assertThat(closed.get()).isTrue();
+	}
+}
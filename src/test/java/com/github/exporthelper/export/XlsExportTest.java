@@ -1,17 +1,36 @@
 package com.github.exporthelper.export;
 
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
 import java.util.List;
 
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 
+import com.github.exporthelper.core.ExcelCellStyle;
+import com.github.exporthelper.core.ExcelCellStyle.Alignment;
 import com.github.exporthelper.core.ExportConf;
 import com.github.exporthelper.core.ExportUtils;
 import com.github.exporthelper.core.HtmlTableBuilder;
+import com.github.exporthelper.core.ReservedFormat;
+import com.github.exporthelper.core.html.HtmlRow;
 import com.github.exporthelper.core.html.HtmlTable;
 import com.github.exporthelper.extras.poi.XlsExport;
 import com.github.exporthelper.mock.Mock;
@@ -82,4 +101,178 @@ public class XlsExportTest {
 
 	}
 
+	@Test
+	public void should_write_typed_values_as_native_cells() throws IOException {
+		ExportConf exportConf = new ExportConf(ReservedFormat.XLS);
+		HtmlTable table = new HtmlTable("tableId", null, null);
+		table.getExportConfiguration().put(ReservedFormat.XLS, exportConf);
+		table.addHeaderRow().addColumn("Value");
+
+		Date date = new Date(0);
+		table.addRow().addColumnValue(42L);
+		table.addRow().addColumnValue(new BigDecimal("12.50"));
+		table.addRow().addColumnValue(new BigDecimal("12345678901234567890"));
+		table.addRow().addColumnValue(date);
+		table.addRow().addColumnValue(Boolean.TRUE);
+		table.addRow().addColumn("text");
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XlsExport export = new XlsExport();
+		export.initExport(table);
+		export.processExport(output);
+
+		HSSFWorkbook workbook = new HSSFWorkbook(new ByteArrayInputStream(output.toByteArray()));
+		assertThat(cellAt(workbook, 1).getCellType()).isEqualTo(Cell.CELL_TYPE_NUMERIC);
+		assertThat(cellAt(workbook, 1).getNumericCellValue()).isEqualTo(42d);
+		assertThat(cellAt(workbook, 2).getNumericCellValue()).isEqualTo(12.5d);
+		assertThat(cellAt(workbook, 3).getStringCellValue()).isEqualTo("12345678901234567890");
+		assertThat(DateUtil.isCellDateFormatted(cellAt(workbook, 4))).isTrue();
+		assertThat(cellAt(workbook, 4).getDateCellValue()).isEqualTo(date);
+		assertThat(cellAt(workbook, 5).getBooleanCellValue()).isTrue();
+		assertThat(cellAt(workbook, 6).getStringCellValue()).isEqualTo("text");
+	}
+
+	@Test
+	public void should_roll_over_to_new_sheets_repeating_the_header() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.XLS).fileName("A file name longer than 31 characters")
+				.maxRowsPerSheet(401).autoSize(false).build();
+		HtmlTable table = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id")
+				.build();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XlsExport export = new XlsExport();
+		export.initExport(table);
+		export.processExport(output);
+
+		HSSFWorkbook workbook = new HSSFWorkbook(new ByteArrayInputStream(output.toByteArray()));
+		assertThat(workbook.getNumberOfSheets()).isEqualTo(3);
+		assertThat(workbook.getSheetName(0)).isEqualTo("A file name longer than 31 char");
+		assertThat(workbook.getSheetName(2)).isEqualTo("A file name longer than 31 (3)");
+		assertThat(workbook.getSheetAt(2).getRow(0).getCell(0).getStringCellValue()).isEqualTo("Id");
+		assertThat(workbook.getSheetAt(2).getLastRowNum()).isEqualTo(200);
+	}
+
+	@Test
+	public void should_create_each_column_style_once() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.XLS).maxRowsPerSheet(401).autoSize(false)
+				.build();
+		ExcelCellStyle header = new ExcelCellStyle.Builder().bold(true)
+				.fillColor(IndexedColors.GREY_25_PERCENT.getIndex()).alignment(Alignment.CENTER).build();
+		HtmlTable table = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id").headerStyle(header)
+				.bodyStyle(new ExcelCellStyle.Builder().dataFormat("000000").build())
+				.column().fillWithProperty("birthDate").title("BirthDate").headerStyle(header)
+				.bodyStyle(new ExcelCellStyle.Builder().dataFormat("dd/mm/yyyy").build())
+				.build();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XlsExport export = new XlsExport();
+		export.initExport(table);
+		export.processExport(output);
+
+		HSSFWorkbook workbook = new HSSFWorkbook(new ByteArrayInputStream(output.toByteArray()));
+		int defaultStyles = new HSSFWorkbook().getNumCellStyles();
+		assertThat(workbook.getNumCellStyles()).isEqualTo((short) (defaultStyles + 3));
+
+		CellStyle headerStyle = workbook.getSheetAt(2).getRow(0).getCell(1).getCellStyle();
+		assertThat(headerStyle.getFillForegroundColor()).isEqualTo(IndexedColors.GREY_25_PERCENT.getIndex());
+		assertThat(headerStyle.getAlignment()).isEqualTo(CellStyle.ALIGN_CENTER);
+		assertThat(workbook.getFontAt(headerStyle.getFontIndex()).getBoldweight()).isEqualTo(Font.BOLDWEIGHT_BOLD);
+		assertThat(cellAt(workbook, 1).getCellStyle().getDataFormatString()).isEqualTo("000000");
+		assertThat(workbook.getSheetAt(0).getRow(1).getCell(1).getCellStyle().getDataFormatString()).isEqualTo(
+				"dd/mm/yyyy");
+	}
+
+	@Test
+	public void should_write_the_records_directly_with_the_streaming_engine() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.XLS).engine(ExportConf.Engine.STREAMING)
+				.maxRowsPerSheet(2001).sharedStringsInMemory(100).build();
+		HtmlTable table = new HtmlTable("tableId", null, null);
+		table.getExportConfiguration().put(ReservedFormat.XLS, exportConf);
+		table.addHeaderRow().addHeaderColumns("Value", "Text");
+
+		Date date = new Date(0);
+		addRow(table, 42L, "text");
+		addRow(table, new BigDecimal("12345678901234567890"), "text");
+		addRow(table, date, "");
+		addRow(table, Boolean.TRUE, "Wide text 東京");
+		// Enough distinct strings for the shared strings table to be continued
+		for (int i = 0; i < 3000; i++) {
+			addRow(table, i, (i % 2 == 0 ? "東京 " : "Paris ") + i);
+		}
+		int tempFiles = countTempFiles();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XlsExport export = new XlsExport();
+		export.initExport(table);
+		export.processExport(output);
+
+		assertThat(countTempFiles()).isEqualTo(tempFiles);
+		HSSFWorkbook workbook = new HSSFWorkbook(new ByteArrayInputStream(output.toByteArray()));
+		assertThat(workbook.getNumberOfSheets()).isEqualTo(2);
+		assertThat(workbook.getSheetAt(0).getRow(0).getCell(1).getStringCellValue()).isEqualTo("Text");
+		assertThat(cellAt(workbook, 1).getNumericCellValue()).isEqualTo(42d);
+		assertThat(cellAt(workbook, 2).getStringCellValue()).isEqualTo("12345678901234567890");
+		assertThat(DateUtil.isCellDateFormatted(cellAt(workbook, 3))).isTrue();
+		assertThat(cellAt(workbook, 3).getDateCellValue()).isEqualTo(date);
+		assertThat(cellAt(workbook, 4).getBooleanCellValue()).isTrue();
+		assertThat(workbook.getSheetAt(0).getRow(4).getCell(1).getStringCellValue()).isEqualTo("Wide text 東京");
+		assertThat(workbook.getSheetAt(0).getRow(2000).getCell(1).getStringCellValue()).isEqualTo("Paris 1995");
+		assertThat(workbook.getSheetAt(0).getColumnWidth(1)).isEqualTo((14 + 2) * 256);
+
+		assertThat(workbook.getSheetAt(1).getRow(0).getCell(0).getStringCellValue()).isEqualTo("Value");
+		assertThat(workbook.getSheetAt(1).getLastRowNum()).isEqualTo(1004);
+		assertThat(workbook.getSheetAt(1).getRow(1004).getCell(1).getStringCellValue()).isEqualTo("Paris 2999");
+		assertThat(workbook.getSheetAt(1).getRow(1003).getCell(1).getStringCellValue()).isEqualTo("東京 2998");
+	}
+
+	@Test
+	public void should_style_the_records_written_directly() throws IOException {
+		ExportConf exportConf = new ExportConf.Builder(ReservedFormat.XLS).engine(ExportConf.Engine.DIRECT)
+				.autoSize(false).build();
+		ExcelCellStyle header = new ExcelCellStyle.Builder().bold(true).fontName("Verdana")
+				.fillColor(IndexedColors.GREY_25_PERCENT.getIndex()).alignment(Alignment.CENTER).build();
+		HtmlTable table = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+				.column().fillWithProperty("id").title("Id").headerStyle(header)
+				.bodyStyle(new ExcelCellStyle.Builder().dataFormat("000000").build())
+				.column().fillWithProperty("lastName").title("Lastname").headerStyle(header)
+				.build();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		XlsExport export = new XlsExport();
+		export.initExport(table);
+		export.processExport(output);
+
+		HSSFWorkbook workbook = new HSSFWorkbook(new ByteArrayInputStream(output.toByteArray()));
+		CellStyle headerStyle = workbook.getSheetAt(0).getRow(0).getCell(1).getCellStyle();
+		assertThat(headerStyle.getFillForegroundColor()).isEqualTo(IndexedColors.GREY_25_PERCENT.getIndex());
+		assertThat(headerStyle.getFillPattern()).isEqualTo(CellStyle.SOLID_FOREGROUND);
+		assertThat(headerStyle.getAlignment()).isEqualTo(CellStyle.ALIGN_CENTER);
+		assertThat(workbook.getFontAt(headerStyle.getFontIndex()).getBoldweight()).isEqualTo(Font.BOLDWEIGHT_BOLD);
+		assertThat(workbook.getFontAt(headerStyle.getFontIndex()).getFontName()).isEqualTo("Verdana");
+		assertThat(cellAt(workbook, 1).getCellStyle().getDataFormatString()).isEqualTo("000000");
+		assertThat(workbook.getSheetAt(0).getRow(1).getCell(1).getCellStyle().getIndex()).isEqualTo((short) 15);
+	}
+
+	private void addRow(HtmlTable table, Object value, String text) {
+		HtmlRow row = table.addRow();
+		row.addColumnValue(value);
+		row.addColumn(text);
+	}
+
+	private int countTempFiles() {
+		String[] files = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("exporthelper-");
+			}
+		});
+		return files != null ? files.length : 0;
+	}
+
+	private Cell cellAt(HSSFWorkbook workbook, int rowIndex) {
+		Row row = workbook.getSheetAt(0).getRow(rowIndex);
+		return row.getCell(0);
+	}
 }
\ No newline at end of file
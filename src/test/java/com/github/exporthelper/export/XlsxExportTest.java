@@ -0,0 +1,292 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.export;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import com.github.exporthelper.core.ExcelCellStyle;
+import com.github.exporthelper.core.ExcelCellStyle.Alignment;
+import com.github.exporthelper.core.ExportConf;
+import com.github.exporthelper.core.ExportConf.AutoSizeStrategy;
+import com.github.exporthelper.core.ExportConf.Engine;
+import com.github.exporthelper.core.HtmlTableBuilder;
+import com.github.exporthelper.core.ReservedFormat;
+import com.github.exporthelper.core.html.HtmlTable;
+import com.github.exporthelper.extras.poi.XlsxExport;
+import com.github.exporthelper.mock.Mock;
+import com.github.exporthelper.mock.Person;
+
+/**
+ * Test the XLSX export.
+ */
+public class XlsxExportTest extends ExportTest {
+
+	@Test
+	public void should_stream_the_rows_through_a_window() throws IOException {
+
+		initDefaultTable();
+		configureExport(new ExportConf.Builder(ReservedFormat.XLSX).fileName("persons").engine(Engine.STREAMING)
+				.rowAccessWindow(10).compressTempFiles(true).build());
+		int tempFiles = countTempFiles();
+		processExport(new XlsxExport());
+
+		Sheet sheet = new XSSFWorkbook(new ByteArrayInputStream(baos.toByteArray())).getSheetAt(0);
+		assertThat(sheet.getSheetName()).isEqualTo("persons");
+		assertThat(sheet.getLastRowNum()).isEqualTo(Mock.persons.size());
+		assertThat(sheet.getRow(0).getCell(2).getStringCellValue()).isEqualTo("LastName");
+		assertThat(sheet.getRow(Mock.persons.size()).getCell(2).getStringCellValue()).isEqualTo(
+				Mock.persons.get(Mock.persons.size() - 1).getLastName());
+		assertThat(sheet.getColumnWidth(4)).isGreaterThan(sheet.getDefaultColumnWidth() * 256);
+		assertThat(countTempFiles()).isEqualTo(tempFiles);
+	}
+
+	@Test
+	public void should_delete_the_temporary_files_of_an_aborted_export() {
+
+		initDefaultTable();
+		configureExport(new ExportConf.Builder(ReservedFormat.XLSX).engine(Engine.STREAMING).rowAccessWindow(10)
+				.build());
+		int tempFiles = countTempFiles();
+
+		XlsxExport export = new XlsxExport();
+		export.beginExport(table, new ByteArrayOutputStream());
+		for (int i = 0; i < 100; i++) {
+			export.exportRow(table.getBodyRows().get(i));
+		}
+		assertThat(countTempFiles()).isGreaterThan(tempFiles);
+		export.abortExport();
+
+		assertThat(countTempFiles()).isEqualTo(tempFiles);
+	}
+
+	private int countTempFiles() {
+		String[] files = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("poi-sxssf-");
+			}
+		});
+		return files != null ? files.length : 0;
+	}
+
+	@Test
+	public void should_write_the_package_directly() throws IOException {
+
+		initDefaultTable();
+		configureExport(new ExportConf.Builder(ReservedFormat.XLSX).fileName("persons").engine(Engine.DIRECT)
+				.build());
+		processExport(new XlsxExport());
+
+		Sheet sheet = new XSSFWorkbook(new ByteArrayInputStream(baos.toByteArray())).getSheetAt(0);
+		assertThat(sheet.getSheetName()).isEqualTo("persons");
+		assertThat(sheet.getLastRowNum()).isEqualTo(Mock.persons.size());
+		assertThat(sheet.getRow(0).getCell(4).getStringCellValue()).isEqualTo("Mail");
+		assertThat(sheet.getRow(1).getCell(4).getStringCellValue()).isEqualTo(Mock.persons.get(0).getMail());
+		assertThat(sheet.getColumnWidth(4)).isGreaterThan(sheet.getDefaultColumnWidth() * 256);
+	}
+
+	@Test
+	public void should_write_typed_values_directly() throws IOException {
+
+		table = new HtmlTable("tableId", null, null);
+		table.addHeaderRow().addColumn("Value");
+		Date date = new Date(0);
+		table.addRow().addColumnValue(42L);
+		table.addRow().addColumnValue(new BigDecimal("12345678901234567890"));
+		table.addRow().addColumnValue(date);
+		table.addRow().addColumnValue(LocalDate.of(2014, 8, 27));
+		table.addRow().addColumnValue(Boolean.TRUE);
+		table.addRow().addColumn("<b>Fish & Chips</b>\u0001");
+		configureExport(new ExportConf.Builder(ReservedFormat.XLSX).fileName("[typed]").engine(Engine.DIRECT)
+				.autoSize(false).build());
+		processExport(new XlsxExport());
+
+		Sheet sheet = new XSSFWorkbook(new ByteArrayInputStream(baos.toByteArray())).getSheetAt(0);
+		assertThat(sheet.getSheetName()).isEqualTo("_typed_");
+		assertThat(sheet.getRow(1).getCell(0).getCellType()).isEqualTo(Cell.CELL_TYPE_NUMERIC);
+		assertThat(sheet.getRow(1).getCell(0).getNumericCellValue()).isEqualTo(42d);
+		assertThat(sheet.getRow(2).getCell(0).getStringCellValue()).isEqualTo("12345678901234567890");
+		assertThat(DateUtil.isCellDateFormatted(sheet.getRow(3).getCell(0))).isTrue();
+		assertThat(sheet.getRow(3).getCell(0).getDateCellValue()).isEqualTo(date);
+		assertThat(sheet.getRow(4).getCell(0).getDateCellValue()).isEqualTo(
+				new GregorianCalendar(2014, Calendar.AUGUST, 27).getTime());
+		assertThat(sheet.getRow(5).getCell(0).getBooleanCellValue()).isTrue();
+		assertThat(sheet.getRow(6).getCell(0).getStringCellValue()).isEqualTo("<b>Fish & Chips</b>");
+	}
+
+	@Test
+	public void should_write_the_numbers_the_same_way_with_every_engine() throws IOException {
+
+		table = new HtmlTable("tableId", null, null);
+		table.addHeaderRow().addColumn("Value");
+		table.addRow().addColumnValue(0.1f);
+		table.addRow().addColumnValue(new BigDecimal("1E+400"));
+		for (Engine engine : Engine.values()) {
+			configureExport(new ExportConf.Builder(ReservedFormat.XLSX).engine(engine).autoSize(false).build());
+			processExport(new XlsxExport());
+
+			Sheet sheet = new XSSFWorkbook(new ByteArrayInputStream(baos.toByteArray())).getSheetAt(0);
+			assertThat(sheet.getRow(1).getCell(0).getNumericCellValue()).as(engine.name()).isEqualTo(0.1d);
+			assertThat(sheet.getRow(2).getCell(0).getStringCellValue()).as(engine.name()).isEqualTo("1E+400");
+		}
+	}
+
+	@Test
+	public void should_share_the_repeated_strings() throws IOException {
+
+		initDefaultTable();
+		configureExport(new ExportConf.Builder(ReservedFormat.XLSX).engine(Engine.DIRECT).sharedStrings(true)
+				.sharedStringsInMemory(10).build());
+		processExport(new XlsxExport());
+		byte[] shared = baos.toByteArray();
+
+		configureExport(new ExportConf.Builder(ReservedFormat.XLSX).engine(Engine.DIRECT).build());
+		processExport(new XlsxExport());
+		byte[] inlined = baos.toByteArray();
+
+		Sheet sheet = new XSSFWorkbook(new ByteArrayInputStream(shared)).getSheetAt(0);
+		Sheet expected = new XSSFWorkbook(new ByteArrayInputStream(inlined)).getSheetAt(0);
+		assertThat(sheet.getLastRowNum()).isEqualTo(Mock.persons.size());
+		for (int i = 0; i <= sheet.getLastRowNum(); i++) {
+			for (int j = 1; j < 5; j++) {
+				assertThat(sheet.getRow(i).getCell(j).getStringCellValue()).isEqualTo(
+						expected.getRow(i).getCell(j).getStringCellValue());
+			}
+		}
+	}
+
+	@Test
+	public void should_produce_smaller_files_with_shared_strings() {
+
+		table = new HtmlTable("tableId", null, null);
+		table.addHeaderRow().addColumn("Status");
+		String[] statuses = { "Pending", "Shipped", "Delivered" };
+		for (int i = 0; i < 10000; i++) {
+			table.addRow().addColumn(statuses[i % statuses.length]);
+		}
+
+		configureExport(new ExportConf.Builder(ReservedFormat.XLSX).engine(Engine.DIRECT).sharedStrings(true).build());
+		processExport(new XlsxExport());
+		int shared = baos.size();
+		configureExport(new ExportConf.Builder(ReservedFormat.XLSX).engine(Engine.DIRECT).build());
+		processExport(new XlsxExport());
+
+		assertThat(shared).isLessThan(baos.size());
+	}
+
+	@Test
+	public void should_roll_over_to_new_sheets_repeating_the_header() throws IOException {
+
+		initDefaultTable();
+		for (Engine engine : Engine.values()) {
+			configureExport(new ExportConf.Builder(ReservedFormat.XLSX).fileName("persons").engine(engine)
+					.maxRowsPerSheet(301).build());
+			processExport(new XlsxExport());
+
+			XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(baos.toByteArray()));
+			assertThat(workbook.getNumberOfSheets()).as(engine.name()).isEqualTo(4);
+			for (int i = 0; i < 4; i++) {
+				Sheet sheet = workbook.getSheetAt(i);
+				assertThat(sheet.getSheetName()).isEqualTo(i == 0 ? "persons" : "persons (" + (i + 1) + ")");
+				assertThat(sheet.getRow(0).getCell(0).getStringCellValue()).isEqualTo("Id");
+				assertThat(sheet.getRow(1).getCell(0).getStringCellValue()).isEqualTo(
+						String.valueOf(Mock.persons.get(i * 300).getId()));
+				assertThat(sheet.getLastRowNum()).isEqualTo(i < 3 ? 300 : 100);
+			}
+		}
+	}
+
+	@Test
+	public void should_estimate_the_column_widths_on_the_sampled_rows() throws IOException {
+
+		table = new HtmlTable("tableId", null, null);
+		table.addHeaderRow().addColumn("City");
+		table.addRow().addColumn("東京都千代田区");
+		table.addRow().addColumn("A city name longer than the sample");
+		for (Engine engine : Engine.values()) {
+			configureExport(new ExportConf.Builder(ReservedFormat.XLSX).engine(engine)
+					.autoSizeStrategy(AutoSizeStrategy.ESTIMATE).autoSizeSampleRows(2).build());
+			processExport(new XlsxExport());
+
+			Sheet sheet = new XSSFWorkbook(new ByteArrayInputStream(baos.toByteArray())).getSheetAt(0);
+			assertThat(sheet.getColumnWidth(0)).as(engine.name()).isEqualTo((14 + 2) * 256);
+		}
+	}
+
+	@Test
+	public void should_style_the_columns_with_every_engine() throws IOException {
+
+		ExcelCellStyle header = new ExcelCellStyle.Builder().bold(true)
+				.fillColor(IndexedColors.GREY_25_PERCENT.getIndex()).alignment(Alignment.CENTER).build();
+		for (Engine engine : Engine.values()) {
+			ExportConf exportConf = new ExportConf.Builder(ReservedFormat.XLSX).engine(engine).build();
+			table = new HtmlTableBuilder<Person>().newBuilder("tableId", Mock.persons, null, exportConf)
+					.column().fillWithProperty("id").title("Id").headerStyle(header)
+					.bodyStyle(new ExcelCellStyle.Builder().dataFormat("000000").build())
+					.column().fillWithProperty("lastName").title("LastName").headerStyle(header)
+					.build();
+			processExport(new XlsxExport());
+
+			XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(baos.toByteArray()));
+			// Default, header and identifiers
+			assertThat(workbook.getNumCellStyles()).as(engine.name()).isEqualTo((short) 3);
+			Sheet sheet = workbook.getSheetAt(0);
+			CellStyle headerStyle = sheet.getRow(0).getCell(1).getCellStyle();
+			assertThat(headerStyle.getFillForegroundColor()).as(engine.name()).isEqualTo(
+					IndexedColors.GREY_25_PERCENT.getIndex());
+			assertThat(headerStyle.getAlignment()).as(engine.name()).isEqualTo(CellStyle.ALIGN_CENTER);
+			assertThat(workbook.getFontAt(headerStyle.getFontIndex()).getBoldweight()).as(engine.name()).isEqualTo(
+					Font.BOLDWEIGHT_BOLD);
+			assertThat(sheet.getRow(1).getCell(0).getCellStyle().getDataFormatString()).as(engine.name()).isEqualTo(
+					"000000");
+			assertThat(sheet.getRow(1).getCell(1).getCellStyle().getIndex()).as(engine.name()).isEqualTo((short) 0);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.time.LocalDate;
+
+import org.junit.Test;
+
+import com.github.exporthelper.core.html.HtmlRow;
+
+/**
+ * Test the estimation of the column widths.
+ */
+public class ColumnWidthEstimatorTest {
+
+	@Test
+	public void should_count_the_east_asian_characters_as_double() {
+		assertThat(ColumnWidthEstimator.getDisplayWidth("Paris")).isEqualTo(5);
+		assertThat(ColumnWidthEstimator.getDisplayWidth("東京")).isEqualTo(4);
+		assertThat(ColumnWidthEstimator.getDisplayWidth("서울 Seoul")).isEqualTo(10);
+		assertThat(ColumnWidthEstimator.getDisplayWidth("ＡＢＣ")).isEqualTo(6);
+		assertThat(ColumnWidthEstimator.getDisplayWidth("𠀋")).isEqualTo(2);
+	}
+
+	@Test
+	public void should_ignore_the_combining_marks_and_keep_the_widest_line() {
+		assertThat(ColumnWidthEstimator.getDisplayWidth("Besançon")).isEqualTo(8);
+		assertThat(ColumnWidthEstimator.getDisplayWidth("Lyon\nVilleurbanne\nBron")).isEqualTo(12);
+	}
+
+	@Test
+	public void should_only_measure_the_sampled_rows() {
+		ColumnWidthEstimator estimator = new ColumnWidthEstimator(2);
+		for (String name : new String[] { "Name", "東京", "A much longer name" }) {
+			if (estimator.isSampling()) {
+				HtmlRow row = new HtmlRow();
+				estimator.measure(0, row.addColumn(name));
+				estimator.measure(1, row.addColumnValue(LocalDate.of(2014, 8, 27)));
+			}
+			estimator.nextRow();
+		}
+
+		assertThat(estimator.getColumnCount()).isEqualTo(2);
+		assertThat(estimator.getWidth(0)).isEqualTo(6);
+		assertThat(estimator.getWidth(1)).isEqualTo(12);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Test how the numbers are written in the Excel exports.
+ */
+public class ExcelNumbersTest {
+
+	@Test
+	public void should_write_the_numbers_excel_can_hold() {
+		assertThat(ExcelNumbers.toDouble(42)).isEqualTo(42d);
+		assertThat(ExcelNumbers.toDouble(0.1f)).isEqualTo(0.1d);
+		assertThat(ExcelNumbers.toDouble(-12.5d)).isEqualTo(-12.5d);
+		assertThat(ExcelNumbers.toDouble(123456789012345L)).isEqualTo(123456789012345d);
+		assertThat(ExcelNumbers.toDouble(new BigDecimal("12.50"))).isEqualTo(12.5d);
+		assertThat(ExcelNumbers.toDouble(new BigDecimal("1E+300"))).isEqualTo(1E300);
+		assertThat(ExcelNumbers.toDouble(BigDecimal.ZERO)).isEqualTo(0d);
+	}
+
+	@Test
+	public void should_write_the_other_numbers_as_text() {
+		assertThat(ExcelNumbers.toDouble(1234567890123456L)).isNull();
+		assertThat(ExcelNumbers.toDouble(new BigInteger("12345678901234567890"))).isNull();
+		assertThat(ExcelNumbers.toDouble(new BigDecimal("1E+400"))).isNull();
+		assertThat(ExcelNumbers.toDouble(new BigDecimal("-1E+308"))).isNull();
+		assertThat(ExcelNumbers.toDouble(new BigDecimal("1E-400"))).isNull();
+		assertThat(ExcelNumbers.toDouble(Double.MAX_VALUE)).isNull();
+		assertThat(ExcelNumbers.toDouble(Double.NaN)).isNull();
+		assertThat(ExcelNumbers.toDouble(Float.NEGATIVE_INFINITY)).isNull();
+		assertThat(ExcelNumbers.toDouble(new AtomicLong(1))).isNull();
+	}
+
+	@Test
+	public void should_write_the_xlsx_values_in_their_shortest_form() {
+		assertThat(ExcelNumbers.toText(42d)).isEqualTo("42");
+		assertThat(ExcelNumbers.toText(-12.5d)).isEqualTo("-12.5");
+		assertThat(ExcelNumbers.toText(0.1d)).isEqualTo("0.1");
+		assertThat(ExcelNumbers.toText(1E300)).isEqualTo("1.0E300");
+	}
+}
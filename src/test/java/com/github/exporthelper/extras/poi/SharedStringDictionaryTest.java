@@ -0,0 +1,101 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2013-2014 Dandelion
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of Dandelion nor the names of its contributors 
+ * may be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.exporthelper.extras.poi;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+/**
+ * Test the table of the shared strings.
+ */
+public class SharedStringDictionaryTest {
+
+	@Test
+	public void should_deduplicate_the_strings_in_memory_and_on_disk() throws IOException {
+		SharedStringDictionary dictionary = new SharedStringDictionary(100);
+		try {
+			// Enough distinct strings for the on-disk table to grow
+			for (int i = 0; i < 200000; i++) {
+				assertThat(dictionary.indexOf("value " + (i % 70000))).isEqualTo(i % 70000);
+			}
+			assertThat(dictionary.indexOf("")).isEqualTo(70000);
+			assertThat(dictionary.indexOf("")).isEqualTo(70000);
+
+			assertThat(dictionary.getUniqueCount()).isEqualTo(70001);
+			assertThat(dictionary.getReferenceCount()).isEqualTo(200002);
+		} finally {
+			dictionary.close();
+		}
+	}
+
+	@Test
+	public void should_find_the_strings_written_or_still_buffered() throws IOException {
+		SharedStringDictionary dictionary = new SharedStringDictionary(0);
+		try {
+			// Strings still in the write buffer, flushed with it or larger than it
+			String[] values = new String[300];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = StringUtils.repeat((char) ('a' + i % 26), i == 150 ? 100000 : i * 7);
+				assertThat(dictionary.indexOf(values[i] + i)).isEqualTo(i);
+				assertThat(dictionary.indexOf(values[i / 2] + (i / 2))).isEqualTo(i / 2);
+			}
+			for (int i = 0; i < values.length; i++) {
+				assertThat(dictionary.indexOf(values[i] + i)).isEqualTo(i);
+			}
+			assertThat(dictionary.getUniqueCount()).isEqualTo(values.length);
+		} finally {
+			dictionary.close();
+		}
+	}
+
+	@Test
+	public void should_write_the_items_in_index_order() throws IOException {
+		SharedStringDictionary dictionary = new SharedStringDictionary(1);
+		try {
+			dictionary.indexOf("Paris");
+			dictionary.indexOf("Lyon & Co");
+			dictionary.indexOf("Paris");
+			dictionary.indexOf("Besançon");
+
+			StringBuilder items = new StringBuilder();
+			dictionary.writeItems(items);
+			assertThat(items.toString()).isEqualTo(
+					"<si><t xml:space=\"preserve\">Paris</t></si>"
+							+ "<si><t xml:space=\"preserve\">Lyon &amp; Co</t></si>"
+							+ "<si><t xml:space=\"preserve\">Besançon</t></si>");
+		} finally {
+			dictionary.close();
+		}
+	}
+}